@@ -0,0 +1,87 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.CharStreams;
+
+import net.ids.util.HandlebarsUtil;
+import net.ids.util.HandlebarsUtil.StreamingTemplate;
+
+/**
+ * Parsing, sorting and rendering throughput for the JUnit tool.
+ * <p>
+ * Each suite is written to its own file, as Gradle does; use <code>-p suites=...</code> to pick sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JUnitBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int suites;
+
+    private Path directory;
+    private List<Path> reports;
+
+    private StreamingTemplate template;
+    private List<Pair<JUnitTestSuite, List<JUnitTestCase>>> results;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("junit-benchmark");
+        reports = SyntheticReports.junit(directory, suites);
+
+        template = HandlebarsUtil.compileStreaming(JUnitAnalysisTool.class.getResourceAsStream("junit-output.hbs"));
+        results = parse();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Benchmark
+    public List<Pair<JUnitTestSuite, List<JUnitTestCase>>> parse() {
+        final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> parsed = Lists.newArrayListWithCapacity(reports.size());
+        for (Path report : reports) {
+            JUnitAnalysisTool.parse(report, parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * Sorts a copy of the parsed results (the copy is included in the timing, but is cheap next to the sort).
+     */
+    @Benchmark
+    public List<Pair<JUnitTestSuite, List<JUnitTestCase>>> sort() {
+        final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> copy = Lists.newArrayListWithCapacity(results.size());
+        for (Pair<JUnitTestSuite, List<JUnitTestCase>> result : results) {
+            copy.add(Pair.of(result.getLeft(), Lists.newArrayList(result.getRight())));
+        }
+        JUnitAnalysisTool.sort(copy);
+        return copy;
+    }
+
+    @Benchmark
+    public void render() {
+        HandlebarsUtil.render(template, ReportValueResolver.INSTANCE, Maps.newHashMap(), results, CharStreams.nullWriter());
+    }
+}
@@ -0,0 +1,103 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import net.ids.util.MappedXmlScanner;
+import net.ids.util.NumberParser;
+
+/**
+ * Numeric attribute parsing: the JDK parsers on decoded attribute strings against {@link NumberParser} reading in place.
+ * <p>
+ * The interesting figure is the allocation rate from the gc profiler ({@code gc.alloc.rate.norm}), which should be close to zero for the in place
+ * variants. Each operation parses the given number of values; use <code>-p values=...</code> to pick sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NumberParsingBenchmark {
+
+    @Param({"1000", "100000"})
+    public int values;
+
+    private Path directory;
+    private Path pmdReport;
+    private String[] times;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("number-parsing-benchmark");
+        pmdReport = SyntheticReports.pmd(directory, values);
+
+        // Test times as Gradle writes them
+        final Random random = new Random(4);
+        times = new String[values];
+        for (int i = 0; i < values; i++) {
+            times[i] = Float.toString(random.nextInt(50000) / 1000f);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Benchmark
+    public float parseTimesJdk() {
+        float total = 0;
+        for (String time : times) {
+            total += Float.parseFloat(time);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public float parseTimesNumberParser() {
+        float total = 0;
+        for (String time : times) {
+            total += NumberParser.parseFloat(time);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long parsePmdAttributesJdk() throws IOException {
+        final MappedXmlScanner scanner = MappedXmlScanner.open(pmdReport);
+        long total = 0;
+        for (int event = scanner.next(); event != MappedXmlScanner.END_DOCUMENT; event = scanner.next()) {
+            if (event == MappedXmlScanner.START_ELEMENT && scanner.isNamed("violation")) {
+                total += Integer.parseInt(scanner.attribute("beginline")) + Integer.parseInt(scanner.attribute("endline"))
+                        + Integer.parseInt(scanner.attribute("begincolumn")) + Integer.parseInt(scanner.attribute("endcolumn"))
+                        + Integer.parseInt(scanner.attribute("priority"));
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long parsePmdAttributesInPlace() throws IOException {
+        final MappedXmlScanner scanner = MappedXmlScanner.open(pmdReport);
+        long total = 0;
+        for (int event = scanner.next(); event != MappedXmlScanner.END_DOCUMENT; event = scanner.next()) {
+            if (event == MappedXmlScanner.START_ELEMENT && scanner.isNamed("violation")) {
+                total += scanner.intAttribute("beginline") + scanner.intAttribute("endline") + scanner.intAttribute("begincolumn")
+                        + scanner.intAttribute("endcolumn") + scanner.intAttribute("priority");
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,93 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.CharStreams;
+
+import net.ids.util.HandlebarsUtil;
+import net.ids.util.HandlebarsUtil.StreamingTemplate;
+import net.ids.util.MappedXmlScanner;
+
+/**
+ * Parsing and rendering throughput for the static analysis tool.
+ * <p>
+ * Each tool's report holds the given number of violations; use <code>-p violations=...</code> to pick sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StaticAnalysisBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int violations;
+
+    private Path directory;
+    private Path checkstyleReport;
+    private Path findbugsReport;
+    private Path pmdReport;
+
+    private StreamingTemplate template;
+    private List<StaticAnalysisMessage> messages;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("static-analysis-benchmark");
+        checkstyleReport = SyntheticReports.checkstyle(directory, violations);
+        findbugsReport = SyntheticReports.findbugs(directory, violations);
+        pmdReport = SyntheticReports.pmd(directory, violations);
+
+        template = HandlebarsUtil.compileStreaming(StaticAnalysisTool.class.getResourceAsStream("static-analysis-output.hbs"));
+        messages = Lists.newArrayList();
+        StaticAnalysisTool.parseCheckstyle(MappedXmlScanner.open(checkstyleReport), messages);
+        StaticAnalysisTool.parseFindbugs(MappedXmlScanner.open(findbugsReport), messages);
+        StaticAnalysisTool.parsePMD(MappedXmlScanner.open(pmdReport), messages);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Benchmark
+    public List<StaticAnalysisMessage> parseCheckstyle() throws IOException {
+        final List<StaticAnalysisMessage> parsed = Lists.newArrayList();
+        StaticAnalysisTool.parseCheckstyle(MappedXmlScanner.open(checkstyleReport), parsed);
+        return parsed;
+    }
+
+    @Benchmark
+    public List<StaticAnalysisMessage> parseFindbugs() throws IOException {
+        final List<StaticAnalysisMessage> parsed = Lists.newArrayList();
+        StaticAnalysisTool.parseFindbugs(MappedXmlScanner.open(findbugsReport), parsed);
+        return parsed;
+    }
+
+    @Benchmark
+    public List<StaticAnalysisMessage> parsePMD() throws IOException {
+        final List<StaticAnalysisMessage> parsed = Lists.newArrayList();
+        StaticAnalysisTool.parsePMD(MappedXmlScanner.open(pmdReport), parsed);
+        return parsed;
+    }
+
+    @Benchmark
+    public void render() {
+        HandlebarsUtil.render(template, ReportValueResolver.INSTANCE, Maps.newHashMap(), messages, CharStreams.nullWriter());
+    }
+}
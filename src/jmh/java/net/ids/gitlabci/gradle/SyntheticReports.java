@@ -0,0 +1,159 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+/**
+ * Generates synthetic (but realistically shaped) report files for the benchmarks.
+ * <p>
+ * A fixed seed is used so every run benchmarks the same input.
+ */
+final class SyntheticReports {
+
+    // Violations are spread across files in batches of this size
+    private static final int VIOLATIONS_PER_FILE = 20;
+
+    private static final String[] CHECKSTYLE_CHECKS = {"whitespace.WhitespaceAroundCheck", "javadoc.JavadocMethodCheck", "sizes.LineLengthCheck",
+            "naming.MemberNameCheck", "imports.CustomImportOrderCheck", "blocks.NeedBracesCheck"};
+    private static final String[] FINDBUGS_TYPES = {"URF_UNREAD_FIELD", "NP_NULL_ON_SOME_PATH", "DM_DEFAULT_ENCODING", "SE_BAD_FIELD", "EI_EXPOSE_REP"};
+    private static final String[] PMD_RULES = {"UnusedLocalVariable", "AvoidDuplicateLiterals", "GodClass", "CyclomaticComplexity", "ShortVariable"};
+
+    private SyntheticReports() {
+    }
+
+    /**
+     * Writes a checkstyle report with the given number of violations.
+     */
+    static Path checkstyle(final Path directory, final int violations) throws IOException {
+        final Random random = new Random(1);
+        final Path path = Files.createDirectories(directory.resolve("checkstyle")).resolve("main.xml");
+        try (Writer writer = newWriter(path)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<checkstyle version=\"6.17\">\n");
+            for (int i = 0; i < violations; i++) {
+                if (i % VIOLATIONS_PER_FILE == 0) {
+                    if (i > 0) {
+                        writer.write("</file>\n");
+                    }
+                    writer.write("<file name=\"/builds/project/module/src/main/java/net/ids/Generated" + i / VIOLATIONS_PER_FILE + ".java\">\n");
+                }
+                final String check = CHECKSTYLE_CHECKS[random.nextInt(CHECKSTYLE_CHECKS.length)];
+                writer.write("<error line=\"" + (1 + random.nextInt(2000)) + "\" column=\"" + (1 + random.nextInt(120)) + "\" severity=\"warning\" message=\"Generated message "
+                        + i + " for &apos;" + check + "&apos;.\" source=\"com.puppycrawl.tools.checkstyle.checks." + check + "\"/>\n");
+            }
+            if (violations > 0) {
+                writer.write("</file>\n");
+            }
+            writer.write("</checkstyle>\n");
+        }
+        return path;
+    }
+
+    /**
+     * Writes a findbugs report with the given number of bug instances.
+     */
+    static Path findbugs(final Path directory, final int violations) throws IOException {
+        final Random random = new Random(2);
+        final Path path = Files.createDirectories(directory.resolve("findbugs")).resolve("main.xml");
+        try (Writer writer = newWriter(path)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<BugCollection version=\"3.0.1\" sequence=\"0\" timestamp=\"1458000000000\" analysisTimestamp=\"1458000000000\" release=\"\">\n");
+            for (int i = 0; i < violations; i++) {
+                final String className = "net.ids.Generated" + i / VIOLATIONS_PER_FILE;
+                final int start = 1 + random.nextInt(2000);
+                writer.write("<BugInstance type=\"" + FINDBUGS_TYPES[random.nextInt(FINDBUGS_TYPES.length)] + "\" priority=\"" + (1 + random.nextInt(3))
+                        + "\" rank=\"18\" abbrev=\"UrF\" category=\"PERFORMANCE\">\n");
+                writer.write("<Class classname=\"" + className + "\"><SourceLine classname=\"" + className + "\" start=\"1\" end=\"2500\" sourcefile=\"Generated.java\" "
+                        + "sourcepath=\"net/ids/Generated.java\"/></Class>\n");
+                writer.write("<Method classname=\"" + className + "\" name=\"method" + i + "\" signature=\"()V\" isStatic=\"false\"><SourceLine classname=\"" + className
+                        + "\" start=\"" + start + "\" end=\"" + (start + 10) + "\" startBytecode=\"0\" endBytecode=\"20\" sourcefile=\"Generated.java\" "
+                        + "sourcepath=\"net/ids/Generated.java\"/></Method>\n");
+                writer.write("<SourceLine classname=\"" + className + "\" start=\"" + (start + 2) + "\" end=\"" + (start + 2) + "\" startBytecode=\"4\" endBytecode=\"4\" "
+                        + "sourcefile=\"Generated.java\" sourcepath=\"net/ids/Generated.java\"/>\n");
+                writer.write("</BugInstance>\n");
+            }
+            writer.write("</BugCollection>\n");
+        }
+        return path;
+    }
+
+    /**
+     * Writes a PMD report with the given number of violations.
+     */
+    static Path pmd(final Path directory, final int violations) throws IOException {
+        final Random random = new Random(3);
+        final Path path = Files.createDirectories(directory.resolve("pmd")).resolve("main.xml");
+        try (Writer writer = newWriter(path)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<pmd version=\"5.4.1\" timestamp=\"2016-03-15T14:06:56.000\">\n");
+            for (int i = 0; i < violations; i++) {
+                if (i % VIOLATIONS_PER_FILE == 0) {
+                    if (i > 0) {
+                        writer.write("</file>\n");
+                    }
+                    writer.write("<file name=\"/builds/project/module/src/main/java/net/ids/Generated" + i / VIOLATIONS_PER_FILE + ".java\">\n");
+                }
+                final String rule = PMD_RULES[random.nextInt(PMD_RULES.length)];
+                final int line = 1 + random.nextInt(2000);
+                writer.write("<violation beginline=\"" + line + "\" endline=\"" + (line + random.nextInt(5)) + "\" begincolumn=\"" + (1 + random.nextInt(40))
+                        + "\" endcolumn=\"" + (40 + random.nextInt(80)) + "\" rule=\"" + rule + "\" ruleset=\"Design\" package=\"net.ids\" class=\"Generated\" method=\"method"
+                        + i + "\" externalInfoUrl=\"https://pmd.github.io/pmd-5.4.1/pmd-java/rules/java/design.html#" + rule + "\" priority=\"" + (1 + random.nextInt(5))
+                        + "\">\nGenerated violation " + i + "\n</violation>\n");
+            }
+            if (violations > 0) {
+                writer.write("</file>\n");
+            }
+            writer.write("</pmd>\n");
+        }
+        return path;
+    }
+
+    /**
+     * Writes the given number of JUnit suites (one file each), each with a handful of test cases, some failing.
+     */
+    static List<Path> junit(final Path directory, final int suites) throws IOException {
+        final Random random = new Random(4);
+        final Path resultsDir = Files.createDirectories(directory.resolve("test-results"));
+        final List<Path> paths = Lists.newArrayListWithCapacity(suites);
+        for (int i = 0; i < suites; i++) {
+            final String suiteName = "net.ids.GeneratedTest" + i;
+            final int tests = 1 + random.nextInt(20);
+            final Path path = resultsDir.resolve("TEST-" + suiteName + ".xml");
+            try (Writer writer = newWriter(path)) {
+                final StringBuilder cases = new StringBuilder();
+                int failures = 0;
+                for (int t = 0; t < tests; t++) {
+                    cases.append("  <testcase name=\"test").append(t).append("\" classname=\"").append(suiteName).append("\" time=\"").append(random.nextInt(5000) / 1000f)
+                            .append('"');
+                    if (random.nextInt(10) == 0) {
+                        failures++;
+                        cases.append(">\n    <failure message=\"java.lang.AssertionError: expected\" type=\"java.lang.AssertionError\">java.lang.AssertionError: expected\n")
+                                .append("\tat org.junit.Assert.fail(Assert.java:88)\n\tat ").append(suiteName).append(".test").append(t).append("(GeneratedTest.java:")
+                                .append(10 + t).append(")\n</failure>\n  </testcase>\n");
+                    } else {
+                        cases.append("/>\n");
+                    }
+                }
+
+                writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuite name=\"" + suiteName + "\" tests=\"" + tests + "\" skipped=\"0\" failures=\"" + failures
+                        + "\" errors=\"0\" timestamp=\"2016-03-15T03:00:00\" hostname=\"runner\" time=\"" + random.nextInt(20000) / 1000f + "\">\n  <properties/>\n");
+                writer.write(cases.toString());
+                writer.write("  <system-out><![CDATA[");
+                for (int line = random.nextInt(50); line > 0; line--) {
+                    writer.write("stdout line " + line + " from " + suiteName + "\n");
+                }
+                writer.write("]]></system-out>\n  <system-err><![CDATA[]]></system-err>\n</testsuite>\n");
+            }
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    private static Writer newWriter(final Path path) throws IOException {
+        return Files.newBufferedWriter(path, Charsets.UTF_8);
+    }
+}
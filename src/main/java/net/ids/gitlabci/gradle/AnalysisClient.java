@@ -0,0 +1,76 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+
+/**
+ * Thin client that submits a job to a running {@link AnalysisServer} and exits with the same status the tool itself would have.
+ * <p>
+ * Relative paths are resolved against the client's working directory. The server's token is read from the file it wrote at startup, so the client must
+ * run as the same user.
+ */
+public class AnalysisClient {
+
+    /**
+     * Command-line entry point to the client.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = AnalysisServer.DEFAULT_PORT;
+        int first = 0;
+        if (args.length > 1 && "--port".equals(args[0])) {
+            port = Integer.parseInt(args[1]);
+            first = 2;
+        }
+
+        if (args.length - first < 3 || !("junit".equals(args[first]) || "static-analysis".equals(args[first]) || "all".equals(args[first]))) {
+            System.err.println("USAGE: AnalysisClient [--port <port>] <junit|static-analysis|all> [options] <root-dir> <output-file|output-dir>");
+            System.exit(1);
+        }
+
+        final Path tokenFile = AnalysisServer.tokenFile(port);
+        if (!Files.isReadable(tokenFile)) {
+            System.err.println("No analysis server token in " + tokenFile + ", is the server running on port " + port + "?");
+            System.exit(1);
+        }
+        final String token = new String(Files.readAllBytes(tokenFile), Charsets.UTF_8).trim();
+
+        // The tool's arguments go one per line
+        final List<String> toolArgs = Arrays.asList(args).subList(first + 1, args.length);
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/" + args[first]).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty(AnalysisServer.WORKING_DIRECTORY_HEADER, System.getProperty("user.dir"));
+        connection.setRequestProperty(AnalysisServer.TOKEN_HEADER, token);
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(Joiner.on('\n').join(toolArgs).getBytes(Charsets.UTF_8));
+        }
+
+        final int status = connection.getResponseCode();
+        final String body;
+        try (InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            body = IOUtils.toString(input, Charsets.UTF_8);
+        }
+
+        if (status != 200) {
+            System.err.println(body);
+            System.exit(1);
+        }
+
+        System.out.println(body);
+        if (!AnalysisServer.PASSED.equals(body)) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package net.ids.gitlabci.gradle;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.io.FilenameUtils;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Command-line options shared by the analysis tools.
+ */
+class AnalysisOptions implements Cloneable {
+
+    String rootDir;
+    String outputFile;
+
+    // Number of worker threads used to parse report files
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    // The pool they run on, shared by the phases of a run (set up by ReportIngester.withPool, or shared between jobs by the AnalysisServer)
+    ForkJoinPool pool;
+
+    // Optional cache of parsed report files (and its size limit)
+    String cacheDir;
+    long cacheMaxBytes = 256L * 1024 * 1024;
+
+    // Results beyond this (estimated) size are sorted in runs on disk and merged
+    long sortBufferBytes = 256L * 1024 * 1024;
+
+    // Optional machine readable exports
+    String jsonLinesFile;
+    String binaryFile;
+
+    // Static analysis: split the report into a page per module / tool / file with an index page
+    boolean paged;
+
+    // Write run metrics next to the report, including the N slowest files to parse
+    boolean metrics;
+    int slowestFiles = 10;
+
+    // JUnit: move large output and stack traces out of the report into side files that are fetched on demand
+    boolean lazyBlobs;
+
+    // JUnit: file holding the history of test durations, used to flag tests that have got slower
+    String historyFile;
+
+    // JUnit: number of parallel jobs to split the suites across, and where to write each job's list of suites
+    int shards = 1;
+    String shardDir;
+
+    // Static analysis: a previous run's binary export, so that only new violations are reported
+    String baselineFile;
+
+    // Keep the report up to date as the build writes report files, until interrupted (see ReportWatcher)
+    boolean watch;
+
+    /**
+     * Parses the command line, returning null if it is not valid.
+     */
+    static AnalysisOptions parse(final String[] args) {
+        final AnalysisOptions options = new AnalysisOptions();
+        final List<String> positional = Lists.newArrayList();
+        boolean shardsGiven = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                final String arg = args[i];
+                switch (arg) {
+                    case "--threads":
+                        options.threads = positiveInt(args, ++i);
+                        break;
+
+                    case "--paged":
+                        options.paged = true;
+                        break;
+
+                    case "--metrics":
+                        options.metrics = true;
+                        break;
+
+                    case "--slowest-files":
+                        options.slowestFiles = nonNegativeInt(args, ++i);
+                        break;
+
+                    case "--sort-buffer":
+                        options.sortBufferBytes = positiveInt(args, ++i) * 1024L * 1024L;
+                        break;
+
+                    case "--jsonl":
+                        options.jsonLinesFile = value(args, ++i);
+                        break;
+
+                    case "--binary":
+                        options.binaryFile = value(args, ++i);
+                        break;
+
+                    case "--lazy-blobs":
+                        options.lazyBlobs = true;
+                        break;
+
+                    case "--history":
+                        options.historyFile = value(args, ++i);
+                        break;
+
+                    case "--shards":
+                        options.shards = positiveInt(args, ++i);
+                        shardsGiven = true;
+                        break;
+
+                    case "--shard-dir":
+                        options.shardDir = value(args, ++i);
+                        break;
+
+                    case "--baseline":
+                        options.baselineFile = value(args, ++i);
+                        break;
+
+                    case "--cache-dir":
+                        options.cacheDir = value(args, ++i);
+                        break;
+
+                    case "--cache-size":
+                        options.cacheMaxBytes = positiveInt(args, ++i) * 1024L * 1024L;
+                        break;
+
+                    case "--watch":
+                        options.watch = true;
+                        break;
+
+                    default:
+                        if (arg.startsWith("--")) {
+                            return null;
+                        }
+                        positional.add(arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        if (positional.size() != 2) {
+            return null;
+        }
+        // The plan is only ever written to the shard directory
+        if (shardsGiven && options.shardDir == null) {
+            return null;
+        }
+        options.rootDir = positional.get(0);
+        options.outputFile = positional.get(1);
+        return options;
+    }
+
+    /**
+     * Resolves the relative paths in these options against the supplied directory (used when the options came from a client with its own working directory).
+     */
+    void resolveAgainst(final Path directory) {
+        rootDir = directory.resolve(rootDir).toString();
+        outputFile = directory.resolve(outputFile).toString();
+        cacheDir = resolve(directory, cacheDir);
+        jsonLinesFile = resolve(directory, jsonLinesFile);
+        binaryFile = resolve(directory, binaryFile);
+        baselineFile = resolve(directory, baselineFile);
+        historyFile = resolve(directory, historyFile);
+        shardDir = resolve(directory, shardDir);
+    }
+
+    /**
+     * Returns a copy of these options for one report of a combined run (see {@link AnalysisTool}), where the output file is a directory.
+     * <p>
+     * The report is written to {@code <report>.html} in that directory, and the report name is added to the export file names so the reports don't
+     * overwrite each other's exports.
+     */
+    AnalysisOptions forReport(final String report) {
+        final AnalysisOptions options = copy();
+        options.outputFile = Paths.get(outputFile, report + ".html").toString();
+        options.jsonLinesFile = withSuffix(jsonLinesFile, report);
+        options.binaryFile = withSuffix(binaryFile, report);
+        return options;
+    }
+
+    /**
+     * Returns a copy of these options whose run uses the supplied worker pool.
+     */
+    AnalysisOptions withPool(final ForkJoinPool workers) {
+        final AnalysisOptions options = copy();
+        options.pool = workers;
+        return options;
+    }
+
+    /**
+     * Returns a copy of these options for an interim report in watch mode, which only writes the report itself: the history, shard lists, exports and
+     * metrics are left alone until the final report (the history would otherwise record the same tests again, and the others would be rewritten with
+     * partial results every time the files change).
+     */
+    AnalysisOptions interim() {
+        final AnalysisOptions options = copy();
+        options.historyFile = null;
+        options.shardDir = null;
+        options.jsonLinesFile = null;
+        options.binaryFile = null;
+        options.metrics = false;
+        return options;
+    }
+
+    private AnalysisOptions copy() {
+        try {
+            return (AnalysisOptions) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String withSuffix(final String path, final String suffix) {
+        if (path == null) {
+            return null;
+        }
+        final String extension = FilenameUtils.getExtension(path);
+        return FilenameUtils.removeExtension(path) + "-" + suffix + (extension.isEmpty() ? "" : "." + extension);
+    }
+
+    /**
+     * Returns the usage text for the named tool.
+     */
+    static String usage(final String toolName) {
+        return usage(toolName, "<output-file>");
+    }
+
+    /**
+     * Returns the usage text for the named tool, whose output is described as given.
+     */
+    static String usage(final String toolName, final String output) {
+        return "USAGE: " + toolName + " [options] <root-dir> " + output + "\n"
+                + "  --threads <n>       number of threads used to parse report files (default: number of processors)\n"
+                + "  --cache-dir <dir>   cache parsed report files in this directory, so unchanged files are not parsed again\n"
+                + "  --cache-size <mb>   maximum size of the parse cache (default: 256)\n"
+                + "  --watch             rewrite the report as the build writes report files, then the final report when interrupted\n"
+                + "  --sort-buffer <mb>  results beyond this size are sorted on disk in runs and merged (default: 256)\n"
+                + "  --jsonl <file>      also write the results as newline delimited JSON\n"
+                + "  --binary <file>     also write the results in a compact binary format\n"
+                + "  --metrics           write timings, counts and GC figures to <output>-metrics.prom and <output>-metrics.json\n"
+                + "  --slowest-files <n> number of the slowest files to parse to include in the metrics (default: 10)\n"
+                + "  --lazy-blobs        (junit) write large output and stack traces to <output>-blobs/, loaded when expanded in the report\n"
+                + "  --history <file>    (junit) record test durations in this file and flag tests that are slower than usual\n"
+                + "  --shards <n>        (junit) number of parallel test jobs to plan for (default: 1), needs --shard-dir\n"
+                + "  --shard-dir <dir>   (junit) write the suites for each parallel test job to shard-<n>.txt in this directory\n"
+                + "  --paged             (static analysis) write a page per module, tool and file, with the output file as an index of them\n"
+                + "  --baseline <file>   (static analysis) only report violations not in this binary export from a previous run\n"
+                + "Output and export files named *.gz are gzip compressed (pages aren't). Report files may be gzipped (*.xml.gz) or in .zip, .tar, .tar.gz or .tgz archives.";
+    }
+
+    private static String resolve(final Path directory, final String path) {
+        return path == null ? null : directory.resolve(path).toString();
+    }
+
+    private static String value(final String[] args, final int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    private static int nonNegativeInt(final String[] args, final int index) {
+        final int value = Integer.parseInt(value(args, index));
+        if (value < 0) {
+            throw new IllegalArgumentException(args[index - 1] + " must not be negative");
+        }
+        return value;
+    }
+
+    private static int positiveInt(final String[] args, final int index) {
+        final int value = Integer.parseInt(value(args, index));
+        if (value < 1) {
+            throw new IllegalArgumentException(args[index - 1] + " must be at least 1");
+        }
+        return value;
+    }
+}
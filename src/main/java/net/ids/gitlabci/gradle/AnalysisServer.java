@@ -0,0 +1,206 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.io.BaseEncoding;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Long-running server that accepts analysis jobs over HTTP on the loopback interface.
+ * <p>
+ * This avoids paying JVM startup, class loading and template compilation for every CI job: the templates and parsers stay resident (and JIT compiled)
+ * between jobs. Each job is a POST to <code>/junit</code>, <code>/static-analysis</code> or <code>/all</code> (see {@link AnalysisTool}) whose body holds
+ * the tool's command line, one argument per line; see {@link AnalysisClient}. Jobs run concurrently, each with its own state, and parse their report
+ * files on a single pool shared between them (so {@code --threads} is a server option rather than a job's).
+ * <p>
+ * Being on the loopback interface doesn't stop a web page from posting to the server, so each request must carry a token that the server generates at
+ * startup and writes to a file only its user can read (see {@link #tokenFile(int)}), which the client reads it from.
+ */
+public class AnalysisServer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AnalysisServer.class);
+
+    static final int DEFAULT_PORT = 7171;
+
+    // Request header holding the client's working directory, which relative paths are resolved against
+    static final String WORKING_DIRECTORY_HEADER = "X-Working-Directory";
+
+    // Request header holding the server's token
+    static final String TOKEN_HEADER = "X-Analysis-Token";
+
+    private static final int TOKEN_BYTES = 32;
+
+    static final String PASSED = "PASSED";
+    static final String FAILED = "FAILED";
+
+    /**
+     * A tool's entry point.
+     */
+    private interface Job {
+        boolean run(AnalysisOptions options) throws IOException;
+    }
+
+    /**
+     * Returns the file holding the token for the server on the given port, in the user's home directory.
+     */
+    static Path tokenFile(final int port) {
+        return Paths.get(System.getProperty("user.home"), ".gitlab-ci-analysis", "server-" + port + ".token");
+    }
+
+    /**
+     * Generates a new token and writes it to the token file, readable only by this user where the file system supports it.
+     */
+    private static String writeToken(final Path tokenFile) throws IOException {
+        final byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        final String token = BaseEncoding.base16().lowerCase().encode(bytes);
+
+        // Created with its permissions (rather than narrowed afterwards) so it's never readable by others, then moved into place
+        final boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        final Path directory = tokenFile.getParent();
+        final Path temp;
+        if (posix) {
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            temp = Files.createTempFile(directory, "server", ".tmp", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, "server", ".tmp");
+        }
+        Files.write(temp, token.getBytes(Charsets.UTF_8));
+        Files.move(temp, tokenFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return token;
+    }
+
+    private static boolean hasToken(final HttpExchange exchange, final String token) {
+        final String supplied = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+        return supplied != null && MessageDigest.isEqual(supplied.getBytes(Charsets.UTF_8), token.getBytes(Charsets.UTF_8));
+    }
+
+    private static void handle(final HttpExchange exchange, final String token, final ForkJoinPool pool, final String toolName, final Job job) throws IOException {
+        try {
+            if (!hasToken(exchange, token)) {
+                respond(exchange, 403, "Jobs must carry the token from " + TOKEN_HEADER + " (see AnalysisClient)");
+                return;
+            }
+
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "Jobs must be submitted with POST");
+                return;
+            }
+
+            final List<String> args = IOUtils.readLines(exchange.getRequestBody(), Charsets.UTF_8);
+            args.removeIf(String::isEmpty);
+            final AnalysisOptions options = AnalysisOptions.parse(args.toArray(new String[args.size()]));
+            if (options == null) {
+                respond(exchange, 400, AnalysisOptions.usage(toolName));
+                return;
+            }
+
+            if (options.watch) {
+                respond(exchange, 400, "--watch can't be used with the analysis server");
+                return;
+            }
+
+            final String workingDirectory = exchange.getRequestHeaders().getFirst(WORKING_DIRECTORY_HEADER);
+            if (workingDirectory != null) {
+                options.resolveAgainst(Paths.get(workingDirectory));
+            }
+
+            LOG.info("Running {} for {}", toolName, options.rootDir);
+            respond(exchange, 200, job.run(options.withPool(pool)) ? PASSED : FAILED);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("{} job failed", toolName, e);
+            respond(exchange, 500, Throwables.getStackTraceAsString(e));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String body) throws IOException {
+        final byte[] bytes = body.getBytes(Charsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Command-line entry point to the server.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        int jobs = Runtime.getRuntime().availableProcessors();
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+
+                    case "--jobs":
+                        jobs = Integer.parseInt(args[++i]);
+                        break;
+
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("USAGE: AnalysisServer [--port <port>] [--jobs <number of concurrent jobs>] [--threads <number of threads shared by the jobs>]");
+            System.exit(1);
+        }
+
+        // Only accept local connections (with the token), jobs name arbitrary paths on this machine
+        final Path tokenFile = tokenFile(port);
+        final String token = writeToken(tokenFile);
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/junit", exchange -> handle(exchange, token, pool, "JUnitAnalysisTool", JUnitAnalysisTool::run));
+        server.createContext("/static-analysis", exchange -> handle(exchange, token, pool, "StaticAnalysisTool", StaticAnalysisTool::run));
+        server.createContext("/all", exchange -> handle(exchange, token, pool, "AnalysisTool", AnalysisTool::run));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        server.setExecutor(executor);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(0);
+            executor.shutdownNow();
+            pool.shutdownNow();
+            try {
+                Files.deleteIfExists(tokenFile);
+            } catch (IOException e) {
+                LOG.warn("Unable to delete {}", tokenFile, e);
+            }
+        }));
+
+        server.start();
+        LOG.info("Listening on {} with up to {} concurrent jobs sharing {} threads, token in {}", server.getAddress(), jobs, threads, tokenFile);
+    }
+}
@@ -0,0 +1,70 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SortedMap;
+
+/**
+ * Produces every report from a single walk of the nominated root directory.
+ * <p>
+ * Each file found is handed to whichever registered {@link ReportAnalyzer} recognises it, and the JUnit and static analysis reports are then written as
+ * their own tools would write them: to {@code junit.html} and {@code static-analysis.html} in the output directory (see
+ * {@link AnalysisOptions#forReport(String)} for the exports).
+ */
+public class AnalysisTool {
+
+    /**
+     * Runs all of the analyses described by the options, returning false if any of them found problems.
+     */
+    static boolean run(final AnalysisOptions options) throws IOException {
+        if (options.pool == null) {
+            return ReportIngester.withPool(options, AnalysisTool::run);
+        }
+
+        if (options.watch) {
+            return ReportWatcher.watch(options, ReportAnalyzers.all(), (watchOptions, reports) -> run(watchOptions, new RunMetrics("junit", watchOptions.slowestFiles),
+                    new RunMetrics("static-analysis", watchOptions.slowestFiles), reports));
+        }
+
+        final RunMetrics junitMetrics = new RunMetrics("junit", options.slowestFiles);
+        final RunMetrics staticAnalysisMetrics = new RunMetrics("static-analysis", options.slowestFiles);
+
+        // The walk is shared, so it counts as the discovery phase of both
+        final RunMetrics.Timer junitDiscovery = junitMetrics.start("discovery");
+        final RunMetrics.Timer staticAnalysisDiscovery = staticAnalysisMetrics.start("discovery");
+        final SortedMap<Path, ReportAnalyzer<?>> reports = ReportAnalyzers.discover(options.rootDir, ReportAnalyzers.all(), options.pool);
+        junitDiscovery.stop();
+        staticAnalysisDiscovery.stop();
+
+        return run(options, junitMetrics, staticAnalysisMetrics, reports);
+    }
+
+    private static boolean run(final AnalysisOptions options, final RunMetrics junitMetrics, final RunMetrics staticAnalysisMetrics,
+            final SortedMap<Path, ReportAnalyzer<?>> reports) throws IOException {
+        Files.createDirectories(Paths.get(options.outputFile));
+
+        // Write both reports, even if the first found problems
+        final boolean testsPassed = JUnitAnalysisTool.run(options.forReport(ResultExport.JUNIT), junitMetrics,
+                ReportAnalyzers.forReport(reports, ResultExport.JUNIT));
+        final boolean analysisPassed = StaticAnalysisTool.run(options.forReport(ResultExport.STATIC_ANALYSIS), staticAnalysisMetrics,
+                ReportAnalyzers.forReport(reports, ResultExport.STATIC_ANALYSIS));
+        return testsPassed && analysisPassed;
+    }
+
+    /**
+     * Command-line entry point to the combined scanner.
+     */
+    public static void main(String[] args) throws IOException {
+        final AnalysisOptions options = AnalysisOptions.parse(args);
+        if (options == null) {
+            System.err.println(AnalysisOptions.usage("AnalysisTool", "<output-dir>"));
+            System.exit(1);
+        }
+
+        if (!run(options)) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ToLongFunction;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Sorts records that may not all fit on the heap.
+ * <p>
+ * Records are buffered until their estimated size passes the limit, then the buffer is sorted and spilled to a temporary file as a sorted run. Iterating
+ * merges the runs (plus whatever is still buffered) with a k-way merge, reading each run sequentially. At most {@link #MAX_MERGE_RUNS} runs are read at
+ * once, so with more than that they are first merged into fewer, longer runs, in as many passes as it takes. Sorting compares a precomputed primitive key
+ * first (which must be consistent with the comparator) so most comparisons never touch the records, and large buffers are sorted in parallel on the
+ * given pool. The sorter can be iterated any number of times; close it to delete the runs (which also closes the files of any iteration that was
+ * abandoned part way). Not thread safe.
+ */
+class ExternalSorter<T> implements Iterable<T>, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExternalSorter.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // The most runs merged at once (each has a file open and a read buffer)
+    static final int MAX_MERGE_RUNS = 64;
+
+    private final RecordCodec<T> codec;
+    private final ToLongFunction<T> keyOf;
+    private final Comparator<Keyed<T>> order;
+    private final ToLongFunction<T> sizeOf;
+    private final long maxBufferBytes;
+    private final ForkJoinPool pool;
+
+    private List<T> buffer = Lists.newArrayList();
+    private long bufferBytes;
+    private boolean bufferSorted = true;
+
+    private final List<Path> runs = Lists.newArrayList();
+    private final List<Integer> runSizes = Lists.newArrayList();
+    // Runs being read by iterators that haven't reached their end
+    private final Set<RunIterator> openRuns = Sets.newIdentityHashSet();
+    private Path spillDir;
+    private int runCount;
+    private int size;
+
+    /**
+     * Creates a sorter ordering records by key and then by the comparator, spilling once the records' estimated sizes add up to more than the limit.
+     * The buffer is sorted in parallel on the pool (or on the calling thread if it is null).
+     */
+    ExternalSorter(final RecordCodec<T> codec, final ToLongFunction<T> keyOf, final Comparator<T> comparator, final ToLongFunction<T> sizeOf,
+            final long maxBufferBytes, final ForkJoinPool pool) {
+        this.codec = codec;
+        this.keyOf = keyOf;
+        this.order = keyedOrder(comparator);
+        this.sizeOf = sizeOf;
+        this.maxBufferBytes = maxBufferBytes;
+        this.pool = pool;
+    }
+
+    void add(final T record) {
+        buffer.add(record);
+        bufferBytes += sizeOf.applyAsLong(record);
+        bufferSorted = false;
+        size++;
+        if (bufferBytes > maxBufferBytes) {
+            spill();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Sorts the list in place on the calling thread, comparing the precomputed keys first.
+     */
+    static <T> void sort(final List<T> records, final ToLongFunction<T> keyOf, final Comparator<T> comparator) {
+        sortKeyed(records, keyOf, keyedOrder(comparator), null);
+    }
+
+    private static <T> Comparator<Keyed<T>> keyedOrder(final Comparator<T> comparator) {
+        return (left, right) -> left.key != right.key ? Long.compare(left.key, right.key) : comparator.compare(left.record, right.record);
+    }
+
+    private static <T> void sortKeyed(final List<T> records, final ToLongFunction<T> keyOf, final Comparator<Keyed<T>> order, final ForkJoinPool pool) {
+        final Keyed<T>[] keyed = newKeyedArray(records.size());
+        for (int i = 0; i < keyed.length; i++) {
+            keyed[i] = new Keyed<>(keyOf.applyAsLong(records.get(i)), records.get(i));
+        }
+
+        if (pool == null) {
+            Arrays.sort(keyed, order);
+        } else {
+            // The sort forks into the pool it runs in, so it keeps to the configured threads rather than using the common pool. Small arrays are
+            // sorted sequentially, parallelSort doesn't fork below its own threshold
+            pool.submit(() -> Arrays.parallelSort(keyed, order)).join();
+        }
+        for (int i = 0; i < keyed.length; i++) {
+            records.set(i, keyed[i].record);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Keyed<T>[] newKeyedArray(final int length) {
+        // Every element is a Keyed<T>, and the array never leaves the sort
+        return (Keyed<T>[]) new Keyed<?>[length];
+    }
+
+    /**
+     * Sorts the buffered records now (rather than on the first iteration), so the time can be attributed to sorting.
+     */
+    void sortBuffer() {
+        if (!bufferSorted) {
+            sortKeyed(buffer, keyOf, order, pool);
+            bufferSorted = true;
+        }
+    }
+
+    /**
+     * Writes the buffer out as a sorted run and starts a new one.
+     */
+    private void spill() {
+        sortBuffer();
+        try {
+            if (spillDir == null) {
+                spillDir = Files.createTempDirectory("sort");
+            }
+            final Path run = writeRun(buffer);
+            runs.add(run);
+            runSizes.add(buffer.size());
+            LOG.info("Spilled {} sorted records ({} bytes estimated) to {}", buffer.size(), bufferBytes, run);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+
+        buffer = Lists.newArrayList();
+        bufferBytes = 0;
+    }
+
+    private Path writeRun(final Iterable<T> records) throws IOException {
+        final Path run = spillDir.resolve("run-" + runCount++ + ".bin");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE))) {
+            for (T record : records) {
+                codec.write(output, record);
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Merges the runs into longer ones, each from up to {@link #MAX_MERGE_RUNS} consecutive runs (so the merged runs keep the order of equal records),
+     * until they can be merged together with the buffer.
+     */
+    private void mergeRuns() {
+        while (runs.size() + 1 > MAX_MERGE_RUNS) {
+            final List<Path> merged = Lists.newArrayList();
+            final List<Integer> mergedSizes = Lists.newArrayList();
+            for (int start = 0; start < runs.size(); start += MAX_MERGE_RUNS) {
+                final int end = Math.min(start + MAX_MERGE_RUNS, runs.size());
+                final List<Iterator<T>> sources = Lists.newArrayListWithCapacity(end - start);
+                int count = 0;
+                for (int i = start; i < end; i++) {
+                    sources.add(new RunIterator(runs.get(i), runSizes.get(i)));
+                    count += runSizes.get(i);
+                }
+                try {
+                    merged.add(writeRun(() -> new MergeIterator(sources)));
+                    for (int i = start; i < end; i++) {
+                        Files.delete(runs.get(i));
+                    }
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+                mergedSizes.add(count);
+            }
+            LOG.info("Merged {} sorted runs into {}", runs.size(), merged.size());
+            runs.clear();
+            runs.addAll(merged);
+            runSizes.clear();
+            runSizes.addAll(mergedSizes);
+        }
+    }
+
+    /**
+     * Returns the records in order, merging any spilled runs as it goes.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        sortBuffer();
+        if (runs.isEmpty()) {
+            return buffer.iterator();
+        }
+        mergeRuns();
+
+        final List<Iterator<T>> sources = Lists.newArrayListWithCapacity(runs.size() + 1);
+        for (int i = 0; i < runs.size(); i++) {
+            sources.add(new RunIterator(runs.get(i), runSizes.get(i)));
+        }
+        sources.add(buffer.iterator());
+        return new MergeIterator(sources);
+    }
+
+    /**
+     * Deletes the spilled runs, closing any that are still being read.
+     */
+    @Override
+    public void close() throws IOException {
+        for (RunIterator run : Lists.newArrayList(openRuns)) {
+            run.close();
+        }
+        if (spillDir != null) {
+            FileUtils.deleteDirectory(spillDir.toFile());
+            spillDir = null;
+        }
+    }
+
+    /**
+     * A record together with its precomputed sort key.
+     */
+    private static final class Keyed<T> {
+        private final long key;
+        private final T record;
+
+        Keyed(final long key, final T record) {
+            this.key = key;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Reads a spilled run back in order, closing the file once it's exhausted (or the sorter is closed).
+     */
+    private final class RunIterator implements Iterator<T>, Closeable {
+
+        private final DataInputStream input;
+        private int remaining;
+
+        RunIterator(final Path run, final int count) {
+            try {
+                input = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), BUFFER_SIZE));
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            remaining = count;
+            openRuns.add(this);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public T next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            try {
+                final T record = codec.read(input);
+                if (--remaining == 0) {
+                    close();
+                }
+                return record;
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            remaining = 0;
+            openRuns.remove(this);
+            input.close();
+        }
+    }
+
+    /**
+     * K-way merge of sorted sources, taking equal records from earlier sources first (so the sort is stable across runs).
+     */
+    private final class MergeIterator implements Iterator<T> {
+
+        private final PriorityQueue<Head> heads = new PriorityQueue<>((left, right) -> {
+            final int comparison = order.compare(left.keyed, right.keyed);
+            return comparison != 0 ? comparison : Integer.compare(left.source, right.source);
+        });
+        private final List<Iterator<T>> sources;
+
+        MergeIterator(final List<Iterator<T>> sources) {
+            this.sources = sources;
+            for (int i = 0; i < sources.size(); i++) {
+                advance(i);
+            }
+        }
+
+        private void advance(final int source) {
+            final Iterator<T> iterator = sources.get(source);
+            if (iterator.hasNext()) {
+                final T record = iterator.next();
+                heads.add(new Head(new Keyed<>(keyOf.applyAsLong(record), record), source));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            final Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            advance(head.source);
+            return head.keyed.record;
+        }
+    }
+
+    private final class Head {
+        private final Keyed<T> keyed;
+        private final int source;
+
+        Head(final Keyed<T> keyed, final int source) {
+            this.keyed = keyed;
+            this.source = source;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package net.ids.gitlabci.gradle;
+
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Groups failing tests by the cause of their failure, so that a broken fixture shows up as one group of tests rather than thousands of stack traces.
+ * <p>
+ * A failure's signature is a hash of its root cause (the innermost "Caused by", or the exception itself) and that cause's top few frames, normalised so
+ * that line numbers, lambda and proxy class numbering and other generated names don't split a group. Messages are left out, as they often embed the
+ * values that differ from test to test. Signatures are computed as each file is parsed (before {@link ReportBlobs} moves the trace out), and the groups
+ * are built as the results arrive in path order, so the group numbers are stable from run to run. Not thread safe (apart from {@link #wrap}).
+ */
+class FailureClusters {
+
+    // Frames of the root cause included in its signature
+    private static final int SIGNATURE_FRAMES = 5;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    // Generated names, and what each is normalised to (lambda classes first, as their names contain a '/' which would look like a module prefix)
+    private static final Pattern[] GENERATED_NAMES = {
+        Pattern.compile("\\$\\$Lambda[^.(]*"),
+        Pattern.compile("lambda\\$(\\w*?)\\$\\d+"),
+        Pattern.compile("\\$\\$(\\w*?)\\$\\$\\w+"),
+        Pattern.compile("_\\$\\$_jvst\\w+"),
+        Pattern.compile("\\$(Proxy|MockitoMock|ByteBuddy)\\$?\\w*"),
+        Pattern.compile("Generated(\\w*)Accessor\\d+"),
+    };
+    private static final String[] GENERATED_REPLACEMENTS = {"\\$\\$Lambda", "lambda\\$$1", "\\$\\$$1", "_\\$\\$_jvst", "\\$$1", "Generated$1Accessor"};
+
+    private static final Pattern LINE_NUMBER = Pattern.compile(":\\d+\\)$");
+
+    private final Map<Long, FailureGroup> groups = Maps.newHashMap();
+
+    /**
+     * Wraps the parser so that the signature of each failure is computed as its file is parsed (on the parser thread).
+     */
+    static BiConsumer<Path, List<Pair<JUnitTestSuite, List<JUnitTestCase>>>> wrap(final BiConsumer<Path, List<Pair<JUnitTestSuite, List<JUnitTestCase>>>> parser) {
+        return (path, results) -> {
+            parser.accept(path, results);
+            for (Pair<JUnitTestSuite, List<JUnitTestCase>> result : results) {
+                for (JUnitTestCase testCase : result.getRight()) {
+                    testCase.failureSignature = signature(testCase.error);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the signature of the stack trace, or zero if there isn't one.
+     */
+    static long signature(final String error) {
+        if (StringUtils.isBlank(error)) {
+            return 0;
+        }
+
+        String causeType = null;
+        final List<String> frames = Lists.newArrayListWithCapacity(SIGNATURE_FRAMES);
+        boolean suppressed = false;
+        for (String line : StringUtils.split(error, "\r\n")) {
+            final String trimmed = line.trim();
+            if (line.startsWith("Caused by: ")) {
+                // A new (deeper) cause, which isn't indented unlike the causes of suppressed exceptions
+                causeType = exceptionType(line.substring("Caused by: ".length()));
+                frames.clear();
+                suppressed = false;
+            } else if (trimmed.startsWith("Suppressed: ")) {
+                suppressed = true;
+            } else if (causeType == null) {
+                causeType = exceptionType(trimmed);
+            } else if (!suppressed && trimmed.startsWith("at ") && frames.size() < SIGNATURE_FRAMES) {
+                frames.add(normaliseFrame(trimmed.substring("at ".length())));
+            }
+        }
+
+        // Without any frames there's nothing to tell one assertion failure from another
+        if (frames.isEmpty()) {
+            return 0;
+        }
+        final Hasher hasher = HASH.newHasher().putString(causeType, Charsets.UTF_8);
+        for (String frame : frames) {
+            hasher.putByte((byte) '\n').putString(frame, Charsets.UTF_8);
+        }
+        final long signature = hasher.hash().asLong();
+        return signature == 0 ? 1 : signature;
+    }
+
+    private static String exceptionType(final String line) {
+        final int colon = line.indexOf(':');
+        return (colon < 0 ? line : line.substring(0, colon)).trim();
+    }
+
+    /**
+     * Normalises a frame (the text after "at "), dropping the module / class loader prefix and line number and renaming generated classes.
+     */
+    static String normaliseFrame(final String frame) {
+        String normalised = frame;
+        for (int i = 0; i < GENERATED_NAMES.length; i++) {
+            normalised = GENERATED_NAMES[i].matcher(normalised).replaceAll(GENERATED_REPLACEMENTS[i]);
+        }
+
+        // e.g. java.base@11.0.2/java.lang.Thread.run, or app//com.example.Test.run
+        final int paren = normalised.indexOf('(');
+        final int slash = normalised.lastIndexOf('/', paren < 0 ? normalised.length() : paren);
+        if (slash >= 0) {
+            normalised = normalised.substring(slash + 1);
+        }
+        return LINE_NUMBER.matcher(normalised).replaceFirst(")");
+    }
+
+    /**
+     * Adds the result's failures to their groups; its test cases must already have their IDs.
+     * <p>
+     * Group members whose stack trace is identical to the group's first one share its string, so only one copy is held.
+     */
+    void add(final Pair<JUnitTestSuite, List<JUnitTestCase>> result) {
+        for (JUnitTestCase testCase : result.getRight()) {
+            if (testCase.failureSignature == 0) {
+                continue;
+            }
+
+            final FailureGroup group = groups.computeIfAbsent(testCase.failureSignature, signature -> new FailureGroup(groups.size() + 1, testCase));
+            group.members.add(new Member(testCase));
+            group.count++;
+            testCase.failureGroup = group.id;
+            if (testCase.error != null && testCase.error.equals(group.error)) {
+                testCase.error = group.error;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of failing tests in groups.
+     */
+    int failureCount() {
+        int count = 0;
+        for (FailureGroup group : groups.values()) {
+            count += group.count;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the groups, largest first (then in the order they were found).
+     */
+    List<FailureGroup> groups() {
+        final List<FailureGroup> ordered = Lists.newArrayList(groups.values());
+        ordered.sort(Comparator.comparingInt((FailureGroup group) -> -group.count).thenComparingInt(group -> group.id));
+        return ordered;
+    }
+
+    /**
+     * Failing tests with the same cause, described by the first of them to be found.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_FIELD", justification = "Simple structure / bean class, read by the template")
+    static final class FailureGroup {
+        final int id;
+        final String type;
+        final String message;
+        final String error;
+        // Path to the side file holding the stack trace, if it has been moved out of the report (see ReportBlobs)
+        final String errorBlob;
+        final List<Member> members = Lists.newArrayList();
+        int count;
+
+        FailureGroup(final int id, final JUnitTestCase first) {
+            this.id = id;
+            this.type = first.type;
+            this.message = first.message;
+            this.error = first.error;
+            this.errorBlob = first.errorBlob;
+        }
+    }
+
+    /**
+     * Just enough of a failing test to link to it.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_FIELD", justification = "Simple structure / bean class, read by the template")
+    static final class Member {
+        final int uniqueId;
+        final String className;
+        final String testName;
+
+        Member(final JUnitTestCase testCase) {
+            this.uniqueId = testCase.uniqueId;
+            this.className = testCase.className;
+            this.testName = testCase.testName;
+        }
+    }
+}
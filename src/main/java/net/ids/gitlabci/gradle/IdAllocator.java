@@ -0,0 +1,21 @@
+package net.ids.gitlabci.gradle;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out the unique IDs used to link elements within a single report.
+ * <p>
+ * An allocator is created per report so IDs never leak between reports built in the same JVM. It is lock free and safe to share between threads, however
+ * the IDs are only stable between identical runs if they are requested in a deterministic order.
+ */
+class IdAllocator {
+
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * Returns the next unused ID.
+     */
+    int next() {
+        return nextId.getAndIncrement();
+    }
+}
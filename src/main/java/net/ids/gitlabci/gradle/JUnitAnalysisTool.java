@@ -1,31 +1,32 @@
 package net.ids.gitlabci.gradle;
 
-import static org.joox.JOOX.$;
-
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
-import org.joox.JOOX;
-import org.joox.Match;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.SAXException;
 
-import com.github.jknack.handlebars.Template;
 import com.google.common.base.Charsets;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
+import net.ids.util.CompressedFiles;
 import net.ids.util.HandlebarsUtil;
+import net.ids.util.HandlebarsUtil.StreamingTemplate;
 
 /**
  * Scans the nominated root directory looking for output from JUnit and merges it into a single HTML report.
@@ -34,92 +35,185 @@ public class JUnitAnalysisTool {
 
     private static final Logger LOG = LoggerFactory.getLogger(JUnitAnalysisTool.class);
 
-    private static final Template OUTPUT_TEMPLATE = HandlebarsUtil.compile(JUnitAnalysisTool.class.getResourceAsStream("junit-output.hbs"));
+    private static final JUnitResultParser PARSER = new JUnitResultParser(JUnitResultParser.DEFAULT_MAX_TEXT_LENGTH);
+
+    // Failures first, then by name (the sort keys below must agree with these)
+    private static final Comparator<Pair<JUnitTestSuite, List<JUnitTestCase>>> SUITE_ORDER = (left, right) -> {
+        final int comparison = Boolean.compare(right.getLeft().hasFailures(), left.getLeft().hasFailures());
+        return comparison != 0 ? comparison : left.getLeft().suiteName.compareTo(right.getLeft().suiteName);
+    };
+    private static final Comparator<JUnitTestCase> TEST_CASE_ORDER = (left, right) -> {
+        final int comparison = Boolean.compare(!left.hasError(), !right.hasError());
+        return comparison != 0 ? comparison : left.testName.compareTo(right.testName);
+    };
+
+    private static final StreamingTemplate OUTPUT_TEMPLATE = HandlebarsUtil.compileStreaming(JUnitAnalysisTool.class.getResourceAsStream("junit-output.hbs"));
 
     /**
-     * Parses the output from the static analysis into a simple Java class for later merging / rendering.
+     * Parses the JUnit output into a simple Java class for later merging / rendering.
      */
-    private static void parse(final Path path, final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> results) {
+    static void parse(final Path path, final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> results) {
         try {
-            // Extract suite level info
-            Match suite = $(path.toFile());
-            final String suiteName = suite.attr("name");
-            final int testCount = Integer.parseInt(suite.attr("tests"));
-            final int skippedCount = Integer.parseInt(suite.attr("skipped"));
-            final int failureCount = Integer.parseInt(suite.attr("failures"));
-            final int errorCount = Integer.parseInt(suite.attr("errors"));
-            final float suiteTime = Float.parseFloat(suite.attr("time"));
-            final String stdout = suite.child("system-out").content();
-            final String stderr = suite.child("system-err").content();
-            final JUnitTestSuite suiteInfo = new JUnitTestSuite(suiteName, testCount, skippedCount, failureCount, errorCount, suiteTime, stdout, stderr);
-
-            // Extract each test case
-            final List<JUnitTestCase> tests = Lists.newArrayList();
-            $(suite).children("testcase").map(JOOX::$).forEach(testCase -> {
-                final String testName = testCase.attr("name");
-                final String className = testCase.attr("classname");
-                final float testTime = Float.parseFloat(testCase.attr("time"));
-                final JUnitTestCase testInfo = new JUnitTestCase(testName, className, testTime);
-
-                final Match failure = testCase.child("failure");
-                if (failure.isNotEmpty()) {
-                    final String message = failure.attr("message");
-                    final String type = failure.attr("type");
-                    final String error = failure.content();
-                    testInfo.failure(message, type, error);
-                }
+            results.addAll(PARSER.parse(path));
+        } catch (XMLStreamException | IOException e) {
+            Throwables.propagate(e);
+        }
+    }
 
-                tests.add(testInfo);
+    /**
+     * Returns the expected duration of each suite in the results.
+     * <p>
+     * A suite can appear more than once in a run (e.g. when it's in more than one test task), and runs each time wherever it's sharded, so its
+     * appearances are added up. Each one is expected to take the median of the suite's history where there is one, otherwise its time in this run.
+     */
+    static Map<String, Float> suiteDurations(final Iterable<Pair<JUnitTestSuite, List<JUnitTestCase>>> results, final TestTimingHistory history) {
+        final Map<String, Float> medians = Maps.newHashMap();
+        final Map<String, Float> durations = Maps.newHashMap();
+        for (Pair<JUnitTestSuite, List<JUnitTestCase>> result : results) {
+            final JUnitTestSuite suite = result.getLeft();
+            final Float median = history == null ? null : medians.computeIfAbsent(suite.suiteName, name -> {
+                final float[] times = history.suiteTimes(name);
+                if (times.length == 0) {
+                    return null;
+                }
+                Arrays.sort(times);
+                return times[times.length / 2];
             });
-
-            // Emit this test suite + cases
-            results.add(Pair.of(suiteInfo, tests));
-        } catch (SAXException | IOException e) {
-            Throwables.propagate(e);
+            durations.merge(suite.suiteName, median == null ? suite.time : median, Float::sum);
         }
+        return durations;
     }
 
-    private static boolean run(final String rootDir, final String outputFile) throws IOException {
-        final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> results = Lists.newArrayList();
+    /**
+     * Runs the analysis described by the options, returning false if it found problems.
+     * <p>
+     * All state is local to the call, so concurrent runs (e.g. from the {@link AnalysisServer}) don't interfere with each other.
+     */
+    static boolean run(final AnalysisOptions options) throws IOException {
+        if (options.pool == null) {
+            return ReportIngester.withPool(options, JUnitAnalysisTool::run);
+        }
+
+        if (options.watch) {
+            return ReportWatcher.watch(options, ReportAnalyzers.forReport(ResultExport.JUNIT), (watchOptions, reports) -> run(watchOptions,
+                    new RunMetrics("junit", watchOptions.slowestFiles), ReportAnalyzers.forReport(reports, ResultExport.JUNIT)));
+        }
+
+        final RunMetrics metrics = new RunMetrics("junit", options.slowestFiles);
 
         // Find all relevant JUnit output
-        Files.walk(Paths.get(rootDir))
-                .forEach(path -> {
-                    final String fileName = path.getFileName().toString();
-
-                    // Ignore if not a file or not in the expected subdirectory or not the expected name
-                    final String pathAsString = path.toString();
-                    if (Files.isRegularFile(path) && pathAsString.contains("/build/") && pathAsString.contains("/test-results/") && fileName.startsWith("TEST-") && fileName.endsWith(".xml")) {
-                        LOG.info("Processing file {}", path);
-                        parse(path, results);
-                    }
-                });
-
-        if (results.isEmpty()) {
-            // We should have found some test output
-            LOG.error("No JUnit test files found.");
-            return false;
-        } else {
-            // Sort the results
-            sort(results);
+        final RunMetrics.Timer discovery = metrics.start("discovery");
+        final Map<Path, ReportAnalyzer<Pair<JUnitTestSuite, List<JUnitTestCase>>>> reports = ReportAnalyzers.discover(options.rootDir,
+                ReportAnalyzers.<Pair<JUnitTestSuite, List<JUnitTestCase>>>forReport(ResultExport.JUNIT), options.pool);
+        discovery.stop();
+
+        return run(options, metrics, reports);
+    }
+
+    /**
+     * Runs the analysis over report files that have already been found (each with its analyzer), returning false if it found problems.
+     */
+    static boolean run(final AnalysisOptions options, final RunMetrics metrics, final Map<Path, ReportAnalyzer<Pair<JUnitTestSuite, List<JUnitTestCase>>>> reports)
+            throws IOException {
+        // The history is needed up front, regressions are flagged as the results arrive
+        final TestTimingHistory history = options.historyFile == null ? null : TestTimingHistory.load(options.historyFile);
+
+        // Parse them in parallel (via the cache if there is one), feeding the results straight into the sort
+        final ParseCache<Pair<JUnitTestSuite, List<JUnitTestCase>>> cache = options.cacheDir == null ? null : new ParseCache<>(Paths.get(options.cacheDir, "junit"), options.cacheMaxBytes, RecordCodecs.JUNIT_RESULT);
+        final BiConsumer<Path, List<Pair<JUnitTestSuite, List<JUnitTestCase>>>> analyzer = (path, results) -> {
+            try {
+                reports.get(path).parse(path, results);
+            } catch (IOException e) {
+                Throwables.propagate(e);
+            }
+        };
+        final BiConsumer<Path, List<Pair<JUnitTestSuite, List<JUnitTestCase>>>> cachedParser = cache == null ? analyzer : cache.wrap(analyzer);
+        // Failures are signed before their stack traces can be moved out
+        final BiConsumer<Path, List<Pair<JUnitTestSuite, List<JUnitTestCase>>>> signedParser = FailureClusters.wrap(cachedParser);
+        final BiConsumer<Path, List<Pair<JUnitTestSuite, List<JUnitTestCase>>>> parser = options.lazyBlobs ? new ReportBlobs(options.outputFile).wrap(signedParser) : signedParser;
+        final IdAllocator ids = new IdAllocator();
+        final FailureClusters clusters = new FailureClusters();
+        final int[] failCount = {0};
+        final int[] regressions = {0};
+        try (ExternalSorter<Pair<JUnitTestSuite, List<JUnitTestCase>>> results = new ExternalSorter<>(RecordCodecs.JUNIT_RUN_RESULT, JUnitAnalysisTool::suiteKey, SUITE_ORDER,
+                JUnitAnalysisTool::estimateSize, options.sortBufferBytes, options.pool)) {
+            final RunMetrics.Timer parse = metrics.start("parse");
+            ReportIngester.ingest(Lists.newArrayList(reports.keySet()), metrics.timeFiles(path -> reports.get(path).name(), parser), options.pool, parsed -> {
+                if (history != null) {
+                    regressions[0] += history.flagRegressions(parsed);
+                }
+                for (Pair<JUnitTestSuite, List<JUnitTestCase>> result : parsed) {
+                    // IDs are handed out in path order, so identical input always produces identical anchors
+                    sortTestCases(result.getRight());
+                    assignIds(result, ids);
+                    clusters.add(result);
+                    failCount[0] += result.getLeft().errorCount + result.getLeft().failureCount;
+                    results.add(result);
+                }
+            });
+            if (cache != null) {
+                cache.evict();
+            }
+            parse.stop();
+
+            if (results.size() == 0) {
+                // We should have found some test output
+                LOG.error("No JUnit test files found.");
+                if (options.metrics) {
+                    metrics.write(options.outputFile);
+                }
+                return false;
+            }
+
+            final RunMetrics.Timer sort = metrics.start("sort");
+            results.sortBuffer();
+            sort.stop();
+
+            final RunMetrics.Timer write = metrics.start("write");
+
+            // Add the durations to the history
+            if (history != null) {
+                history.append(results);
+                if (regressions[0] > 0) {
+                    LOG.warn("{} tests took significantly longer than usual.", regressions[0]);
+                }
+            }
+
+            // Plan how to split the suites across parallel jobs next time
+            if (options.shardDir != null) {
+                ShardPlanner.write(options.shardDir, ShardPlanner.plan(suiteDurations(results, history), options.shards));
+            }
+
+            // Machine readable exports
+            if (options.jsonLinesFile != null) {
+                ResultExport.writeJsonLines(options.jsonLinesFile, results, ResultExport.JUNIT_JSON);
+            }
+            if (options.binaryFile != null) {
+                ResultExport.writeBinary(options.binaryFile, ResultExport.JUNIT, options.rootDir, RecordCodecs.JUNIT_EXPORT, results.size(), results);
+            }
+
+            write.stop();
 
             // Render the output file
+            final RunMetrics.Timer render = metrics.start("render");
             final Map<String, Object> model = Maps.newHashMap();
-            model.put("results", results);
-            try (OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(outputFile), Charsets.UTF_8)) {
-                HandlebarsUtil.render(OUTPUT_TEMPLATE, model, writer);
-                LOG.info("Wrote report to {}", outputFile);
+            final List<FailureClusters.FailureGroup> groups = clusters.groups();
+            if (!groups.isEmpty()) {
+                LOG.info("{} failing tests have {} distinct causes.", clusters.failureCount(), groups.size());
             }
-
-            // Count the number of failures
-            int failCount = 0;
-            for (Pair<JUnitTestSuite, List<JUnitTestCase>> result : results) {
-                failCount += result.getLeft().errorCount + result.getLeft().failureCount;
+            model.put("failureGroups", groups);
+            try (OutputStreamWriter writer = new OutputStreamWriter(CompressedFiles.newOutputStream(Paths.get(options.outputFile)), Charsets.UTF_8)) {
+                HandlebarsUtil.render(OUTPUT_TEMPLATE, ReportValueResolver.INSTANCE, model, results, writer);
+                LOG.info("Wrote report to {}", options.outputFile);
+            }
+            render.stop();
+            if (options.metrics) {
+                metrics.write(options.outputFile);
             }
 
             // Return appropriately
-            if (failCount > 0) {
-                LOG.error("JUnit run reported {} errors.", results.size());
+            if (failCount[0] > 0) {
+                LOG.error("JUnit run reported {} errors.", failCount[0]);
                 return false;
             } else {
                 LOG.info("JUnit run reported 0 errors.");
@@ -128,39 +222,122 @@ public class JUnitAnalysisTool {
         }
     }
 
-    private static void sort(final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> results) {
-        // Order the results by fail/pass then by suite name
-        results.sort((left, right) -> {
-            // Sort failures first
-            int comparison = Boolean.compare(right.getLeft().hasFailures(), left.getLeft().hasFailures());
-            if (comparison == 0) {
-                comparison = left.getLeft().suiteName.compareTo(right.getLeft().suiteName);
-            }
+    /**
+     * Allocates the IDs used to link elements within the report.
+     */
+    private static void assignIds(final Pair<JUnitTestSuite, List<JUnitTestCase>> result, final IdAllocator ids) {
+        result.getLeft().uniqueId = ids.next();
+        for (JUnitTestCase testCase : result.getRight()) {
+            testCase.uniqueId = ids.next();
+        }
+    }
+
+    /**
+     * Orders the results by fail / pass then by suite name, and each suite's tests by fail / pass then name.
+     */
+    static void sort(final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> results) {
+        ExternalSorter.sort(results, JUnitAnalysisTool::suiteKey, SUITE_ORDER);
+        results.forEach(result -> sortTestCases(result.getRight()));
+    }
+
+    private static void sortTestCases(final List<JUnitTestCase> testCases) {
+        ExternalSorter.sort(testCases, testCase -> sortKey(!testCase.hasError(), testCase.testName), TEST_CASE_ORDER);
+    }
 
-            return comparison;
-        });
+    private static long suiteKey(final Pair<JUnitTestSuite, List<JUnitTestCase>> result) {
+        return sortKey(!result.getLeft().hasFailures(), result.getLeft().suiteName);
+    }
 
-        // Now sort each of the tests by fail / pass then name
-        results.stream().map(Pair::getRight).forEach(testCases -> testCases.sort((left, right) -> {
-            int comparison = Boolean.compare(StringUtils.isEmpty(left.error), StringUtils.isEmpty(right.error));
-            if (comparison == 0) {
-                comparison = left.testName.compareTo(right.testName);
+    /**
+     * Packs the pass / fail flag and the first three characters of the name into a key that orders the same way as the comparators, so that most
+     * comparisons are settled without looking at the strings.
+     */
+    private static long sortKey(final boolean passed, final String name) {
+        long key = passed ? 1L << 48 : 0;
+        for (int i = 0; i < 3 && name != null && i < name.length(); i++) {
+            key |= (long) name.charAt(i) << (32 - 16 * i);
+        }
+        return key;
+    }
+
+    /**
+     * Rough heap size of a result (mostly its strings), used to decide when to spill while sorting.
+     */
+    private static long estimateSize(final Pair<JUnitTestSuite, List<JUnitTestCase>> result) {
+        final JUnitTestSuite suite = result.getLeft();
+        long size = 128 + 2L * (StringUtils.length(suite.suiteName) + StringUtils.length(suite.stdout) + StringUtils.length(suite.stderr));
+        for (JUnitTestCase testCase : result.getRight()) {
+            size += 96 + 2L * (StringUtils.length(testCase.testName) + StringUtils.length(testCase.className) + StringUtils.length(testCase.message)
+                    + StringUtils.length(testCase.type) + StringUtils.length(testCase.error));
+        }
+        return size;
+    }
+
+    /**
+     * JUnit's XML report, as written by Gradle (one file per suite).
+     */
+    public static final class JUnitAnalyzer implements ReportAnalyzer<Pair<JUnitTestSuite, List<JUnitTestCase>>> {
+
+        @Override
+        public String name() {
+            return "junit";
+        }
+
+        @Override
+        public String report() {
+            return ResultExport.JUNIT;
+        }
+
+        @Override
+        public String reportDirectory() {
+            return "test-results";
+        }
+
+        @Override
+        public String pathGlob() {
+            return "**/build/test-results/{,**/}TEST-*.xml";
+        }
+
+        @Override
+        public boolean acceptsRoot(final String rootElement) {
+            return "testsuite".equals(rootElement) || "testsuites".equals(rootElement);
+        }
+
+        @Override
+        public void parse(final Path path, final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> results) {
+            JUnitAnalysisTool.parse(path, results);
+        }
+
+        @Override
+        public void parse(final Path path, final ByteBuffer contents, final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> results) {
+            try {
+                results.addAll(PARSER.parse(path, contents));
+            } catch (XMLStreamException e) {
+                Throwables.propagate(e);
             }
+        }
 
-            return comparison;
-        }));
+        @Override
+        public void parse(final Path path, final InputStream contents, final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> results) {
+            try {
+                results.addAll(PARSER.parse(path, contents));
+            } catch (XMLStreamException e) {
+                Throwables.propagate(e);
+            }
+        }
     }
 
     /**
      * Command-line entry point to the JUnit scanner.
      */
     public static void main(String[] args) throws IOException {
-        if (args.length != 2) {
-            System.err.println("USAGE: JUnitAnalysisTool <root-dir> <output-file>");
+        final AnalysisOptions options = AnalysisOptions.parse(args);
+        if (options == null) {
+            System.err.println(AnalysisOptions.usage("JUnitAnalysisTool"));
             System.exit(1);
         }
 
-        if (!run(args[0], args[1])) {
+        if (!run(options)) {
             System.exit(1);
         }
     }
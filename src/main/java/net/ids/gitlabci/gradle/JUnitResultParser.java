@@ -0,0 +1,242 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.google.common.collect.Lists;
+
+import net.ids.util.NumberParser;
+
+/**
+ * Streaming parser for the JUnit XML written by Gradle.
+ * <p>
+ * The file is read in a single pass with a StAX pull parser, so memory use is bounded by the number of test cases rather than the size of the file.
+ * The system-out, system-err and failure bodies (which can run to hundreds of MB for chatty suites) are truncated once they exceed the configured limit.
+ * Times may be locale formatted ("1,234.5"), as some runners write them, see {@link NumberParser}.
+ */
+class JUnitResultParser {
+
+    /**
+     * Default limit on the number of characters retained from a single system-out / system-err / failure block.
+     */
+    static final int DEFAULT_MAX_TEXT_LENGTH = 1024 * 1024;
+
+    // The factory is configured once up front, after which creating readers from it is thread safe
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private final int maxTextLength;
+
+    JUnitResultParser(final int maxTextLength) {
+        this.maxTextLength = maxTextLength;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+
+    /**
+     * Parses the JUnit output file at the supplied path, returning a result for each test suite in it.
+     */
+    List<Pair<JUnitTestSuite, List<JUnitTestCase>>> parse(final Path path) throws IOException, XMLStreamException {
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(path))) {
+            return requireSuites(path, parse(inputStream));
+        }
+    }
+
+    /**
+     * Parses the JUnit output file at the supplied path, whose contents have already been read into memory.
+     */
+    List<Pair<JUnitTestSuite, List<JUnitTestCase>>> parse(final Path path, final ByteBuffer contents) throws XMLStreamException {
+        final InputStream inputStream;
+        if (contents.hasArray()) {
+            inputStream = new ByteArrayInputStream(contents.array(), contents.arrayOffset() + contents.position(), contents.remaining());
+        } else {
+            final byte[] bytes = new byte[contents.remaining()];
+            contents.duplicate().get(bytes);
+            inputStream = new ByteArrayInputStream(bytes);
+        }
+        return requireSuites(path, parse(inputStream));
+    }
+
+    /**
+     * Parses the JUnit output file at the supplied path from a stream of its contents (decompressed, or out of an archive), which is left open.
+     */
+    List<Pair<JUnitTestSuite, List<JUnitTestCase>>> parse(final Path path, final InputStream contents) throws XMLStreamException {
+        return requireSuites(path, parse(contents));
+    }
+
+    private static List<Pair<JUnitTestSuite, List<JUnitTestCase>>> requireSuites(final Path path, final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> suites) {
+        if (suites.isEmpty()) {
+            throw new IllegalStateException("No testsuite element found in " + path);
+        }
+        return suites;
+    }
+
+    /**
+     * Parses JUnit output from the supplied stream, returning a result for each test suite in it (none if it doesn't contain any).
+     * <p>
+     * A file is usually a single {@code testsuite}, but a {@code testsuites} file holds several (and some runners nest suites within suites). Each suite
+     * is returned with its own test cases and output, in the order the suites end.
+     */
+    List<Pair<JUnitTestSuite, List<JUnitTestCase>>> parse(final InputStream inputStream) throws XMLStreamException {
+        final XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(inputStream);
+        try {
+            return parse(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private List<Pair<JUnitTestSuite, List<JUnitTestCase>>> parse(final XMLStreamReader reader) throws XMLStreamException {
+        final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> suites = Lists.newArrayList();
+        final Deque<SuiteState> openSuites = new ArrayDeque<>();
+        JUnitTestCase testInfo = null;
+
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                final SuiteState suite = openSuites.peek();
+                switch (reader.getLocalName()) {
+                    case "testsuite":
+                        openSuites.push(new SuiteState(reader));
+                        break;
+
+                    case "testcase":
+                        final String testName = reader.getAttributeValue(null, "name");
+                        final String className = reader.getAttributeValue(null, "classname");
+                        final float testTime = NumberParser.parseFloat(reader.getAttributeValue(null, "time"));
+                        testInfo = new JUnitTestCase(testName, className, testTime);
+                        break;
+
+                    case "failure":
+                        if (testInfo != null) {
+                            final String message = reader.getAttributeValue(null, "message");
+                            final String type = reader.getAttributeValue(null, "type");
+                            testInfo.failure(message, type, readText(reader));
+                        }
+                        break;
+
+                    case "system-out":
+                        // Only the suite level output is reported (some runners also write it per test case)
+                        if (testInfo == null && suite != null) {
+                            suite.stdout = readText(reader);
+                        }
+                        break;
+
+                    case "system-err":
+                        if (testInfo == null && suite != null) {
+                            suite.stderr = readText(reader);
+                        }
+                        break;
+
+                    default:
+                        break;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "testcase":
+                        if (testInfo != null && !openSuites.isEmpty()) {
+                            openSuites.peek().tests.add(testInfo);
+                        }
+                        testInfo = null;
+                        break;
+
+                    case "testsuite":
+                        suites.add(openSuites.pop().toResult());
+                        break;
+
+                    default:
+                        break;
+                }
+            }
+        }
+        return suites;
+    }
+
+    /**
+     * A test suite whose element hasn't ended yet: the attributes from its opening element, and the test cases and output read since.
+     */
+    private static final class SuiteState {
+        final String suiteName;
+        final int testCount;
+        final int skippedCount;
+        final int failureCount;
+        final int errorCount;
+        final float suiteTime;
+        final List<JUnitTestCase> tests = Lists.newArrayList();
+        String stdout;
+        String stderr;
+
+        SuiteState(final XMLStreamReader reader) {
+            suiteName = reader.getAttributeValue(null, "name");
+            testCount = NumberParser.parseInt(reader.getAttributeValue(null, "tests"));
+            skippedCount = NumberParser.parseInt(reader.getAttributeValue(null, "skipped"));
+            failureCount = NumberParser.parseInt(reader.getAttributeValue(null, "failures"));
+            errorCount = NumberParser.parseInt(reader.getAttributeValue(null, "errors"));
+            suiteTime = NumberParser.parseFloat(reader.getAttributeValue(null, "time"));
+        }
+
+        Pair<JUnitTestSuite, List<JUnitTestCase>> toResult() {
+            return Pair.of(new JUnitTestSuite(suiteName, testCount, skippedCount, failureCount, errorCount, suiteTime, stdout, stderr), tests);
+        }
+    }
+
+    /**
+     * Reads the text content of the current element (leaving the reader positioned on its end element), truncating it at the configured limit.
+     */
+    private String readText(final XMLStreamReader reader) throws XMLStreamException {
+        final StringBuilder text = new StringBuilder();
+        long truncated = 0;
+        int depth = 0;
+        while (true) {
+            final int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    // Copy straight out of the parser's buffer so we never hold more than the limit
+                    final int length = reader.getTextLength();
+                    final int retained = Math.max(0, Math.min(length, maxTextLength - text.length()));
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), retained);
+                    truncated += length - retained;
+                    break;
+
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    if (depth == 0) {
+                        if (truncated > 0) {
+                            text.append("\n... [truncated ").append(truncated).append(" characters]");
+                        }
+                        return text.toString();
+                    }
+                    depth--;
+                    break;
+
+                default:
+                    break;
+            }
+        }
+    }
+}
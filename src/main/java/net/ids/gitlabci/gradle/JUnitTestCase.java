@@ -1,5 +1,7 @@
 package net.ids.gitlabci.gradle;
 
+import org.apache.commons.lang3.StringUtils;
+
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 /**
@@ -7,20 +9,23 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
  */
 @SuppressFBWarnings(value = "URF_UNREAD_FIELD", justification = "Simple structure / bean class")
 class JUnitTestCase {
-    // We need a unique ID for each test case to simplify output rendering
-    static int uniqueIdSource;
-
-    final int uniqueId;
+    // We need a unique ID for each test case to simplify output rendering (allocated per report once the results have been merged)
+    int uniqueId;
     final String testName;
     final String className;
     final float time;
     String message;
     String type;
     String error;
+    // Path to the side file holding the stack trace, if it has been moved out of the report (see ReportBlobs)
+    String errorBlob;
+    // The test's usual (p90) duration when this run was significantly slower, otherwise zero
+    float historyP90;
+    // Hash of the normalised stack trace, and the number of the group of tests that failed the same way (zero if there's no stack trace, see FailureClusters)
+    long failureSignature;
+    int failureGroup;
 
     JUnitTestCase(final String testName, final String className, final float time) {
-        this.uniqueId = uniqueIdSource++;
-
         this.testName = testName;
         this.className = className;
         this.time = time;
@@ -31,4 +36,12 @@ class JUnitTestCase {
         this.type = type;
         this.error = error;
     }
+
+    public boolean hasError() {
+        return !StringUtils.isEmpty(error) || errorBlob != null;
+    }
+
+    public boolean isRegressed() {
+        return historyP90 > 0;
+    }
 }
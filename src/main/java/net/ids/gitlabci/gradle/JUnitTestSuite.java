@@ -7,22 +7,21 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
  */
 @SuppressFBWarnings(value = "URF_UNREAD_FIELD", justification = "Simple structure / bean class")
 class JUnitTestSuite {
-    // We need a unique ID for each test suite to simplify output rendering
-    static int uniqueIdSource;
-
-    final int uniqueId;
+    // We need a unique ID for each test suite to simplify output rendering (allocated per report once the results have been merged)
+    int uniqueId;
     final String suiteName;
     final int testCount;
     final int skippedCount;
     final int failureCount;
     final int errorCount;
     final float time;
-    final String stdout;
-    final String stderr;
+    // The captured output, unless it has been moved out to a side file (see ReportBlobs), in which case the path to that file
+    String stdout;
+    String stderr;
+    String stdoutBlob;
+    String stderrBlob;
 
     JUnitTestSuite(final String suiteName, final int testCount, final int skippedCount, final int failureCount, final int errorCount, final float time, final String stdout, final String stderr) {
-        this.uniqueId = uniqueIdSource++;
-
         this.suiteName = suiteName;
         this.testCount = testCount;
         this.skippedCount = skippedCount;
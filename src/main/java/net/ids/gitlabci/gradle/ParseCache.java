@@ -0,0 +1,221 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * On-disk cache of parsed report files, so unchanged inputs don't go through the XML parser again.
+ * <p>
+ * Each report file has its own entry (named after a hash of its path) holding the file's size, modification time and content hash followed by the parsed
+ * records. An entry is used when the size matches and either the modification time or the content hash does; the content hash covers the common CI case
+ * where the build rewrites an identical report. Entries are evicted least recently used first once the cache exceeds its size limit.
+ */
+class ParseCache<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParseCache.class);
+
+    private static final int MAGIC = 0x47504331;
+    private static final int VERSION = 3;
+    private static final String ENTRY_SUFFIX = ".bin";
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final Path directory;
+    private final long maxBytes;
+    private final RecordCodec<T> codec;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    // Content hashes of the archives seen this run, by path, size and modification time (each entry is checked against its archive's hash)
+    private final ConcurrentMap<String, byte[]> archiveHashes = Maps.newConcurrentMap();
+
+    ParseCache(final Path directory, final long maxBytes, final RecordCodec<T> codec) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        this.codec = codec;
+    }
+
+    /**
+     * Wraps the parser so that results are served from the cache where possible (and added to it where not).
+     */
+    BiConsumer<Path, List<T>> wrap(final BiConsumer<Path, List<T>> parser) {
+        return (path, results) -> {
+            try {
+                parse(path, results, parser);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        };
+    }
+
+    private void parse(final Path path, final List<T> results, final BiConsumer<Path, List<T>> parser) throws IOException {
+        final Path entry = directory.resolve(HASH.hashString(path.toAbsolutePath().toString(), Charsets.UTF_8) + ENTRY_SUFFIX);
+        // An archive entry is as fresh as its archive
+        final Path file = ReportInputs.file(path);
+        final long size = Files.size(file);
+        final long modified = Files.getLastModifiedTime(file).toMillis();
+
+        if (Files.exists(entry) && read(entry, path, size, modified, results)) {
+            hits.incrementAndGet();
+            return;
+        }
+
+        // Not cached (or stale) so parse it and record the result
+        misses.incrementAndGet();
+        final List<T> parsed = Lists.newArrayList();
+        parser.accept(path, parsed);
+        try {
+            write(entry, path, size, modified, contentHash(path, size, modified), parsed);
+        } catch (IOException e) {
+            // The cache is only an optimisation, so a full disk or read-only cache doesn't fail the run
+            LOG.warn("Unable to write parse cache entry {} for {}", entry, path, e);
+        }
+        results.addAll(parsed);
+    }
+
+    /**
+     * Reads the cached records into the results if the entry is still valid for the file, returning false if not.
+     */
+    private boolean read(final Path entry, final Path path, final long size, final long modified, final List<T> results) {
+        final long cachedModified;
+        final byte[] cachedHash = new byte[HASH.bits() / Byte.SIZE];
+        final List<T> cached;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION || !path.toAbsolutePath().toString().equals(input.readUTF()) || input.readLong() != size) {
+                return false;
+            }
+
+            // A differing timestamp is fine as long as the content is identical
+            cachedModified = input.readLong();
+            input.readFully(cachedHash);
+            final boolean sameContent = cachedModified == modified || Arrays.equals(cachedHash, contentHash(path, size, modified));
+            if (!sameContent) {
+                return false;
+            }
+
+            final int count = input.readInt();
+            cached = Lists.newArrayListWithCapacity(count);
+            for (int i = 0; i < count; i++) {
+                cached.add(codec.read(input));
+            }
+        } catch (IOException e) {
+            LOG.warn("Ignoring unreadable parse cache entry {} for {}", entry, path, e);
+            return false;
+        }
+        results.addAll(cached);
+
+        // Refresh the timestamp, which also marks the entry as recently used for eviction
+        try {
+            if (cachedModified == modified) {
+                Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            } else {
+                write(entry, path, size, modified, cachedHash, cached);
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to refresh parse cache entry {} for {}", entry, path, e);
+        }
+        return true;
+    }
+
+    private void write(final Path entry, final Path path, final long size, final long modified, final byte[] hash, final List<T> records) throws IOException {
+        // Write to a temporary file first so readers never see a partial entry
+        final Path temp = Files.createTempFile(directory, "entry", ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeUTF(path.toAbsolutePath().toString());
+                output.writeLong(size);
+                output.writeLong(modified);
+                output.write(hash);
+                output.writeInt(records.size());
+                for (T record : records) {
+                    codec.write(output, record);
+                }
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the content hash of the file holding the report, which for an archive entry is the archive (hashed once per run, not once per entry).
+     */
+    private byte[] contentHash(final Path path, final long size, final long modified) throws IOException {
+        final Path file = ReportInputs.file(path);
+        if (file.equals(path)) {
+            return contentHash(file);
+        }
+        try {
+            return archiveHashes.computeIfAbsent(file + "@" + size + "@" + modified, key -> {
+                try {
+                    return contentHash(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static byte[] contentHash(final Path file) throws IOException {
+        return com.google.common.io.Files.asByteSource(file.toFile()).hash(HASH).asBytes();
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits within its size limit.
+     */
+    void evict() throws IOException {
+        final Map<Path, FileTime> entries = Maps.newHashMap();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + ENTRY_SUFFIX)) {
+            for (Path entry : stream) {
+                entries.put(entry, Files.getLastModifiedTime(entry));
+            }
+        }
+
+        // Newest first, then keep entries until we run out of room
+        final List<Path> newestFirst = Lists.newArrayList(entries.keySet());
+        newestFirst.sort((left, right) -> entries.get(right).compareTo(entries.get(left)));
+
+        long total = 0;
+        int evicted = 0;
+        for (Path entry : newestFirst) {
+            total += Files.size(entry);
+            if (total > maxBytes) {
+                Files.deleteIfExists(entry);
+                evicted++;
+            }
+        }
+
+        LOG.info("Parse cache: {} hits, {} misses, {} entries evicted", hits.get(), misses.get(), evicted);
+    }
+}
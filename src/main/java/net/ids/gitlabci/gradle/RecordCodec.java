@@ -0,0 +1,15 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes / reads a parsed record in a compact binary form.
+ */
+interface RecordCodec<T> {
+
+    void write(DataOutput output, T record) throws IOException;
+
+    T read(DataInput input) throws IOException;
+}
@@ -0,0 +1,197 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+/**
+ * Binary codecs for the records produced by the analysis tools.
+ */
+final class RecordCodecs {
+
+    /**
+     * Codec for a single static analysis message.
+     */
+    static final RecordCodec<StaticAnalysisMessage> STATIC_ANALYSIS_MESSAGE = new RecordCodec<StaticAnalysisMessage>() {
+        @Override
+        public void write(final DataOutput output, final StaticAnalysisMessage message) throws IOException {
+            writeString(output, message.tool);
+            writeString(output, message.fileName);
+            writeString(output, message.module);
+            writeString(output, message.method);
+            output.writeInt(message.startLine);
+            output.writeInt(message.endLine);
+            output.writeInt(message.startCol);
+            output.writeInt(message.endCol);
+            writeString(output, message.message);
+            output.writeInt(message.priority);
+            writeString(output, message.rule);
+            writeString(output, message.category);
+            writeString(output, message.infoUrl);
+            output.writeInt(message.occurrences);
+        }
+
+        @Override
+        public StaticAnalysisMessage read(final DataInput input) throws IOException {
+            final String tool = readString(input);
+            final String fileName = readString(input);
+            return new StaticAnalysisMessage(tool, fileName)
+                    .module(readString(input))
+                    .method(readString(input))
+                    .lineAndColumnRange(input.readInt(), input.readInt(), input.readInt(), input.readInt())
+                    .message(readString(input))
+                    .priority(input.readInt())
+                    .rule(readString(input))
+                    .category(readString(input))
+                    .infoUrl(readString(input))
+                    .occurrences(input.readInt());
+        }
+    };
+
+    /**
+     * Codec for a JUnit test suite along with its test cases.
+     */
+    static final RecordCodec<Pair<JUnitTestSuite, List<JUnitTestCase>>> JUNIT_RESULT = new RecordCodec<Pair<JUnitTestSuite, List<JUnitTestCase>>>() {
+        @Override
+        public void write(final DataOutput output, final Pair<JUnitTestSuite, List<JUnitTestCase>> result) throws IOException {
+            final JUnitTestSuite suite = result.getLeft();
+            writeString(output, suite.suiteName);
+            output.writeInt(suite.testCount);
+            output.writeInt(suite.skippedCount);
+            output.writeInt(suite.failureCount);
+            output.writeInt(suite.errorCount);
+            output.writeFloat(suite.time);
+            writeString(output, suite.stdout);
+            writeString(output, suite.stderr);
+
+            output.writeInt(result.getRight().size());
+            for (JUnitTestCase testCase : result.getRight()) {
+                writeString(output, testCase.testName);
+                writeString(output, testCase.className);
+                output.writeFloat(testCase.time);
+                writeString(output, testCase.message);
+                writeString(output, testCase.type);
+                writeString(output, testCase.error);
+            }
+        }
+
+        @Override
+        public Pair<JUnitTestSuite, List<JUnitTestCase>> read(final DataInput input) throws IOException {
+            final JUnitTestSuite suite = new JUnitTestSuite(readString(input), input.readInt(), input.readInt(), input.readInt(), input.readInt(), input.readFloat(),
+                    readString(input), readString(input));
+
+            final int testCount = input.readInt();
+            final List<JUnitTestCase> tests = Lists.newArrayListWithCapacity(testCount);
+            for (int i = 0; i < testCount; i++) {
+                final JUnitTestCase testCase = new JUnitTestCase(readString(input), readString(input), input.readFloat());
+                final String message = readString(input);
+                final String type = readString(input);
+                final String error = readString(input);
+                if (message != null || type != null || error != null) {
+                    testCase.failure(message, type, error);
+                }
+                tests.add(testCase);
+            }
+            return Pair.of(suite, tests);
+        }
+    };
+
+    /**
+     * Codec for a JUnit result in the binary export: the result along with the side files that hold any output and stack traces moved out of it (with
+     * {@code --lazy-blobs}), so the export has either the text or where to find it.
+     */
+    static final RecordCodec<Pair<JUnitTestSuite, List<JUnitTestCase>>> JUNIT_EXPORT = new RecordCodec<Pair<JUnitTestSuite, List<JUnitTestCase>>>() {
+        @Override
+        public void write(final DataOutput output, final Pair<JUnitTestSuite, List<JUnitTestCase>> result) throws IOException {
+            JUNIT_RESULT.write(output, result);
+            writeString(output, result.getLeft().stdoutBlob);
+            writeString(output, result.getLeft().stderrBlob);
+            for (JUnitTestCase testCase : result.getRight()) {
+                writeString(output, testCase.errorBlob);
+            }
+        }
+
+        @Override
+        public Pair<JUnitTestSuite, List<JUnitTestCase>> read(final DataInput input) throws IOException {
+            final Pair<JUnitTestSuite, List<JUnitTestCase>> result = JUNIT_RESULT.read(input);
+            result.getLeft().stdoutBlob = readString(input);
+            result.getLeft().stderrBlob = readString(input);
+            for (JUnitTestCase testCase : result.getRight()) {
+                testCase.errorBlob = readString(input);
+            }
+            return result;
+        }
+    };
+
+    /**
+     * Codec for a JUnit result along with the state added to it during a run (IDs, timing regressions, side files and failure groups), which the parse cache and exports don't hold.
+     * Used for the runs spilled while sorting.
+     */
+    static final RecordCodec<Pair<JUnitTestSuite, List<JUnitTestCase>>> JUNIT_RUN_RESULT = new RecordCodec<Pair<JUnitTestSuite, List<JUnitTestCase>>>() {
+        @Override
+        public void write(final DataOutput output, final Pair<JUnitTestSuite, List<JUnitTestCase>> result) throws IOException {
+            JUNIT_RESULT.write(output, result);
+            output.writeInt(result.getLeft().uniqueId);
+            writeString(output, result.getLeft().stdoutBlob);
+            writeString(output, result.getLeft().stderrBlob);
+            for (JUnitTestCase testCase : result.getRight()) {
+                output.writeInt(testCase.uniqueId);
+                output.writeFloat(testCase.historyP90);
+                writeString(output, testCase.errorBlob);
+                output.writeInt(testCase.failureGroup);
+            }
+        }
+
+        @Override
+        public Pair<JUnitTestSuite, List<JUnitTestCase>> read(final DataInput input) throws IOException {
+            final Pair<JUnitTestSuite, List<JUnitTestCase>> result = JUNIT_RESULT.read(input);
+            result.getLeft().uniqueId = input.readInt();
+            result.getLeft().stdoutBlob = readString(input);
+            result.getLeft().stderrBlob = readString(input);
+            for (JUnitTestCase testCase : result.getRight()) {
+                testCase.uniqueId = input.readInt();
+                testCase.historyP90 = input.readFloat();
+                testCase.errorBlob = readString(input);
+                testCase.failureGroup = input.readInt();
+            }
+            return result;
+        }
+    };
+
+    private RecordCodecs() {
+    }
+
+    /**
+     * Writes a (possibly null) string as a length prefixed UTF-8 sequence.
+     * <p>
+     * Unlike {@link DataOutput#writeUTF(String)} this isn't limited to 64KB, which matters for stack traces and captured output.
+     */
+    static void writeString(final DataOutput output, final String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(Charsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutput, String)}.
+     */
+    static String readString(final DataInput input) throws IOException {
+        final int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,66 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Parser for one report format, plugged in through {@link java.util.ServiceLoader} (list implementations in
+ * {@code META-INF/services/net.ids.gitlabci.gradle.ReportAnalyzer}).
+ * <p>
+ * A file is handed to an analyzer when its absolute path matches the analyzer's glob and its root element is one the analyzer accepts, so formats that
+ * share a directory layout (or a layout that varies between tool versions) are still told apart. The results feed the report named by {@link #report()},
+ * so an analyzer for that report has to produce its result type (see {@link ResultExport#STATIC_ANALYSIS} and {@link ResultExport#JUNIT}).
+ * Implementations must be public with a public no argument constructor, and thread safe.
+ */
+public interface ReportAnalyzer<T> {
+
+    /**
+     * Returns the name of the format, as used in logs and metrics.
+     */
+    String name();
+
+    /**
+     * Returns the report the results go into.
+     */
+    String report();
+
+    /**
+     * Returns the directory under a module's build directory that holds the format's files (other directories there aren't walked).
+     */
+    String reportDirectory();
+
+    /**
+     * Returns the glob that the absolute path of a file in this format matches.
+     */
+    String pathGlob();
+
+    /**
+     * Returns whether a file with the given root element is in this format.
+     */
+    boolean acceptsRoot(String rootElement);
+
+    /**
+     * Parses the file, adding its results to the list.
+     */
+    void parse(Path path, List<T> results) throws IOException;
+
+    /**
+     * Parses a file whose contents have already been read into memory, adding its results to the list. The path is that of the file (see
+     * {@link ReportInputs}), for use in messages.
+     */
+    void parse(Path path, ByteBuffer contents, List<T> results) throws IOException;
+
+    /**
+     * Parses a file that can't be read in place (one that is compressed, or inside an archive) from a stream of its contents as they are decompressed,
+     * adding its results to the list. The path is that of the file (see {@link ReportInputs}), for use in messages; the stream is closed by the caller.
+     * <p>
+     * By default the contents are read into memory (up to {@link ReportInputs#MAX_BUFFERED_BYTES}) and parsed from there; analyzers that can parse a
+     * stream as it comes should do so instead.
+     */
+    default void parse(final Path path, final InputStream contents, final List<T> results) throws IOException {
+        parse(path, ReportInputs.read(path, contents), results);
+    }
+}
@@ -0,0 +1,267 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import net.ids.util.CompressedFiles;
+import net.ids.util.MappedXmlScanner;
+
+/**
+ * Registry of the {@link ReportAnalyzer}s on the classpath, and discovery of the files they recognise.
+ * <p>
+ * Discovery is a single walk of the tree for however many analyzers are asked for. A file is only opened (to read its root element) when its path matches
+ * at least one analyzer's glob, and then only once, however many analyzers it matches. Archives aren't opened at all: their entries are classified as
+ * they are parsed (see {@link ReportInputs}).
+ */
+final class ReportAnalyzers {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReportAnalyzers.class);
+
+    private static final List<ReportAnalyzer<?>> ALL = load();
+
+    private ReportAnalyzers() {
+    }
+
+    private static List<ReportAnalyzer<?>> load() {
+        final List<ReportAnalyzer<?>> analyzers = Lists.newArrayList();
+        for (ReportAnalyzer<?> analyzer : ServiceLoader.load(ReportAnalyzer.class, ReportAnalyzer.class.getClassLoader())) {
+            analyzers.add(analyzer);
+        }
+        return ImmutableList.copyOf(analyzers);
+    }
+
+    /**
+     * Returns all of the registered analyzers, in registration order.
+     */
+    static List<ReportAnalyzer<?>> all() {
+        return ALL;
+    }
+
+    /**
+     * Returns the registered analyzers whose results go into the named report.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> List<ReportAnalyzer<T>> forReport(final String report) {
+        final List<ReportAnalyzer<T>> analyzers = Lists.newArrayList();
+        for (ReportAnalyzer<?> analyzer : ALL) {
+            if (report.equals(analyzer.report())) {
+                analyzers.add((ReportAnalyzer<T>) analyzer);
+            }
+        }
+        return analyzers;
+    }
+
+    /**
+     * Returns the files (from a {@link #discover} over several reports) whose results go into the named report.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> SortedMap<Path, ReportAnalyzer<T>> forReport(final SortedMap<Path, ReportAnalyzer<?>> files, final String report) {
+        final SortedMap<Path, ReportAnalyzer<T>> selected = Maps.newTreeMap();
+        files.forEach((path, analyzer) -> {
+            if (report.equals(analyzer.report())) {
+                selected.put(path, (ReportAnalyzer<T>) analyzer);
+            }
+        });
+        return selected;
+    }
+
+    /**
+     * Finds the files under the root directory that one of the analyzers recognises, each with the first analyzer (in list order) to accept it.
+     */
+    static <A extends ReportAnalyzer<?>> SortedMap<Path, A> discover(final String rootDir, final List<A> analyzers, final ForkJoinPool pool) throws IOException {
+        return ReportIngester.discover(rootDir, classifier(analyzers), reportDirectories(analyzers), pool);
+    }
+
+    /**
+     * Returns a function adding the reports in a file to a map, each with the first of the analyzers (in list order) to accept it. A file is one report
+     * (or none), unless it is an archive, which is added once for each report the analyzers go into (see {@link ReportInputs}).
+     */
+    static <A extends ReportAnalyzer<?>> BiConsumer<Path, Map<Path, A>> classifier(final List<A> analyzers) {
+        final List<PathMatcher> matchers = Lists.newArrayListWithCapacity(analyzers.size());
+        for (A analyzer : analyzers) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + analyzer.pathGlob()));
+        }
+        return (path, found) -> {
+            final Path file = path.toAbsolutePath();
+            if (ReportInputs.isArchive(file)) {
+                addArchive(file, analyzers, found);
+            } else if (CompressedFiles.isGzip(file)) {
+                // Matched as if it weren't compressed
+                final A analyzer = classify(CompressedFiles.uncompressedPath(file), () -> new MappedXmlScanner(ReportInputs.head(file)), analyzers, matchers);
+                if (analyzer != null) {
+                    found.put(file, streamed(analyzer));
+                }
+            } else {
+                final A analyzer = classify(file, () -> MappedXmlScanner.open(file), analyzers, matchers);
+                if (analyzer != null) {
+                    found.put(file, analyzer);
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds the archive under each report that the analyzers go into, to be parsed with that report's analyzers.
+     */
+    @SuppressWarnings("unchecked")
+    private static <A extends ReportAnalyzer<?>> void addArchive(final Path archive, final List<A> analyzers, final Map<Path, A> found) {
+        final Map<String, List<A>> byReport = Maps.newLinkedHashMap();
+        for (A analyzer : analyzers) {
+            byReport.computeIfAbsent(analyzer.report(), ignored -> Lists.newArrayList()).add(analyzer);
+        }
+        // The archive analyzer has the analyzers' result type, which is all A stands for
+        byReport.forEach((report, reportAnalyzers) -> found.put(ReportInputs.reports(archive, report), (A) new ArchiveAnalyzer<>(report, reportAnalyzers)));
+    }
+
+    /**
+     * Wraps the analyzer to parse as it decompresses (see {@link ReportInputs#streamed}); the wrapper has the analyzer's result type, which is all A
+     * stands for.
+     */
+    @SuppressWarnings("unchecked")
+    private static <A extends ReportAnalyzer<?>> A streamed(final A analyzer) {
+        return (A) ReportInputs.streamed((ReportAnalyzer<?>) analyzer);
+    }
+
+    /**
+     * Returns the directories under a build directory that hold the analyzers' files.
+     */
+    static Set<String> reportDirectories(final List<? extends ReportAnalyzer<?>> analyzers) {
+        final Set<String> reportDirectories = Sets.newHashSet();
+        for (ReportAnalyzer<?> analyzer : analyzers) {
+            reportDirectories.add(analyzer.reportDirectory());
+        }
+        return reportDirectories;
+    }
+
+    /**
+     * Analyzer for the reports in an archive that go into one report, which it parses in a single pass through the archive: each entry whose path
+     * matches an analyzer's glob is classified by the start of it, then streamed to the analyzer that accepts it.
+     */
+    private static final class ArchiveAnalyzer<T> implements ReportAnalyzer<T> {
+        private final String report;
+        private final List<ReportAnalyzer<?>> analyzers;
+        private final List<PathMatcher> matchers = Lists.newArrayList();
+
+        ArchiveAnalyzer(final String report, final List<? extends ReportAnalyzer<?>> analyzers) {
+            this.report = report;
+            this.analyzers = ImmutableList.copyOf(analyzers);
+            for (ReportAnalyzer<?> analyzer : analyzers) {
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + analyzer.pathGlob()));
+            }
+        }
+
+        @Override
+        public String name() {
+            return "archive";
+        }
+
+        @Override
+        public String report() {
+            return report;
+        }
+
+        // Archives are found wherever discovery walks
+        @Override
+        public String reportDirectory() {
+            return null;
+        }
+
+        @Override
+        public String pathGlob() {
+            return "**{" + String.join(",", ReportInputs.ARCHIVE_EXTENSIONS) + "}";
+        }
+
+        @Override
+        public boolean acceptsRoot(final String rootElement) {
+            return false;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void parse(final Path path, final List<T> results) throws IOException {
+            ReportInputs.readEntries(ReportInputs.file(path), (entry, contents) -> {
+                // Entries that can't be reports are skipped unread
+                if (matchers.stream().anyMatch(matcher -> matcher.matches(entry))) {
+                    final ByteBuffer head = ReportInputs.head(contents);
+                    final ReportAnalyzer<?> analyzer = classify(entry, () -> new MappedXmlScanner(head), analyzers, matchers);
+                    if (analyzer != null) {
+                        // The analyzers all go into this report, so have its result type
+                        ((ReportAnalyzer<T>) analyzer).parse(entry, new SequenceInputStream(new ByteArrayInputStream(head.array()), contents), results);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void parse(final Path path, final ByteBuffer contents, final List<T> results) {
+            throw new UnsupportedOperationException(path + " is an archive, which is read from disk");
+        }
+
+        @Override
+        public void parse(final Path path, final InputStream contents, final List<T> results) {
+            throw new UnsupportedOperationException(path + " is an archive, which is read from disk");
+        }
+    }
+
+    /**
+     * Opens a scanner over a file's contents (or at least the start of them).
+     */
+    private interface ScannerSource {
+        MappedXmlScanner open() throws IOException;
+    }
+
+    private static <A extends ReportAnalyzer<?>> A classify(final Path path, final ScannerSource source, final List<A> analyzers,
+            final List<PathMatcher> matchers) {
+        String rootElement = null;
+        for (int i = 0; i < analyzers.size(); i++) {
+            if (matchers.get(i).matches(path)) {
+                if (rootElement == null) {
+                    rootElement = rootElement(path, source);
+                }
+                if (analyzers.get(i).acceptsRoot(rootElement)) {
+                    return analyzers.get(i);
+                }
+            }
+        }
+
+        if (rootElement != null) {
+            LOG.warn("Skipping {}, no analyzer accepts its root element '{}'", path, rootElement);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the name of the file's root element (empty if it doesn't have one, or can't be read).
+     */
+    private static String rootElement(final Path path, final ScannerSource source) {
+        try {
+            // Only the start of the file is touched
+            final MappedXmlScanner scanner = source.open();
+            return scanner.next() == MappedXmlScanner.START_ELEMENT ? scanner.name() : "";
+        } catch (IOException | IllegalStateException e) {
+            LOG.warn("Unable to read {}", path, e);
+            return "";
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import net.ids.util.CompressedFiles;
+
+/**
+ * Moves the large text of a JUnit report (captured output and stack traces) out of the page and into plain text side files, which the page fetches
+ * when a section is expanded.
+ * <p>
+ * Side files live in {@code <report>-blobs/} and are named after a hash of their content, so identical output (a common stack trace, say) is written
+ * once. Short text stays inline, as a request for it would cost more than it saves. The text is moved out as each file is parsed, so it's never held
+ * for the whole run. The side files aren't compressed, so any server (or browser) can hand them over as they are, but fetching them does need the page
+ * to be served over HTTP, as GitLab serves artifacts.
+ */
+class ReportBlobs {
+
+    // Text up to this many characters stays in the page
+    private static final int INLINE_LIMIT = 2048;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final Path directory;
+
+    /**
+     * Creates the side file directory for the report, removing any left over from an earlier report.
+     */
+    ReportBlobs(final String outputFile) throws IOException {
+        final Path output = Paths.get(outputFile).toAbsolutePath();
+        directory = output.resolveSibling(CompressedFiles.baseName(output) + "-blobs");
+        FileUtils.deleteDirectory(directory.toFile());
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Wraps the parser so that the large text of each result is moved out to side files (on the parser thread).
+     */
+    BiConsumer<Path, List<Pair<JUnitTestSuite, List<JUnitTestCase>>>> wrap(final BiConsumer<Path, List<Pair<JUnitTestSuite, List<JUnitTestCase>>>> parser) {
+        return (path, results) -> {
+            parser.accept(path, results);
+            try {
+                for (Pair<JUnitTestSuite, List<JUnitTestCase>> result : results) {
+                    moveOut(result);
+                }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        };
+    }
+
+    private void moveOut(final Pair<JUnitTestSuite, List<JUnitTestCase>> result) throws IOException {
+        final JUnitTestSuite suite = result.getLeft();
+        suite.stdoutBlob = write(suite.stdout);
+        if (suite.stdoutBlob != null) {
+            suite.stdout = null;
+        }
+        suite.stderrBlob = write(suite.stderr);
+        if (suite.stderrBlob != null) {
+            suite.stderr = null;
+        }
+
+        for (JUnitTestCase testCase : result.getRight()) {
+            testCase.errorBlob = write(testCase.error);
+            if (testCase.errorBlob != null) {
+                testCase.error = null;
+            }
+        }
+    }
+
+    /**
+     * Writes the text to a side file if it's too long to inline, returning its path relative to the report (or null if it should stay inline).
+     */
+    private String write(final String text) throws IOException {
+        if (text == null || text.length() <= INLINE_LIMIT) {
+            return null;
+        }
+
+        final byte[] bytes = text.getBytes(Charsets.UTF_8);
+        final String name = HASH.hashBytes(bytes) + ".txt";
+        final Path blob = directory.resolve(name);
+        if (!Files.exists(blob)) {
+            // Parser threads may write the same content at once, each to its own temporary file, and whichever moves last wins
+            final Path temp = Files.createTempFile(directory, "blob", ".tmp");
+            Files.write(temp, bytes);
+            Files.move(temp, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return directory.getFileName() + "/" + name;
+    }
+}
@@ -0,0 +1,208 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Finds report files under a root directory and parses them on a bounded worker pool.
+ * <p>
+ * Each file is parsed into its own buffer (so workers never share mutable state) and the buffers are concatenated in path order, which keeps the output
+ * identical regardless of how the work was scheduled. The pool is created once per run (see {@link #withPool}) and shared by its phases, or supplied by
+ * the {@link AnalysisServer}, which shares one between all of its jobs.
+ */
+class ReportIngester {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReportIngester.class);
+
+    // Directories that never contain build output, so aren't worth walking
+    private static final Set<String> PRUNED_DIRECTORIES = ImmutableSet.of(".git", ".gradle", ".idea", ".svn", "node_modules", "src");
+
+    static final String BUILD_DIRECTORY = "build";
+
+    // Files parsed ahead of the one being handed to the sink, per worker
+    private static final int WINDOW_PER_THREAD = 2;
+
+    /**
+     * A tool's entry point.
+     */
+    interface Run {
+        boolean run(AnalysisOptions options) throws IOException;
+    }
+
+    /**
+     * Runs the tool with a pool of {@code --threads} workers for all of its phases, shutting the pool down when the run ends.
+     */
+    static boolean withPool(final AnalysisOptions options, final Run run) throws IOException {
+        final ForkJoinPool pool = new ForkJoinPool(options.threads);
+        try {
+            return run.run(options.withPool(pool));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the reports in the regular files under the root directory (as absolute paths) that the classifier finds, each with its type, in path order.
+     * <p>
+     * Directories that can't contain reports are skipped without being listed. That covers VCS / IDE / dependency directories and everything directly
+     * under a build directory other than the named report directories. Each top level directory is walked in parallel, and the classifier (which adds
+     * the reports in a file to the map, usually just the file itself but several for an archive) is called on the walking threads.
+     */
+    static <T> SortedMap<Path, T> discover(final String rootDir, final BiConsumer<Path, Map<Path, T>> classifier, final Set<String> reportDirectories,
+            final ForkJoinPool pool)
+            throws IOException {
+        final Path root = Paths.get(rootDir).toAbsolutePath().normalize();
+
+        // Split the walk up by top level directory (typically one per module)
+        final SortedMap<Path, T> found = Maps.newTreeMap();
+        final List<Callable<Map<Path, T>>> walks = Lists.newArrayList();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(root)) {
+            for (Path child : children) {
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    walks.add(() -> walk(child, classifier, reportDirectories));
+                } else if (Files.isRegularFile(child)) {
+                    classifier.accept(child, found);
+                }
+            }
+        }
+
+        for (Map<Path, T> paths : invokeAll(walks, pool)) {
+            found.putAll(paths);
+        }
+        return found;
+    }
+
+    private static <T> Map<Path, T> walk(final Path start, final BiConsumer<Path, Map<Path, T>> classifier, final Set<String> reportDirectories) throws IOException {
+        final Map<Path, T> found = Maps.newHashMap();
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                return isPruned(dir, reportDirectories) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                // The attributes come with the directory listing, so this doesn't cost a stat per file
+                if (attrs.isRegularFile()) {
+                    classifier.accept(file, found);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                LOG.warn("Unable to read {}", file, e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return found;
+    }
+
+    /**
+     * Returns whether the directory can't contain reports (see {@link #discover}), so needn't be walked.
+     */
+    static boolean isPruned(final Path dir, final Set<String> reportDirectories) {
+        final Path name = dir.getFileName();
+        final Path parent = dir.getParent() == null ? null : dir.getParent().getFileName();
+        final boolean inBuildDirectory = parent != null && BUILD_DIRECTORY.equals(parent.toString());
+        return name != null && (PRUNED_DIRECTORIES.contains(name.toString()) || inBuildDirectory && !reportDirectories.contains(name.toString()));
+    }
+
+    /**
+     * Parses each of the files on the pool, returning the merged results in path order.
+     */
+    static <T> List<T> ingest(final List<Path> paths, final BiConsumer<Path, List<T>> parser, final ForkJoinPool pool) {
+        final List<T> results = Lists.newArrayList();
+        ingest(paths, parser, pool, results::addAll);
+        return results;
+    }
+
+    /**
+     * Parses each of the files on the pool, passing each file's results to the sink (on the calling thread) in path order.
+     * <p>
+     * Only a window of files (twice the pool's parallelism) is parsed ahead of the sink, the next file being submitted as each is handed over, and a file's
+     * results are released as soon as the sink has them. So callers that store results compactly never hold more than the files in the window, however
+     * many there are, and a slow file at the head of the window stalls the parsing rather than letting the results pile up behind it.
+     */
+    static <T> void ingest(final List<Path> paths, final BiConsumer<Path, List<T>> parser, final ForkJoinPool pool, final Consumer<List<T>> sink) {
+        final List<Path> ordered = Lists.newArrayList(paths);
+        Collections.sort(ordered);
+
+        final int window = pool.getParallelism() * WINDOW_PER_THREAD;
+        final Deque<Future<List<T>>> buffers = new ArrayDeque<>(window);
+        try {
+            // Each file parses into its own buffer, handed over in path order
+            int next = 0;
+            while (next < ordered.size() || !buffers.isEmpty()) {
+                while (next < ordered.size() && buffers.size() < window) {
+                    buffers.add(submit(pool, ordered.get(next++), parser));
+                }
+                sink.accept(buffers.remove().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            // The pool may be shared, so only this call's work is cancelled
+            buffers.forEach(buffer -> buffer.cancel(true));
+        }
+    }
+
+    private static <T> Future<List<T>> submit(final ForkJoinPool pool, final Path path, final BiConsumer<Path, List<T>> parser) {
+        return pool.submit(() -> {
+            LOG.info("Processing file {}", path);
+            final List<T> buffer = Lists.newArrayList();
+            parser.accept(path, buffer);
+            return buffer;
+        });
+    }
+
+    /**
+     * Runs the tasks on the pool, returning their results in task order.
+     */
+    private static <T> List<T> invokeAll(final List<Callable<T>> tasks, final ForkJoinPool pool) {
+        final List<Future<T>> futures = pool.invokeAll(tasks);
+        try {
+            final List<T> results = Lists.newArrayListWithCapacity(tasks.size());
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
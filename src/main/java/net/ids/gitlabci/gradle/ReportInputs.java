@@ -0,0 +1,213 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import net.ids.util.CompressedFiles;
+import net.ids.util.TarReader;
+
+/**
+ * Report files that can't be read in place: gzipped files ({@code TEST-x.xml.gz}) and the entries of zip and tar archives ({@code .zip}, {@code .tar},
+ * {@code .tar.gz} and {@code .tgz}), such as the results kept from an earlier CI stage.
+ * <p>
+ * An archive entry is known by the archive's path with {@code !} appended, followed by the entry's name (e.g.
+ * {@code results.tar.gz!/core/build/test-results/TEST-x.xml}), so it is matched against the analyzers' globs and given a module like any other file as
+ * long as the archive kept the build paths. An archive is parsed in a single pass, decompressing it as a stream and handing each entry an analyzer
+ * accepts (going by the start of it) straight to that analyzer, rather than holding the entries in memory or unpacking them to disk. So an archive is
+ * one unit of work for each report it goes into, known by {@link #reports(Path, String)}. Gzipped files are likewise decompressed as they are parsed.
+ * Either way the contents are streamed to analyzers that can parse a stream (see {@link ReportAnalyzer#parse(Path, InputStream, List)}), and only read
+ * into memory for those that can't.
+ */
+final class ReportInputs {
+
+    static final String ARCHIVE_SEPARATOR = "!";
+
+    static final List<String> ARCHIVE_EXTENSIONS = ImmutableList.of(".zip", ".tar", ".tar.gz", ".tgz");
+
+    // Enough of a decompressed file to find its root element in
+    private static final int HEAD_SIZE = 64 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // The most that is read into memory for an analyzer that can't parse a stream
+    static final long MAX_BUFFERED_BYTES = 256L * 1024 * 1024;
+
+    private ReportInputs() {
+    }
+
+    /**
+     * Called with each entry of an archive.
+     */
+    interface EntryVisitor {
+        void visit(Path path, InputStream contents) throws IOException;
+    }
+
+    /**
+     * Returns whether the file is an archive of reports, going by its name.
+     */
+    static boolean isArchive(final Path path) {
+        final Path name = path.getFileName();
+        return name != null && ARCHIVE_EXTENSIONS.stream().anyMatch(name.toString()::endsWith);
+    }
+
+    /**
+     * Returns the path that the reports in the archive going into the named report are parsed under (e.g. {@code results.tar.gz!/junit}).
+     */
+    static Path reports(final Path archive, final String report) {
+        return entries(archive).resolve(report);
+    }
+
+    /**
+     * Returns the file on disk that holds the report: the archive for an archive entry (or the archive's reports), otherwise the report's own path.
+     */
+    static Path file(final Path path) {
+        for (Path dir = path.getParent(); dir != null; dir = dir.getParent()) {
+            final Path name = dir.getFileName();
+            if (name != null && name.toString().endsWith(ARCHIVE_SEPARATOR)) {
+                return dir.resolveSibling(StringUtils.removeEnd(name.toString(), ARCHIVE_SEPARATOR));
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Streams through the archive, calling the visitor with each file in it (directories, links etc. are skipped, as are names that climb out of it).
+     */
+    static void readEntries(final Path archive, final EntryVisitor visitor) throws IOException {
+        final Path entries = entries(archive);
+        final String name = archive.getFileName().toString();
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(archive), BUFFER_SIZE)) {
+            if (name.endsWith(".zip")) {
+                final ZipInputStream zip = new ZipInputStream(input);
+                for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                    if (!entry.isDirectory()) {
+                        visit(entryPath(entries, entry.getName()), zip, visitor);
+                    }
+                }
+            } else {
+                final TarReader tar = new TarReader(name.endsWith(".tar") ? input : new GZIPInputStream(input, BUFFER_SIZE));
+                for (String entry = tar.nextEntry(); entry != null; entry = tar.nextEntry()) {
+                    visit(entryPath(entries, entry), tar.entryStream(), visitor);
+                }
+            }
+        }
+    }
+
+    private static void visit(final Path path, final InputStream contents, final EntryVisitor visitor) throws IOException {
+        if (path != null) {
+            // Parsers may close the stream they're given, which mustn't close the archive's
+            visitor.visit(path, new CloseShieldInputStream(contents));
+        }
+    }
+
+    private static Path entries(final Path archive) {
+        return archive.resolveSibling(archive.getFileName() + ARCHIVE_SEPARATOR);
+    }
+
+    // Null for a name that climbs out of the archive
+    private static Path entryPath(final Path entries, final String entryName) {
+        final Path path = entries.resolve(StringUtils.stripStart(entryName, "/")).normalize();
+        return path.startsWith(entries) && !path.equals(entries) ? path : null;
+    }
+
+    /**
+     * Returns the start of the decompressed contents of a gzipped file, enough to find its root element in.
+     */
+    static ByteBuffer head(final Path path) throws IOException {
+        try (InputStream input = CompressedFiles.newInputStream(path)) {
+            return head(input);
+        }
+    }
+
+    /**
+     * Returns the start of the stream, enough to find its root element in.
+     */
+    static ByteBuffer head(final InputStream input) throws IOException {
+        return ByteBuffer.wrap(IOUtils.toByteArray(ByteStreams.limit(input, HEAD_SIZE)));
+    }
+
+    /**
+     * Reads the rest of the stream into memory, for an analyzer that parses from memory.
+     *
+     * @throws IOException if there is more than {@link #MAX_BUFFERED_BYTES} of it
+     */
+    static ByteBuffer read(final Path path, final InputStream input) throws IOException {
+        final byte[] contents = IOUtils.toByteArray(ByteStreams.limit(input, MAX_BUFFERED_BYTES + 1));
+        if (contents.length > MAX_BUFFERED_BYTES) {
+            throw new IOException(path + " is too large to parse in memory (over " + MAX_BUFFERED_BYTES + " bytes)");
+        }
+        return ByteBuffer.wrap(contents);
+    }
+
+    /**
+     * Returns an analyzer that parses the gzipped files it is given as they are decompressed.
+     */
+    static <T> ReportAnalyzer<T> streamed(final ReportAnalyzer<T> analyzer) {
+        return new StreamedAnalyzer<>(analyzer);
+    }
+
+    private static final class StreamedAnalyzer<T> implements ReportAnalyzer<T> {
+        private final ReportAnalyzer<T> analyzer;
+
+        StreamedAnalyzer(final ReportAnalyzer<T> analyzer) {
+            this.analyzer = analyzer;
+        }
+
+        @Override
+        public String name() {
+            return analyzer.name();
+        }
+
+        @Override
+        public String report() {
+            return analyzer.report();
+        }
+
+        @Override
+        public String reportDirectory() {
+            return analyzer.reportDirectory();
+        }
+
+        @Override
+        public String pathGlob() {
+            return analyzer.pathGlob();
+        }
+
+        @Override
+        public boolean acceptsRoot(final String rootElement) {
+            return analyzer.acceptsRoot(rootElement);
+        }
+
+        @Override
+        public void parse(final Path path, final List<T> results) throws IOException {
+            try (InputStream input = CompressedFiles.newInputStream(path)) {
+                analyzer.parse(path, input, results);
+            }
+        }
+
+        @Override
+        public void parse(final Path path, final ByteBuffer buffer, final List<T> results) throws IOException {
+            analyzer.parse(path, buffer, results);
+        }
+
+        @Override
+        public void parse(final Path path, final InputStream contents, final List<T> results) throws IOException {
+            analyzer.parse(path, contents, results);
+        }
+    }
+}
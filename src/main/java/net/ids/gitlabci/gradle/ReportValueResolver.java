@@ -0,0 +1,186 @@
+package net.ids.gitlabci.gradle;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.github.jknack.handlebars.ValueResolver;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Resolves template values on the report model classes with plain field accesses rather than reflection.
+ * <p>
+ * The templates look up several values per row, so with hundreds of thousands of rows the generic (reflective / cached) resolvers dominate render time.
+ * Anything not handled here returns {@link ValueResolver#UNRESOLVED} and falls through to the generic resolvers.
+ */
+final class ReportValueResolver implements ValueResolver {
+
+    static final ReportValueResolver INSTANCE = new ReportValueResolver();
+
+    private static final Set<String> MESSAGE_PROPERTIES = ImmutableSet.of("tool", "fileName", "module", "method", "startLine", "endLine", "startCol", "endCol",
+            "message", "priority", "rule", "category", "infoUrl", "occurrences");
+    private static final Set<String> SUITE_PROPERTIES = ImmutableSet.of("uniqueId", "suiteName", "testCount", "skippedCount", "failureCount", "errorCount", "time",
+            "stdout", "stderr", "stdoutBlob", "stderrBlob", "hasFailures");
+    private static final Set<String> CASE_PROPERTIES = ImmutableSet.of("uniqueId", "testName", "className", "time", "message", "type", "error", "errorBlob",
+            "hasError", "regressed",
+            "historyP90", "failureGroup");
+    private static final Set<String> PAIR_PROPERTIES = ImmutableSet.of("left", "right");
+
+    private ReportValueResolver() {
+    }
+
+    @Override
+    public Object resolve(final Object context, final String name) {
+        if (context instanceof StaticAnalysisMessage) {
+            return resolve((StaticAnalysisMessage) context, name);
+        } else if (context instanceof JUnitTestCase) {
+            return resolve((JUnitTestCase) context, name);
+        } else if (context instanceof JUnitTestSuite) {
+            return resolve((JUnitTestSuite) context, name);
+        } else if (context instanceof Pair) {
+            return resolve((Pair<?, ?>) context, name);
+        }
+        return UNRESOLVED;
+    }
+
+    private static Object resolve(final StaticAnalysisMessage message, final String name) {
+        switch (name) {
+            case "tool":
+                return message.tool;
+            case "fileName":
+                return message.fileName;
+            case "module":
+                return message.module;
+            case "method":
+                return message.method;
+            case "startLine":
+                return message.startLine;
+            case "endLine":
+                return message.endLine;
+            case "startCol":
+                return message.startCol;
+            case "endCol":
+                return message.endCol;
+            case "message":
+                return message.message;
+            case "priority":
+                return message.priority;
+            case "rule":
+                return message.rule;
+            case "category":
+                return message.category;
+            case "infoUrl":
+                return message.infoUrl;
+            case "occurrences":
+                return message.occurrences;
+            default:
+                return UNRESOLVED;
+        }
+    }
+
+    private static Object resolve(final JUnitTestSuite suite, final String name) {
+        switch (name) {
+            case "uniqueId":
+                return suite.uniqueId;
+            case "suiteName":
+                return suite.suiteName;
+            case "testCount":
+                return suite.testCount;
+            case "skippedCount":
+                return suite.skippedCount;
+            case "failureCount":
+                return suite.failureCount;
+            case "errorCount":
+                return suite.errorCount;
+            case "time":
+                return suite.time;
+            case "stdout":
+                return suite.stdout;
+            case "stderr":
+                return suite.stderr;
+            case "stdoutBlob":
+                return suite.stdoutBlob;
+            case "stderrBlob":
+                return suite.stderrBlob;
+            case "hasFailures":
+                return suite.hasFailures();
+            default:
+                return UNRESOLVED;
+        }
+    }
+
+    private static Object resolve(final JUnitTestCase testCase, final String name) {
+        switch (name) {
+            case "uniqueId":
+                return testCase.uniqueId;
+            case "testName":
+                return testCase.testName;
+            case "className":
+                return testCase.className;
+            case "time":
+                return testCase.time;
+            case "message":
+                return testCase.message;
+            case "type":
+                return testCase.type;
+            case "error":
+                return testCase.error;
+            case "errorBlob":
+                return testCase.errorBlob;
+            case "hasError":
+                return testCase.hasError();
+            case "regressed":
+                return testCase.isRegressed();
+            case "historyP90":
+                return testCase.historyP90;
+            case "failureGroup":
+                return testCase.failureGroup;
+            default:
+                return UNRESOLVED;
+        }
+    }
+
+    private static Object resolve(final Pair<?, ?> pair, final String name) {
+        switch (name) {
+            case "left":
+                return pair.getLeft();
+            case "right":
+                return pair.getRight();
+            default:
+                return UNRESOLVED;
+        }
+    }
+
+    @Override
+    public Object resolve(final Object context) {
+        return UNRESOLVED;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> propertySet(final Object context) {
+        final Set<String> names;
+        if (context instanceof StaticAnalysisMessage) {
+            names = MESSAGE_PROPERTIES;
+        } else if (context instanceof JUnitTestCase) {
+            names = CASE_PROPERTIES;
+        } else if (context instanceof JUnitTestSuite) {
+            names = SUITE_PROPERTIES;
+        } else if (context instanceof Pair) {
+            names = PAIR_PROPERTIES;
+        } else {
+            return Collections.emptySet();
+        }
+
+        final ImmutableMap.Builder<String, Object> properties = ImmutableMap.builder();
+        for (String name : names) {
+            final Object value = resolve(context, name);
+            if (value != null) {
+                properties.put(name, value);
+            }
+        }
+        return properties.build().entrySet();
+    }
+}
@@ -0,0 +1,439 @@
+package net.ids.gitlabci.gradle;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Watch mode: keeps a report up to date while the build is still writing the files it is made from.
+ * <p>
+ * The directories that discovery would walk are watched for report files being written, including directories created as the build goes. Once the
+ * files have been quiet for a moment (or at the latest every {@link #MAX_DELAY_MILLIS} while they keep changing) the changed files are classified, and
+ * the report is written again. Each file is only parsed when it has changed since it was last parsed: its results are held in memory (encoded, so that
+ * each report gets records of its own to modify) keyed by its size and modification time (an archive's, for its reports). A file that can't be parsed
+ * yet (because it is still being written) is left out of the interim report until it changes again.
+ * <p>
+ * Watching stops when the process is interrupted (SIGINT / SIGTERM); the final report is then written from the files' held results, and the process
+ * exits with its status. Interim reports don't record anything in the test duration history, as the next report would record the same tests again, nor write the
+ * exports, shard lists or metrics.
+ * <p>
+ * Only the directories that reports are written to, the build directories that hold them and the directories that hold those (Gradle projects, which
+ * have a build script or a build directory) are watched, as a large repository has more directories than the platform may allow watches for (inotify's
+ * default limit is 8192). Other directories are only walked to find those, which is done again every {@link #RESCAN_MILLIS} while nothing changes, for
+ * the build directories of projects that have no build script of their own.
+ */
+final class ReportWatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReportWatcher.class);
+
+    // How long the files must be quiet before the report is written, and the longest it is put off while they keep changing
+    static final long DEBOUNCE_MILLIS = 2000;
+    static final long MAX_DELAY_MILLIS = 10000;
+
+    // How often the directories that aren't watched are walked for new build directories
+    static final long RESCAN_MILLIS = 30000;
+
+    // How long the final report may take once watching has been stopped
+    private static final long FINAL_REPORT_TIMEOUT_SECONDS = 300;
+
+    private static final List<String> BUILD_SCRIPTS = ImmutableList.of("build.gradle", "build.gradle.kts");
+
+    private static final Map<String, RecordCodec<?>> CODECS = ImmutableMap.of(
+            ResultExport.JUNIT, RecordCodecs.JUNIT_RESULT,
+            ResultExport.STATIC_ANALYSIS, RecordCodecs.STATIC_ANALYSIS_MESSAGE);
+
+    private final Path rootDir;
+    private final Set<String> reportDirectories;
+    private final BiConsumer<Path, Map<Path, ReportAnalyzer<?>>> classifier;
+    private final Map<ReportAnalyzer<?>, HeldAnalyzer<?>> heldAnalyzers = Maps.newHashMap();
+    private final WatchService watchService;
+
+    // Files found so far, and those changed since the last report
+    private final SortedMap<Path, ReportAnalyzer<?>> files = Maps.newTreeMap();
+    private final Set<Path> changed = Sets.newHashSet();
+
+    // Directories with a watch registered
+    private final Set<Path> watched = Sets.newHashSet();
+
+    /**
+     * Writes a report from report files (each with its analyzer), returning false if it found problems.
+     */
+    interface Report {
+        boolean write(AnalysisOptions options, SortedMap<Path, ReportAnalyzer<?>> reports) throws IOException;
+    }
+
+    private ReportWatcher(final Path rootDir, final List<? extends ReportAnalyzer<?>> analyzers) throws IOException {
+        this.rootDir = rootDir;
+        this.reportDirectories = ReportAnalyzers.reportDirectories(analyzers);
+        this.classifier = ReportAnalyzers.classifier(Lists.<ReportAnalyzer<?>>newArrayList(analyzers));
+        for (ReportAnalyzer<?> analyzer : analyzers) {
+            heldAnalyzers.put(analyzer, hold(analyzer));
+        }
+        this.watchService = rootDir.getFileSystem().newWatchService();
+    }
+
+    private static <T> HeldAnalyzer<T> hold(final ReportAnalyzer<T> analyzer) {
+        @SuppressWarnings("unchecked")
+        final RecordCodec<T> codec = (RecordCodec<T>) CODECS.get(analyzer.report());
+        if (codec == null) {
+            throw new IllegalStateException("No record codec for the " + analyzer.report() + " report of " + analyzer.name());
+        }
+        return new HeldAnalyzer<>(analyzer, codec);
+    }
+
+    /**
+     * Watches for the analyzers' files under the root directory named by the options, writing the report as they change until the process is interrupted.
+     * Returns the status of the final report (which the process exits with, as it is already shutting down).
+     */
+    static boolean watch(final AnalysisOptions options, final List<? extends ReportAnalyzer<?>> analyzers, final Report report) throws IOException {
+        final ReportWatcher watcher = new ReportWatcher(Paths.get(options.rootDir).toAbsolutePath().normalize(), analyzers);
+
+        // Stop watching on SIGINT / SIGTERM, but hold the shutdown until the final report has been written
+        final CountDownLatch finished = new CountDownLatch(1);
+        final boolean[] passed = {false};
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            watcher.stop();
+            try {
+                if (finished.await(FINAL_REPORT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    Runtime.getRuntime().halt(passed[0] ? 0 : 1);
+                }
+                LOG.error("Timed out waiting for the final report");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "report-watcher-shutdown"));
+
+        try {
+            watcher.run(options, report);
+
+            // Nothing is parsed again unless it changed after the last report
+            LOG.info("Watching stopped, writing the final report");
+            passed[0] = watcher.write(options, report, true);
+            return passed[0];
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    private void run(final AnalysisOptions options, final Report report) throws IOException {
+        register(rootDir);
+        LOG.info("Watching {} for report files ({} found so far)", rootDir, changed.size());
+        if (!changed.isEmpty()) {
+            write(options, report, false);
+        }
+
+        long firstChange = 0;
+        long lastChange = 0;
+        try {
+            while (true) {
+                final WatchKey key;
+                if (changed.isEmpty()) {
+                    key = watchService.poll(RESCAN_MILLIS, TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        // Quiet for a while, so look for build directories that have appeared where nothing is watched
+                        register(rootDir);
+                        firstChange = System.currentTimeMillis();
+                        lastChange = firstChange;
+                        continue;
+                    }
+                } else {
+                    final long now = System.currentTimeMillis();
+                    final long due = Math.min(lastChange + DEBOUNCE_MILLIS, firstChange + MAX_DELAY_MILLIS);
+                    key = due > now ? watchService.poll(due - now, TimeUnit.MILLISECONDS) : null;
+                }
+
+                if (key == null) {
+                    write(options, report, false);
+                    continue;
+                }
+
+                final boolean wasChanged = !changed.isEmpty();
+                handle(key);
+                if (!wasChanged && !changed.isEmpty()) {
+                    firstChange = System.currentTimeMillis();
+                }
+                lastChange = System.currentTimeMillis();
+            }
+        } catch (ClosedWatchServiceException e) {
+            LOG.debug("Watch service closed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void stop() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOG.warn("Unable to close the watch service", e);
+        }
+    }
+
+    private void handle(final WatchKey key) throws IOException {
+        final Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // Events were lost, so look at everything again (registering a directory twice is harmless)
+                LOG.warn("Missed some changes under {}, looking for report files again", rootDir);
+                changed.addAll(files.keySet());
+                watched.clear();
+                register(rootDir);
+                continue;
+            }
+
+            final Path path = dir.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                // Files may have been written to it before it was registered
+                register(path);
+            } else if (event.kind() == ENTRY_DELETE) {
+                for (Path file : files.keySet()) {
+                    if (ReportInputs.file(file).startsWith(path)) {
+                        changed.add(ReportInputs.file(file));
+                    }
+                }
+            } else {
+                changed.add(path);
+            }
+        }
+        if (!key.reset()) {
+            // The directory has gone, so it is registered again if it is created again
+            watched.remove(dir);
+        }
+    }
+
+    /**
+     * Registers the directories at or below the given one that need watching and aren't watched yet, noting the files already in them as changed.
+     */
+    private void register(final Path start) throws IOException {
+        final Set<Path> registered = Sets.newHashSet();
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(rootDir) && ReportIngester.isPruned(dir, reportDirectories)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (!watched.contains(dir) && isWatched(dir)) {
+                    dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                    watched.add(dir);
+                    registered.add(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                // Files in watched directories are already known, and those in directories that aren't watched can't be reports
+                if (registered.contains(file.getParent())) {
+                    changed.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                // Most likely deleted as the build went on
+                LOG.debug("Unable to visit {}", file, e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Returns whether the (unpruned) directory needs watching: the root, a project (where a build directory may appear), a build directory or a
+     * directory in one of its report directories.
+     */
+    private boolean isWatched(final Path dir) {
+        if (dir.equals(rootDir) || isBuildDirectory(dir) || Files.isDirectory(dir.resolve(ReportIngester.BUILD_DIRECTORY), LinkOption.NOFOLLOW_LINKS)
+                || BUILD_SCRIPTS.stream().anyMatch(script -> Files.exists(dir.resolve(script)))) {
+            return true;
+        }
+        // Directories directly under a build directory that get this far are report directories (the others are pruned)
+        for (Path ancestor = dir.getParent(); ancestor != null && ancestor.startsWith(rootDir); ancestor = ancestor.getParent()) {
+            if (isBuildDirectory(ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBuildDirectory(final Path dir) {
+        final Path name = dir.getFileName();
+        return name != null && ReportIngester.BUILD_DIRECTORY.equals(name.toString());
+    }
+
+    /**
+     * Classifies the changed files, then writes the report (with the options as given if it is the final one).
+     */
+    private boolean write(final AnalysisOptions options, final Report report, final boolean last) throws IOException {
+        // A changed archive replaces all of its entries
+        files.keySet().removeIf(file -> changed.contains(ReportInputs.file(file)));
+        final Map<Path, ReportAnalyzer<?>> found = Maps.newHashMap();
+        for (Path path : changed) {
+            if (Files.isRegularFile(path)) {
+                classifier.accept(path, found);
+            }
+        }
+        // Gzipped files and archives come with an analyzer of their own
+        found.forEach((path, analyzer) -> files.put(path, heldAnalyzers.containsKey(analyzer) ? heldAnalyzers.get(analyzer) : hold(analyzer)));
+        changed.clear();
+
+        if (last) {
+            // Including those of archives, which are held one by one
+            files.values().forEach(held -> ((HeldAnalyzer<?>) held).lenient = false);
+            return report.write(options, files);
+        }
+
+        try {
+            final long start = System.currentTimeMillis();
+            final boolean passed = report.write(options.interim(), files);
+            LOG.info("Interim report of {} files written in {}ms", files.size(), System.currentTimeMillis() - start);
+            return passed;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Unable to write the interim report, will try again when the files next change", e);
+            return false;
+        }
+    }
+
+    /**
+     * Analyzer that holds the results of each file it parses, so a file is only parsed again once it has changed.
+     */
+    private static final class HeldAnalyzer<T> implements ReportAnalyzer<T> {
+        private final ReportAnalyzer<T> analyzer;
+        private final RecordCodec<T> codec;
+        private final ConcurrentMap<Path, HeldResults> held = Maps.newConcurrentMap();
+
+        // Whether a file that can't be parsed is left out (rather than failing the report), as it is probably still being written
+        volatile boolean lenient = true;
+
+        HeldAnalyzer(final ReportAnalyzer<T> analyzer, final RecordCodec<T> codec) {
+            this.analyzer = analyzer;
+            this.codec = codec;
+        }
+
+        @Override
+        public String name() {
+            return analyzer.name();
+        }
+
+        @Override
+        public String report() {
+            return analyzer.report();
+        }
+
+        @Override
+        public String reportDirectory() {
+            return analyzer.reportDirectory();
+        }
+
+        @Override
+        public String pathGlob() {
+            return analyzer.pathGlob();
+        }
+
+        @Override
+        public boolean acceptsRoot(final String rootElement) {
+            return analyzer.acceptsRoot(rootElement);
+        }
+
+        @Override
+        public void parse(final Path path, final ByteBuffer contents, final List<T> results) throws IOException {
+            analyzer.parse(path, contents, results);
+        }
+
+        @Override
+        public void parse(final Path path, final InputStream contents, final List<T> results) throws IOException {
+            analyzer.parse(path, contents, results);
+        }
+
+        @Override
+        public void parse(final Path path, final List<T> results) throws IOException {
+            final Path file = ReportInputs.file(path);
+            final long size = Files.size(file);
+            final long modified = Files.getLastModifiedTime(file).toMillis();
+            final HeldResults previous = held.get(path);
+            if (previous != null && previous.size == size && previous.modified == modified) {
+                final DataInputStream input = new DataInputStream(new ByteArrayInputStream(previous.records));
+                for (int i = 0; i < previous.count; i++) {
+                    results.add(codec.read(input));
+                }
+                return;
+            }
+
+            final List<T> parsed = Lists.newArrayList();
+            try {
+                analyzer.parse(path, parsed);
+            } catch (IOException | RuntimeException | InternalError e) {
+                // InternalError is how a fault reading a mapped file that has since been truncated surfaces
+                if (!lenient) {
+                    throw e;
+                }
+                LOG.info("Leaving out {} for now, it can't be parsed yet: {}", path, e.toString());
+                held.remove(path);
+                return;
+            }
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream output = new DataOutputStream(bytes);
+            for (T record : parsed) {
+                codec.write(output, record);
+            }
+            output.flush();
+            held.put(path, new HeldResults(size, modified, parsed.size(), bytes.toByteArray()));
+            results.addAll(parsed);
+        }
+    }
+
+    /**
+     * A file's encoded results, and the size and modification time of the file they were parsed from.
+     */
+    private static final class HeldResults {
+        final long size;
+        final long modified;
+        final int count;
+        final byte[] records;
+
+        HeldResults(final long size, final long modified, final int count, final byte[] records) {
+            this.size = size;
+            this.modified = modified;
+            this.count = count;
+            this.records = records;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.google.common.base.Charsets;
+
+import net.ids.util.CompressedFiles;
+import net.ids.util.JsonWriter;
+
+/**
+ * Machine readable exports of the parsed results, written straight from the records (no templates involved).
+ * <p>
+ * Two formats are supported:
+ * <ul>
+ * <li>newline delimited JSON, one record per line</li>
+ * <li>a compact binary format: a header (magic, version, record type, root directory, record count) followed by the records as written by
+ * {@link RecordCodecs}</li>
+ * </ul>
+ * Either is gzip compressed if its file name ends in {@code .gz}.
+ */
+final class ResultExport {
+
+    private static final int MAGIC = 0x474C4352;
+    private static final int VERSION = 3;
+
+    // Record types, as recorded in the binary header
+    static final String STATIC_ANALYSIS = "static-analysis";
+    static final String JUNIT = "junit";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Formats a record as a JSON object.
+     */
+    interface JsonFormat<T> {
+        void write(JsonWriter json, T record) throws IOException;
+    }
+
+    /**
+     * JSON format for a static analysis message.
+     */
+    static final JsonFormat<StaticAnalysisMessage> STATIC_ANALYSIS_JSON = (json, message) -> json.beginObject()
+            .value("tool", message.tool)
+            .value("module", message.module)
+            .value("file", message.fileName)
+            .value("method", message.method)
+            .value("startLine", message.startLine)
+            .value("endLine", message.endLine)
+            .value("startColumn", message.startCol)
+            .value("endColumn", message.endCol)
+            .value("priority", message.priority)
+            .value("rule", message.rule)
+            .value("category", message.category)
+            .value("message", message.message)
+            .value("infoUrl", message.infoUrl)
+            .value("occurrences", message.occurrences)
+            .endObject();
+
+    /**
+     * JSON format for a test suite, with its test cases nested in an array.
+     * <p>
+     * Text moved out to side files ({@code --lazy-blobs}) is null, with the side file's path relative to the report in the matching blob field.
+     */
+    static final JsonFormat<Pair<JUnitTestSuite, List<JUnitTestCase>>> JUNIT_JSON = (json, result) -> {
+        final JUnitTestSuite suite = result.getLeft();
+        json.beginObject()
+                .value("suite", suite.suiteName)
+                .value("tests", suite.testCount)
+                .value("skipped", suite.skippedCount)
+                .value("failures", suite.failureCount)
+                .value("errors", suite.errorCount)
+                .value("time", suite.time)
+                .value("stdout", suite.stdout)
+                .value("stderr", suite.stderr)
+                .value("stdoutBlob", suite.stdoutBlob)
+                .value("stderrBlob", suite.stderrBlob)
+                .beginArray("cases");
+        for (JUnitTestCase testCase : result.getRight()) {
+            json.beginObject()
+                    .value("name", testCase.testName)
+                    .value("className", testCase.className)
+                    .value("time", testCase.time)
+                    .value("message", testCase.message)
+                    .value("type", testCase.type)
+                    .value("error", testCase.error)
+                    .value("errorBlob", testCase.errorBlob)
+                    .endObject();
+        }
+        json.endArray().endObject();
+    };
+
+    private ResultExport() {
+    }
+
+    /**
+     * Writes the records as newline delimited JSON.
+     */
+    static <T> void writeJsonLines(final String file, final Iterable<T> records, final JsonFormat<T> format) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(CompressedFiles.newOutputStream(Paths.get(file)), Charsets.UTF_8), BUFFER_SIZE)) {
+            final JsonWriter json = new JsonWriter(writer);
+            for (T record : records) {
+                format.write(json, record);
+                json.newLine();
+            }
+        }
+    }
+
+    /**
+     * Writes the records in the binary format, with the root directory they were found under (so that a later run in another checkout can relate its
+     * paths to theirs).
+     */
+    static <T> void writeBinary(final String file, final String type, final String rootDir, final RecordCodec<T> codec, final int count,
+            final Iterable<T> records) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(CompressedFiles.newOutputStream(Paths.get(file)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(type);
+            output.writeUTF(Paths.get(rootDir).toAbsolutePath().normalize().toString());
+            output.writeInt(count);
+            for (T record : records) {
+                codec.write(output, record);
+            }
+        }
+    }
+
+    /**
+     * Reads records written by {@link #writeBinary(String, String, String, RecordCodec, int, Iterable)}, passing each to the consumer along with the root
+     * directory they were found under.
+     */
+    static <T> void readBinary(final String file, final String type, final RecordCodec<T> codec, final BiConsumer<Path, T> consumer) throws IOException {
+        try (DataInputStream input = new DataInputStream(CompressedFiles.newInputStream(Paths.get(file)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException(file + " is not a binary export (or is from an incompatible version)");
+            }
+            final String fileType = input.readUTF();
+            if (!type.equals(fileType)) {
+                throw new IOException(file + " holds " + fileType + " results, expected " + type);
+            }
+
+            final Path rootDir = Paths.get(input.readUTF());
+            final int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                consumer.accept(rootDir, codec.read(input));
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import net.ids.util.CompressedFiles;
+import net.ids.util.JsonWriter;
+
+/**
+ * Timings, counts, allocation and GC figures for a single analysis run.
+ * <p>
+ * Each phase (discovery, parse, sort, render, write) is timed on the calling thread, and every report file is timed as it's parsed, giving per type
+ * file / byte / record counts and optionally the slowest files. Bytes are counted as they are on disk, so a gzipped file counts its compressed size and
+ * an archive (whose reports are parsed as one unit, see {@link ReportInputs}) counts its own size, under the "archive" type. The figures are written
+ * next to the report both in the Prometheus text format (for a textfile collector or CI metrics upload) and as JSON. GC figures are JVM wide, so in the
+ * analysis server they include any concurrent runs.
+ */
+class RunMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RunMetrics.class);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final String tool;
+    private final int slowestFileCount;
+    private final long startNanos = System.nanoTime();
+
+    // GC counts and times when the run started, so we can report the difference
+    private final Map<String, long[]> gcAtStart = Maps.newLinkedHashMap();
+
+    // In the order they ran
+    private final Map<String, long[]> phases = Maps.newLinkedHashMap();
+
+    // Keyed by report type (e.g. checkstyle), updated concurrently by the parser threads
+    private final Map<String, FileStats> fileStats = new ConcurrentHashMap<>();
+
+    // The slowest N files (quickest at the head, so it's the one replaced)
+    private final PriorityQueue<SlowFile> slowestFiles = new PriorityQueue<>((left, right) -> Long.compare(left.nanos, right.nanos));
+
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    RunMetrics(final String tool, final int slowestFileCount) {
+        this.tool = tool;
+        this.slowestFileCount = slowestFileCount;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcAtStart.put(collector.getName(), new long[] {collector.getCollectionCount(), collector.getCollectionTime()});
+        }
+    }
+
+    /**
+     * Starts timing a phase, which ends when the returned timer is stopped.
+     */
+    Timer start(final String phase) {
+        return new Timer(phase);
+    }
+
+    /**
+     * Wraps the parser so that each file it parses is counted and timed under its report type.
+     */
+    <T> BiConsumer<Path, List<T>> timeFiles(final Function<Path, String> typeOf, final BiConsumer<Path, List<T>> parser) {
+        return (path, results) -> {
+            final long allocatedBefore = threadAllocatedBytes();
+            final long start = System.nanoTime();
+            parser.accept(path, results);
+            final long nanos = System.nanoTime() - start;
+            allocatedBytes.add(Math.max(0, threadAllocatedBytes() - allocatedBefore));
+
+            long bytes;
+            try {
+                bytes = Files.size(ReportInputs.file(path));
+            } catch (IOException e) {
+                bytes = 0;
+            }
+
+            final FileStats stats = fileStats.computeIfAbsent(typeOf.apply(path), ignored -> new FileStats());
+            stats.files.increment();
+            stats.bytes.add(bytes);
+            stats.records.add(results.size());
+            stats.nanos.add(nanos);
+            recordSlowFile(new SlowFile(path, bytes, nanos));
+        };
+    }
+
+    private void recordSlowFile(final SlowFile file) {
+        if (slowestFileCount == 0) {
+            return;
+        }
+        synchronized (slowestFiles) {
+            if (slowestFiles.size() < slowestFileCount) {
+                slowestFiles.add(file);
+            } else if (slowestFiles.peek().nanos < file.nanos) {
+                slowestFiles.poll();
+                slowestFiles.add(file);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far, or zero if the JVM can't tell us.
+     */
+    @SuppressWarnings("restriction")
+    private static long threadAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Writes the metrics to {@code <report>-metrics.prom} and {@code <report>-metrics.json} alongside the report.
+     */
+    void write(final String outputFile) throws IOException {
+        final Path output = Paths.get(outputFile);
+        final String baseName = CompressedFiles.baseName(output) + "-metrics";
+
+        // Take the GC figures once so both files agree
+        final Map<String, long[]> gc = Maps.newLinkedHashMap();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            final long[] atStart = gcAtStart.getOrDefault(collector.getName(), new long[2]);
+            gc.put(collector.getName(), new long[] {collector.getCollectionCount() - atStart[0], collector.getCollectionTime() - atStart[1]});
+        }
+        final List<SlowFile> slowest;
+        synchronized (slowestFiles) {
+            slowest = Lists.newArrayList(slowestFiles);
+        }
+        slowest.sort((left, right) -> Long.compare(right.nanos, left.nanos));
+
+        try (Writer writer = new OutputStreamWriter(Files.newOutputStream(output.resolveSibling(baseName + ".prom")), Charsets.UTF_8)) {
+            writePrometheus(writer, gc, slowest);
+        }
+        try (Writer writer = new OutputStreamWriter(Files.newOutputStream(output.resolveSibling(baseName + ".json")), Charsets.UTF_8)) {
+            writeJson(writer, gc, slowest);
+        }
+
+        for (SlowFile file : slowest) {
+            LOG.info("Slow file: {} ({} bytes) took {}s to parse", file.path, file.bytes, seconds(file.nanos));
+        }
+        LOG.info("Wrote metrics to {}", output.resolveSibling(baseName + ".prom"));
+    }
+
+    private void writePrometheus(final Writer writer, final Map<String, long[]> gc, final List<SlowFile> slowest) throws IOException {
+        final String toolLabel = "tool=\"" + tool + "\"";
+
+        header(writer, "report_run_seconds", "Total time taken by the run");
+        sample(writer, "report_run_seconds", toolLabel, seconds(System.nanoTime() - startNanos));
+
+        header(writer, "report_phase_seconds", "Time taken by each phase of the run");
+        for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+            sample(writer, "report_phase_seconds", toolLabel + ",phase=\"" + phase.getKey() + "\"", seconds(phase.getValue()[0]));
+        }
+
+        // Each metric's samples have to be together, after its header
+        header(writer, "report_files", "Number of report files parsed");
+        for (Map.Entry<String, FileStats> entry : fileStats.entrySet()) {
+            sample(writer, "report_files", toolLabel + ",type=\"" + entry.getKey() + "\"", entry.getValue().files.sum());
+        }
+        header(writer, "report_file_bytes", "Total size of the report files parsed");
+        for (Map.Entry<String, FileStats> entry : fileStats.entrySet()) {
+            sample(writer, "report_file_bytes", toolLabel + ",type=\"" + entry.getKey() + "\"", entry.getValue().bytes.sum());
+        }
+        header(writer, "report_records", "Number of records parsed from the report files");
+        for (Map.Entry<String, FileStats> entry : fileStats.entrySet()) {
+            sample(writer, "report_records", toolLabel + ",type=\"" + entry.getKey() + "\"", entry.getValue().records.sum());
+        }
+        header(writer, "report_parse_seconds", "Time spent parsing report files, summed across threads");
+        for (Map.Entry<String, FileStats> entry : fileStats.entrySet()) {
+            sample(writer, "report_parse_seconds", toolLabel + ",type=\"" + entry.getKey() + "\"", seconds(entry.getValue().nanos.sum()));
+        }
+
+        header(writer, "report_allocated_bytes", "Bytes allocated by the run's parse and main threads (zero if the JVM doesn't support it)");
+        sample(writer, "report_allocated_bytes", toolLabel, totalAllocatedBytes());
+
+        header(writer, "report_gc_collections", "Garbage collections during the run, by collector");
+        for (Map.Entry<String, long[]> collector : gc.entrySet()) {
+            sample(writer, "report_gc_collections", toolLabel + ",collector=\"" + escapeLabel(collector.getKey()) + "\"", collector.getValue()[0]);
+        }
+        header(writer, "report_gc_seconds", "Time spent in garbage collection during the run, by collector");
+        for (Map.Entry<String, long[]> collector : gc.entrySet()) {
+            sample(writer, "report_gc_seconds", toolLabel + ",collector=\"" + escapeLabel(collector.getKey()) + "\"", collector.getValue()[1] / 1000.0);
+        }
+
+        if (!slowest.isEmpty()) {
+            header(writer, "report_slow_file_parse_seconds", "Parse time of the slowest report files");
+            for (SlowFile file : slowest) {
+                sample(writer, "report_slow_file_parse_seconds", toolLabel + ",file=\"" + escapeLabel(file.path.toString()) + "\"", seconds(file.nanos));
+            }
+        }
+    }
+
+    private static void header(final Writer writer, final String name, final String help) throws IOException {
+        writer.write("# HELP " + name + " " + help + "\n");
+        writer.write("# TYPE " + name + " gauge\n");
+    }
+
+    private static void sample(final Writer writer, final String name, final String labels, final double value) throws IOException {
+        writer.write(name + "{" + labels + "} " + String.format(Locale.ROOT, "%.6f", value) + "\n");
+    }
+
+    private static void sample(final Writer writer, final String name, final String labels, final long value) throws IOException {
+        writer.write(name + "{" + labels + "} " + value + "\n");
+    }
+
+    private static String escapeLabel(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private void writeJson(final Writer writer, final Map<String, long[]> gc, final List<SlowFile> slowest) throws IOException {
+        final JsonWriter json = new JsonWriter(writer);
+        json.beginObject();
+        json.value("tool", tool);
+        json.value("runSeconds", seconds(System.nanoTime() - startNanos));
+        json.value("allocatedBytes", totalAllocatedBytes());
+
+        json.beginArray("phases");
+        for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+            json.beginObject().value("phase", phase.getKey()).value("seconds", seconds(phase.getValue()[0])).value("allocatedBytes", phase.getValue()[1]).endObject();
+        }
+        json.endArray();
+
+        json.beginArray("files");
+        for (Map.Entry<String, FileStats> entry : fileStats.entrySet()) {
+            final FileStats stats = entry.getValue();
+            json.beginObject().value("type", entry.getKey()).value("files", stats.files.sum()).value("bytes", stats.bytes.sum())
+                    .value("records", stats.records.sum()).value("parseSeconds", seconds(stats.nanos.sum())).endObject();
+        }
+        json.endArray();
+
+        json.beginArray("gc");
+        for (Map.Entry<String, long[]> collector : gc.entrySet()) {
+            json.beginObject().value("collector", collector.getKey()).value("collections", collector.getValue()[0])
+                    .value("seconds", collector.getValue()[1] / 1000.0).endObject();
+        }
+        json.endArray();
+
+        json.beginArray("slowestFiles");
+        for (SlowFile file : slowest) {
+            json.beginObject().value("path", file.path.toString()).value("bytes", file.bytes).value("seconds", seconds(file.nanos)).endObject();
+        }
+        json.endArray();
+
+        json.endObject().newLine();
+    }
+
+    private long totalAllocatedBytes() {
+        long total = allocatedBytes.sum();
+        for (long[] phase : phases.values()) {
+            total += phase[1];
+        }
+        return total;
+    }
+
+    private static double seconds(final long nanos) {
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Times one phase of the run (on the thread that started it).
+     */
+    final class Timer {
+
+        private final String phase;
+        private final long start = System.nanoTime();
+        private final long allocatedBefore = threadAllocatedBytes();
+
+        private Timer(final String phase) {
+            this.phase = phase;
+        }
+
+        void stop() {
+            // The parse phase's own allocation is mostly on the parser threads, which timeFiles counts
+            phases.put(phase, new long[] {System.nanoTime() - start, Math.max(0, threadAllocatedBytes() - allocatedBefore)});
+        }
+    }
+
+    private static final class FileStats {
+        private final LongAdder files = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder records = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+    }
+
+    private static final class SlowFile {
+        private final Path path;
+        private final long bytes;
+        private final long nanos;
+
+        SlowFile(final Path path, final long bytes, final long nanos) {
+            this.path = path;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+/**
+ * Splits test suites across a number of parallel jobs so that they all take about as long.
+ * <p>
+ * Uses longest processing time first: suites are taken longest first and each goes to the shard with the least work so far, which keeps the slowest
+ * shard within 4/3 of the best possible. Each shard's suites are written to {@code shard-<n>.txt}, one class name per line, for the Gradle test task's
+ * filter ({@code includeTestsMatching}) to pick up.
+ */
+class ShardPlanner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardPlanner.class);
+
+    private ShardPlanner() {
+    }
+
+    /**
+     * Returns the suite names on each shard, given each suite's expected duration.
+     */
+    static List<List<String>> plan(final Map<String, Float> durations, final int shardCount) {
+        // Longest first (by name for equal durations, so the plan is stable from run to run)
+        final List<Map.Entry<String, Float>> suites = Lists.newArrayList(durations.entrySet());
+        suites.sort((left, right) -> {
+            final int byDuration = Float.compare(right.getValue(), left.getValue());
+            return byDuration != 0 ? byDuration : left.getKey().compareTo(right.getKey());
+        });
+
+        final List<List<String>> shards = Lists.newArrayListWithCapacity(shardCount);
+        final double[] loads = new double[shardCount];
+        final PriorityQueue<Integer> leastLoaded = new PriorityQueue<>((left, right) -> {
+            final int byLoad = Double.compare(loads[left], loads[right]);
+            return byLoad != 0 ? byLoad : Integer.compare(left, right);
+        });
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(Lists.newArrayList());
+            leastLoaded.add(i);
+        }
+
+        for (Map.Entry<String, Float> suite : suites) {
+            final int shard = leastLoaded.poll();
+            shards.get(shard).add(suite.getKey());
+            loads[shard] += suite.getValue();
+            leastLoaded.add(shard);
+        }
+
+        LOG.info("Planned {} suites across {} shards, expected shard times (s): {}", suites.size(), shardCount, Arrays.toString(loads));
+        return shards;
+    }
+
+    /**
+     * Writes each shard's suites to {@code shard-<n>.txt} (numbered from 1, as GitLab's CI_NODE_INDEX is) in the directory.
+     */
+    static void write(final String directory, final List<List<String>> shards) throws IOException {
+        final Path dir = Files.createDirectories(Paths.get(directory));
+        for (int i = 0; i < shards.size(); i++) {
+            final List<String> suites = Lists.newArrayList(shards.get(i));
+            suites.sort(null);
+            Files.write(dir.resolve("shard-" + (i + 1) + ".txt"), suites, Charsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * A previous run's violations, used to report only the violations that are new.
+ * <p>
+ * Violations are matched on a 64-bit fingerprint of the tool, module (relative to the root directory of its run), file (relative to its module), rule,
+ * method and message with any numbers stripped out. So the fingerprint doesn't depend on where the project was checked out, but the same file path in
+ * two modules is still told apart. Line numbers are deliberately left out so that unrelated edits which shift code around don't make old violations
+ * look new. The index is a sorted array of
+ * distinct fingerprints with a count of each, so a baseline of millions of violations costs a few bytes per violation and each lookup is a binary search.
+ */
+class StaticAnalysisBaseline {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final long[] fingerprints;
+    private final int[] counts;
+
+    private StaticAnalysisBaseline(final long[] fingerprints, final int[] counts) {
+        this.fingerprints = fingerprints;
+        this.counts = counts;
+    }
+
+    /**
+     * Loads the baseline from a previous run's binary export (see {@link ResultExport}).
+     */
+    static StaticAnalysisBaseline load(final String file) throws IOException {
+        final long[][] all = {new long[1024]};
+        final int[] size = {0};
+        ResultExport.readBinary(file, ResultExport.STATIC_ANALYSIS, RecordCodecs.STATIC_ANALYSIS_MESSAGE, (rootDir, message) -> {
+            // Duplicates were merged into one record, but each occurrence counts as a violation
+            final long fingerprint = fingerprint(message, rootDir);
+            for (int i = 0; i < message.occurrences; i++) {
+                if (size[0] == all[0].length) {
+                    all[0] = Arrays.copyOf(all[0], size[0] * 2);
+                }
+                all[0][size[0]++] = fingerprint;
+            }
+        });
+
+        // Sort, then collapse duplicates into counts
+        final long[] sorted = all[0];
+        Arrays.sort(sorted, 0, size[0]);
+        int distinct = 0;
+        final int[] counts = new int[size[0]];
+        for (int i = 0; i < size[0]; i++) {
+            if (distinct == 0 || sorted[distinct - 1] != sorted[i]) {
+                sorted[distinct++] = sorted[i];
+            }
+            counts[distinct - 1]++;
+        }
+        return new StaticAnalysisBaseline(Arrays.copyOf(sorted, distinct), Arrays.copyOf(counts, distinct));
+    }
+
+    /**
+     * Returns the number of violations in the baseline.
+     */
+    int size() {
+        int size = 0;
+        for (int count : counts) {
+            size += count;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the messages (found under the given root directory) that aren't in the baseline.
+     * <p>
+     * Each baseline violation accounts for at most one occurrence of a current message, so if a file gains another copy of an existing violation the
+     * extra one is new (and the message is kept with just the new occurrences).
+     */
+    StaticAnalysisMessageStore newMessages(final StaticAnalysisMessageStore messages, final Path rootDir) {
+        final int[] remaining = counts.clone();
+        final StaticAnalysisMessageStore newMessages = new StaticAnalysisMessageStore();
+        for (StaticAnalysisMessage message : messages) {
+            final int index = Arrays.binarySearch(fingerprints, fingerprint(message, rootDir));
+            int matched = 0;
+            if (index >= 0) {
+                matched = Math.min(remaining[index], message.occurrences);
+                remaining[index] -= matched;
+            }
+            if (matched < message.occurrences) {
+                newMessages.add(message.occurrences(message.occurrences - matched));
+            }
+        }
+        return newMessages;
+    }
+
+    /**
+     * Returns the line number independent fingerprint of a message found under the given root directory.
+     */
+    static long fingerprint(final StaticAnalysisMessage message, final Path rootDir) {
+        final Hasher hasher = HASH.newHasher();
+        putField(hasher, message.tool);
+        putField(hasher, relativeModule(message, rootDir));
+        putField(hasher, relativeFileName(message));
+        putField(hasher, message.rule);
+        putField(hasher, message.method);
+        putField(hasher, normalise(message.message));
+        return hasher.hash().asLong();
+    }
+
+    private static void putField(final Hasher hasher, final String value) {
+        // Separate the fields (and distinguish null from empty) so that values can't run into each other
+        if (value == null) {
+            hasher.putByte((byte) 0);
+        } else {
+            hasher.putByte((byte) 1).putString(value, Charsets.UTF_8);
+        }
+    }
+
+    /**
+     * Strips the root directory from the module, so the fingerprint doesn't depend on where the project was checked out.
+     */
+    private static String relativeModule(final StaticAnalysisMessage message, final Path rootDir) {
+        if (message.module == null) {
+            return null;
+        }
+        final Path module = Paths.get(message.module);
+        return module.isAbsolute() && module.startsWith(rootDir) ? rootDir.relativize(module).toString() : message.module;
+    }
+
+    /**
+     * Strips the module directory from the file name (the module is a field of its own).
+     */
+    private static String relativeFileName(final StaticAnalysisMessage message) {
+        if (message.fileName != null && message.module != null && message.fileName.startsWith(message.module + "/")) {
+            return message.fileName.substring(message.module.length() + 1);
+        }
+        return message.fileName;
+    }
+
+    /**
+     * Replaces each run of digits with a single '#' and collapses whitespace, since messages often embed line numbers, counts and sizes.
+     */
+    static String normalise(final String message) {
+        if (message == null) {
+            return null;
+        }
+
+        final StringBuilder normalised = new StringBuilder(message.length());
+        char previous = 0;
+        for (int i = 0; i < message.length(); i++) {
+            char ch = message.charAt(i);
+            if (Character.isDigit(ch)) {
+                ch = '#';
+            } else if (Character.isWhitespace(ch)) {
+                ch = ' ';
+            }
+            if (!((ch == '#' || ch == ' ') && ch == previous)) {
+                normalised.append(ch);
+            }
+            previous = ch;
+        }
+        return normalised.toString().trim();
+    }
+}
@@ -10,6 +10,7 @@ class StaticAnalysisMessage {
 
     final String fileName;
     final String tool;
+    String module;
 
     String method;
     int startLine;
@@ -24,6 +25,9 @@ class StaticAnalysisMessage {
 
     String infoUrl;
 
+    // Number of times the tool(s) reported this same violation
+    int occurrences = 1;
+
     StaticAnalysisMessage(final String tool, final String name) {
         this.fileName = name;
         this.tool = tool;
@@ -69,6 +73,16 @@ class StaticAnalysisMessage {
         return this;
     }
 
+    StaticAnalysisMessage module(final String module) {
+        this.module = module;
+        return this;
+    }
+
+    StaticAnalysisMessage occurrences(final int occurrences) {
+        this.occurrences = occurrences;
+        return this;
+    }
+
     StaticAnalysisMessage priority(final int priority) {
         this.priority = priority;
         return this;
@@ -0,0 +1,321 @@
+package net.ids.gitlabci.gradle;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Compact, column oriented store of static analysis messages.
+ * <p>
+ * Large builds repeat the same tool, module, file, rule, category and URL strings thousands of times over. Every string column is dictionary encoded
+ * (each distinct value is held once and rows refer to it by ID) and the numeric fields live in primitive arrays, so a row costs a few dozen bytes
+ * instead of an object graph. Rows are materialised as {@link StaticAnalysisMessage} instances on demand when rendering.
+ * <p>
+ * The same violation is often reported more than once: findbugs repeats a bug instance, and a class can be in both the main and test reports. Messages
+ * with the same tool, module, file, rule, line and column range, method and message text are merged into one row as they're added, which counts its
+ * occurrences instead. Duplicates are found through an open addressing hash index of row numbers over the key columns, so it costs an int per slot and
+ * never compares strings (they're dictionary IDs by then). Not thread safe.
+ */
+class StaticAnalysisMessageStore implements Iterable<StaticAnalysisMessage> {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // Marks an empty slot in the index (rows are stored as is)
+    private static final int EMPTY = -1;
+
+    private final StringDictionary strings = new StringDictionary();
+
+    private int size;
+
+    // String columns (as dictionary IDs)
+    private int[] tools = new int[INITIAL_CAPACITY];
+    private int[] fileNames = new int[INITIAL_CAPACITY];
+    private int[] modules = new int[INITIAL_CAPACITY];
+    private int[] methods = new int[INITIAL_CAPACITY];
+    private int[] messages = new int[INITIAL_CAPACITY];
+    private int[] rules = new int[INITIAL_CAPACITY];
+    private int[] categories = new int[INITIAL_CAPACITY];
+    private int[] infoUrls = new int[INITIAL_CAPACITY];
+
+    // Numeric columns
+    private int[] startLines = new int[INITIAL_CAPACITY];
+    private int[] endLines = new int[INITIAL_CAPACITY];
+    private int[] startCols = new int[INITIAL_CAPACITY];
+    private int[] endCols = new int[INITIAL_CAPACITY];
+    private int[] priorities = new int[INITIAL_CAPACITY];
+    private int[] occurrences = new int[INITIAL_CAPACITY];
+
+    // Index of the rows by their key columns, kept at most half full
+    private int[] index = emptyIndex(INITIAL_CAPACITY * 2);
+    private int totalOccurrences;
+
+    /**
+     * Adds a message to the store (the message itself is not retained), merging it into the existing row if the violation has already been added.
+     */
+    void add(final StaticAnalysisMessage message) {
+        if (size == tools.length) {
+            grow();
+        }
+
+        tools[size] = strings.intern(message.tool);
+        fileNames[size] = strings.intern(message.fileName);
+        modules[size] = strings.intern(message.module);
+        rules[size] = strings.intern(message.rule);
+        methods[size] = strings.intern(message.method);
+        messages[size] = strings.intern(message.message);
+        startLines[size] = message.startLine;
+        endLines[size] = message.endLine;
+        startCols[size] = message.startCol;
+        endCols[size] = message.endCol;
+        totalOccurrences += message.occurrences;
+
+        final int slot = findSlot(size);
+        if (index[slot] != EMPTY) {
+            occurrences[index[slot]] += message.occurrences;
+            return;
+        }
+
+        index[slot] = size;
+        categories[size] = strings.intern(message.category);
+        infoUrls[size] = strings.intern(message.infoUrl);
+        priorities[size] = message.priority;
+        occurrences[size] = message.occurrences;
+        size++;
+    }
+
+    /**
+     * Returns the slot in the index holding the row with the same key as the given one, or the empty slot where it belongs.
+     */
+    private int findSlot(final int row) {
+        final int mask = index.length - 1;
+        for (int slot = hash(row) & mask;; slot = (slot + 1) & mask) {
+            final int existing = index[slot];
+            if (existing == EMPTY || sameKey(existing, row)) {
+                return slot;
+            }
+        }
+    }
+
+    private int hash(final int row) {
+        int hash = tools[row];
+        hash = hash * 31 + fileNames[row];
+        hash = hash * 31 + modules[row];
+        hash = hash * 31 + rules[row];
+        hash = hash * 31 + methods[row];
+        hash = hash * 31 + startLines[row];
+        hash = hash * 31 + endLines[row];
+        hash = hash * 31 + startCols[row];
+        hash = hash * 31 + endCols[row];
+        hash = hash * 31 + messages[row];
+        // Spread the bits, as the slot is taken from the low ones
+        hash *= 0x9E3779B9;
+        return hash ^ hash >>> 16;
+    }
+
+    private boolean sameKey(final int left, final int right) {
+        return tools[left] == tools[right] && fileNames[left] == fileNames[right] && modules[left] == modules[right] && rules[left] == rules[right]
+                && methods[left] == methods[right]
+                && startLines[left] == startLines[right] && endLines[left] == endLines[right] && startCols[left] == startCols[right]
+                && endCols[left] == endCols[right] && messages[left] == messages[right];
+    }
+
+    private static int[] emptyIndex(final int slots) {
+        final int[] index = new int[slots];
+        Arrays.fill(index, EMPTY);
+        return index;
+    }
+
+    private void rebuildIndex(final int slots) {
+        index = emptyIndex(slots);
+        for (int row = 0; row < size; row++) {
+            index[findSlot(row)] = row;
+        }
+    }
+
+    /**
+     * Adds all of the messages to the store.
+     */
+    void addAll(final Collection<StaticAnalysisMessage> newMessages) {
+        newMessages.forEach(this::add);
+    }
+
+    /**
+     * Returns the number of distinct violations (rows).
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of violations added, counting duplicates.
+     */
+    int totalOccurrences() {
+        return totalOccurrences;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    String tool(final int row) {
+        return strings.get(tools[row]);
+    }
+
+    String module(final int row) {
+        return strings.get(modules[row]);
+    }
+
+    String fileName(final int row) {
+        return strings.get(fileNames[row]);
+    }
+
+    /**
+     * Orders the messages by file, line, tool and rule (keeping the order they were added otherwise), sorting in parallel on the pool (or on the calling
+     * thread if it is null).
+     * <p>
+     * The rows are put in order one field at a time, least significant first, each with a sort of primitive longs holding the row's value for that field
+     * (its string's rank, or the line) above its position after the previous field's sort. So each sort is stable, the sorts never compare strings or
+     * box anything, and the columns are then permuted into the final order.
+     */
+    void sort(final ForkJoinPool pool) {
+        final int[] ranks = strings.ranks(pool);
+        int[] rows = new int[size];
+        for (int row = 0; row < size; row++) {
+            rows[row] = row;
+        }
+        // Null strings first, and lines offset so negative ones still order correctly
+        rows = sortBy(rows, row -> rank(ranks, rules[row]), pool);
+        rows = sortBy(rows, row -> rank(ranks, tools[row]), pool);
+        rows = sortBy(rows, row -> (long) startLines[row] - Integer.MIN_VALUE, pool);
+        rows = sortBy(rows, row -> rank(ranks, fileNames[row]), pool);
+
+        tools = permute(tools, rows);
+        fileNames = permute(fileNames, rows);
+        modules = permute(modules, rows);
+        methods = permute(methods, rows);
+        messages = permute(messages, rows);
+        rules = permute(rules, rows);
+        categories = permute(categories, rows);
+        infoUrls = permute(infoUrls, rows);
+        startLines = permute(startLines, rows);
+        endLines = permute(endLines, rows);
+        startCols = permute(startCols, rows);
+        endCols = permute(endCols, rows);
+        priorities = permute(priorities, rows);
+        occurrences = permute(occurrences, rows);
+        rebuildIndex(index.length);
+    }
+
+    // Ranks start at 0, so null (which has no rank) becomes 0 and everything else moves up one
+    /**
+     * Returns the rows stably ordered by the (non-negative, at most 32 bit) key of each.
+     */
+    private static int[] sortBy(final int[] rows, final IntToLongFunction keyOf, final ForkJoinPool pool) {
+        final long[] keyed = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            // Positions take 31 bits, leaving 32 for the key
+            keyed[i] = keyOf.applyAsLong(rows[i]) << 31 | i;
+        }
+        if (pool == null) {
+            Arrays.sort(keyed);
+        } else {
+            // The sort forks into the pool it runs in, rather than the common pool
+            pool.submit(() -> Arrays.parallelSort(keyed)).join();
+        }
+
+        final int[] sorted = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            sorted[i] = rows[(int) (keyed[i] & Integer.MAX_VALUE)];
+        }
+        return sorted;
+    }
+
+    private static int rank(final int[] ranks, final int id) {
+        return id == StringDictionary.NULL_ID ? 0 : ranks[id] + 1;
+    }
+
+    private static int[] permute(final int[] column, final int[] rows) {
+        final int[] permuted = new int[column.length];
+        for (int i = 0; i < rows.length; i++) {
+            permuted[i] = column[rows[i]];
+        }
+        return permuted;
+    }
+
+    /**
+     * Materialises the message at the given row.
+     * <p>
+     * The strings are shared with the store, so this only costs the message object itself.
+     */
+    StaticAnalysisMessage get(final int row) {
+        return new StaticAnalysisMessage(strings.get(tools[row]), strings.get(fileNames[row]))
+                .module(strings.get(modules[row]))
+                .method(strings.get(methods[row]))
+                .message(strings.get(messages[row]))
+                .rule(strings.get(rules[row]))
+                .category(strings.get(categories[row]))
+                .infoUrl(strings.get(infoUrls[row]))
+                .lineAndColumnRange(startLines[row], endLines[row], startCols[row], endCols[row])
+                .priority(priorities[row])
+                .occurrences(occurrences[row]);
+    }
+
+    /**
+     * Iterates over all of the messages in the order they were added (or sorted into).
+     */
+    @Override
+    public Iterator<StaticAnalysisMessage> iterator() {
+        return view(null, size).iterator();
+    }
+
+    /**
+     * Returns a view of the given rows, materialising each message as it is reached.
+     */
+    Iterable<StaticAnalysisMessage> rows(final int[] rows) {
+        return view(rows, rows.length);
+    }
+
+    // Null rows means all rows in the order they were added
+    private Iterable<StaticAnalysisMessage> view(final int[] rows, final int count) {
+        return () -> new Iterator<StaticAnalysisMessage>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public StaticAnalysisMessage next() {
+                if (next >= count) {
+                    throw new NoSuchElementException();
+                }
+                final int row = rows == null ? next : rows[next];
+                next++;
+                return get(row);
+            }
+        };
+    }
+
+    private void grow() {
+        final int capacity = tools.length * 2;
+        tools = Arrays.copyOf(tools, capacity);
+        fileNames = Arrays.copyOf(fileNames, capacity);
+        modules = Arrays.copyOf(modules, capacity);
+        methods = Arrays.copyOf(methods, capacity);
+        messages = Arrays.copyOf(messages, capacity);
+        rules = Arrays.copyOf(rules, capacity);
+        categories = Arrays.copyOf(categories, capacity);
+        infoUrls = Arrays.copyOf(infoUrls, capacity);
+        startLines = Arrays.copyOf(startLines, capacity);
+        endLines = Arrays.copyOf(endLines, capacity);
+        startCols = Arrays.copyOf(startCols, capacity);
+        endCols = Arrays.copyOf(endCols, capacity);
+        priorities = Arrays.copyOf(priorities, capacity);
+        occurrences = Arrays.copyOf(occurrences, capacity);
+        rebuildIndex(capacity * 2);
+    }
+}
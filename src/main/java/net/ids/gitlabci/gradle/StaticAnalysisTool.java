@@ -1,70 +1,78 @@
 package net.ids.gitlabci.gradle;
 
-import static org.joox.JOOX.$;
-
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
-import org.joox.JOOX;
-import org.joox.Match;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.SAXException;
 
 import com.github.jknack.handlebars.Template;
 import com.google.common.base.Charsets;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
 
+import net.ids.util.CompressedFiles;
 import net.ids.util.HandlebarsUtil;
+import net.ids.util.HandlebarsUtil.StreamingTemplate;
+import net.ids.util.MappedXmlScanner;
 
 /**
  * Scans the nominated root directory looking for output from static analysis tools and merges them into a single HTML report.
  * <p>
- * Currently supports checkstyle, findbugs and PMD.
+ * Currently supports checkstyle, findbugs (and spotbugs) and PMD, with further formats pluggable as {@link ReportAnalyzer}s.
  */
 public class StaticAnalysisTool {
 
     private static final Logger LOG = LoggerFactory.getLogger(StaticAnalysisTool.class);
 
-    private static final Template OUTPUT_TEMPLATE = HandlebarsUtil.compile(StaticAnalysisTool.class.getResourceAsStream("static-analysis-output.hbs"));
+    private static final StreamingTemplate OUTPUT_TEMPLATE = HandlebarsUtil.compileStreaming(StaticAnalysisTool.class.getResourceAsStream("static-analysis-output.hbs"));
+    private static final Template INDEX_TEMPLATE = HandlebarsUtil.compile(StaticAnalysisTool.class.getResourceAsStream("static-analysis-index.hbs"));
+
+    /**
+     * Returns a parser that parses the output from the static analysis (with the analyzer found for each file) into a simple Java class for later
+     * merging / rendering.
+     */
+    private static BiConsumer<Path, List<StaticAnalysisMessage>> parser(final Map<Path, ReportAnalyzer<StaticAnalysisMessage>> reports) {
+        return (path, messages) -> {
+            try {
+                final int firstMessage = messages.size();
+                reports.get(path).parse(path, messages);
+
+                // Record which module the messages came from, unless the analyzer has (the built-in ones do, as an archive's reports are in the
+                // modules of its entries rather than the module of the archive)
+                final String module = moduleOf(path);
+                for (StaticAnalysisMessage message : messages.subList(firstMessage, messages.size())) {
+                    if (message.module == null) {
+                        message.module(module);
+                    }
+                }
+            } catch (IOException e) {
+                Throwables.propagate(e);
+            }
+        };
+    }
 
     /**
-     * Parses the output from the static analysis into a simple Java class for later merging / rendering.
+     * Returns the module (the directory containing the build directory) that the report file belongs to.
      */
-    private static void parse(final Path path, final List<StaticAnalysisMessage> messages) {
-        try {
-            // Parse the analysis tool output
-            Match parsed = $(path.toFile());
-
-            // Process based on the type of static analysis
-            final String type = path.getName(path.getNameCount() - 2).toString();
-            switch (type) {
-                case "checkstyle":
-                    parseCheckstyle(parsed, messages);
-                    break;
-
-                case "findbugs":
-                    parseFindbugs(parsed, messages);
-                    break;
-
-                case "pmd":
-                    parsePMD(parsed, messages);
-                    break;
-
-                default:
-                    LOG.warn("Unknown static analysis type {} for file {}", type, path);
+    private static String moduleOf(final Path path) {
+        for (Path dir = path.getParent(); dir != null; dir = dir.getParent()) {
+            final Path name = dir.getFileName();
+            if (name != null && "build".equals(name.toString()) && dir.getParent() != null) {
+                return dir.getParent().toString();
             }
-        } catch (SAXException | IOException e) {
-            Throwables.propagate(e);
         }
+        return path.getParent().toString();
     }
 
     /**
@@ -72,16 +80,25 @@ public class StaticAnalysisTool {
      * <p>
      * Its a fairly straightforward format with each error instance located under /checkstyle/file/error.
      */
-    private static void parseCheckstyle(final Match checkstyleOutput, final List<StaticAnalysisMessage> messages) {
-        checkstyleOutput.xpath("//checkstyle/file").map(JOOX::$).forEach(file -> {
-            final String fileName = file.attr("name");
-
-            file.find("error").map(JOOX::$).forEach(error -> {
-                final int lineNumber = Integer.parseInt(error.attr("line"));
-                final String messageText = error.attr("message");
-                final String severityText = error.attr("severity");
-                final String source = "config_" + error.attr("source").replace("com.puppycrawl.tools.checkstyle.checks.", "").replace("Check", "").replace(".", ".html#");
-                final String infoUrl = "http://checkstyle.sourceforge.net/" + source;
+    static void parseCheckstyle(final MappedXmlScanner scanner, final List<StaticAnalysisMessage> messages) {
+        // The same few checks account for most errors, so only build each info URL once
+        final Map<String, String> infoUrls = Maps.newHashMap();
+
+        String fileName = null;
+        for (int event = scanner.next(); event != MappedXmlScanner.END_DOCUMENT; event = scanner.next()) {
+            if (event != MappedXmlScanner.START_ELEMENT) {
+                continue;
+            }
+
+            if (scanner.depth() == 2 && scanner.isNamed("file")) {
+                fileName = scanner.attribute("name");
+            } else if (scanner.depth() > 2 && fileName != null && scanner.isNamed("error")) {
+                final int lineNumber = scanner.intAttribute("line");
+                final String messageText = scanner.attribute("message");
+                final String severityText = scanner.attribute("severity");
+                final String rule = scanner.attribute("source");
+                final String infoUrl = infoUrls.computeIfAbsent(rule, source ->
+                        "http://checkstyle.sourceforge.net/config_" + source.replace("com.puppycrawl.tools.checkstyle.checks.", "").replace("Check", "").replace(".", ".html#"));
                 final int priority;
                 switch (severityText) {
                     case "error":
@@ -96,7 +113,6 @@ public class StaticAnalysisTool {
                     default:
                         throw new IllegalStateException("Unknown checkstyle severity text: " + severityText);
                 }
-                final String rule = error.attr("source");
 
                 final StaticAnalysisMessage message = new StaticAnalysisMessage("checkstyle", fileName)
                         .line(lineNumber)
@@ -106,77 +122,106 @@ public class StaticAnalysisTool {
                         .category("style")
                         .infoUrl(infoUrl);
                 messages.add(message);
-            });
-        });
+            }
+        }
     }
 
     /**
      * Parses a Findbugs XML output file.
      * <p>
      * The format is a little more complex, with each instance of a bug under /BugCollection/BugInstance.
-     * The same error, in the same class will be present as two separate /BugCollection/BugInstance elements.
+     * The same error, in the same class will be present as two separate /BugCollection/BugInstance elements (the message store merges them).
      * Each BugInstance can have Class, Class/SourceLine, Method, Method/SourceLine, SourceLine elements.
-     * The SourceLine range narrows as you proceed down the hierarchy.
+     * The SourceLine range narrows as you proceed down the hierarchy (only the first of each element counts).
      */
-    private static void parseFindbugs(final Match findbugsOutput, final List<StaticAnalysisMessage> messages) {
-        findbugsOutput.xpath("//BugCollection/BugInstance").map(JOOX::$).forEach(bug -> {
-            // Grab information from the BugInstance element
-            final int priority = Integer.parseInt(bug.attr("priority"));
-            final String rule = bug.attr("type");
-            final String infoUrl = "http://findbugs.sourceforge.net/bugDescriptions.html#" + rule;
-            final String category = bug.attr("category").toLowerCase().replace('_', ' ');
-
-            // Collect information from the Class child element (we default the line range to that for the class and narrow it as we find lines below)
-            final Match classMatch = bug.child("Class");
-            final String fileName = classMatch.attr("classname");
-            final Match classSourceLineMatch = classMatch.child("SourceLine");
-            int startLine = Integer.parseInt(classSourceLineMatch.attr("start"));
-            int endLine = Integer.parseInt(classSourceLineMatch.attr("end"));
-
-            // Prepare a message for the class
-            final StaticAnalysisMessage message = new StaticAnalysisMessage("findbugs", fileName)
-                    .lineRange(startLine, endLine)
-                    .priority(priority)
-                    .rule(rule)
-                    .category(category)
-                    .infoUrl(infoUrl);
-
-            // A BugInstance can have a Method child element
-            final Match methodMatch = bug.child("Method");
-            if (methodMatch.isNotEmpty()) {
-                message.method(methodMatch.attr("name"));
-
-                // A Method element can have a SourceLine child too
-                final Match sourceLineMatch = methodMatch.child("SourceLine");
-                if (sourceLineMatch.isNotEmpty()) {
-                    message.lineRange(Integer.parseInt(sourceLineMatch.attr("start")), Integer.parseInt(sourceLineMatch.attr("end")));
+    static void parseFindbugs(final MappedXmlScanner scanner, final List<StaticAnalysisMessage> messages) {
+        // The BugInstance being read (its rule is null outside of one)
+        String rule = null;
+        int priority = 0;
+        String category = null;
+        String className = null;
+        String methodName = null;
+        int[] classLines = null;
+        int[] methodLines = null;
+        int[] bugLines = null;
+        String parent = null;
+
+        for (int event = scanner.next(); event != MappedXmlScanner.END_DOCUMENT; event = scanner.next()) {
+            final int depth = scanner.depth();
+            if (event == MappedXmlScanner.START_ELEMENT && depth == 2 && scanner.isNamed("BugInstance")) {
+                // Grab information from the BugInstance element
+                priority = scanner.intAttribute("priority");
+                rule = scanner.attribute("type");
+                category = scanner.attribute("category").toLowerCase().replace('_', ' ');
+                className = null;
+                methodName = null;
+                classLines = null;
+                methodLines = null;
+                bugLines = null;
+            } else if (event == MappedXmlScanner.START_ELEMENT && depth == 3 && rule != null) {
+                // Direct children of the BugInstance (only the first of each counts)
+                parent = null;
+                if (scanner.isNamed("Class") && className == null) {
+                    className = scanner.attribute("classname");
+                    parent = "Class";
+                } else if (scanner.isNamed("Method") && methodName == null) {
+                    methodName = scanner.attribute("name");
+                    parent = "Method";
+                } else if (scanner.isNamed("SourceLine") && bugLines == null) {
+                    bugLines = lines(scanner);
+                }
+            } else if (event == MappedXmlScanner.START_ELEMENT && depth == 4 && parent != null && scanner.isNamed("SourceLine")) {
+                if ("Class".equals(parent) && classLines == null) {
+                    classLines = lines(scanner);
+                } else if ("Method".equals(parent) && methodLines == null) {
+                    methodLines = lines(scanner);
+                }
+            } else if (event == MappedXmlScanner.END_ELEMENT && depth == 2 && rule != null) {
+                if (classLines == null) {
+                    throw new IllegalStateException("Missing Class/SourceLine for " + rule + " in " + className);
                 }
-            }
 
-            // A BugInstance can also have a direct SourceLine element
-            final Match sourceLineMatch = bug.child("SourceLine");
-            if (sourceLineMatch.isNotEmpty()) {
-                message.lineRange(Integer.parseInt(sourceLineMatch.attr("start")), Integer.parseInt(sourceLineMatch.attr("end")));
+                // We default the line range to that for the class and narrow it to the method's, then the bug's own
+                final int[] lines = bugLines != null ? bugLines : methodLines != null ? methodLines : classLines;
+                final StaticAnalysisMessage message = new StaticAnalysisMessage("findbugs", className)
+                        .lineRange(lines[0], lines[1])
+                        .method(methodName)
+                        .priority(priority)
+                        .rule(rule)
+                        .category(category)
+                        .infoUrl("http://findbugs.sourceforge.net/bugDescriptions.html#" + rule);
+                messages.add(message);
+                rule = null;
             }
+        }
+    }
 
-            messages.add(message);
-        });
+    private static int[] lines(final MappedXmlScanner scanner) {
+        return new int[] {scanner.intAttribute("start"), scanner.intAttribute("end")};
     }
 
-    private static void parsePMD(final Match pmdOutput, final List<StaticAnalysisMessage> messages) {
-        pmdOutput.xpath("//pmd/file").map(JOOX::$).forEach(file -> {
-            final String fileName = file.attr("name");
+    static void parsePMD(final MappedXmlScanner scanner, final List<StaticAnalysisMessage> messages) {
+        // The info URL only depends on the rule, so it's decoded once per rule rather than for every violation
+        final Map<String, String> infoUrls = Maps.newHashMap();
+
+        String fileName = null;
+        for (int event = scanner.next(); event != MappedXmlScanner.END_DOCUMENT; event = scanner.next()) {
+            if (event != MappedXmlScanner.START_ELEMENT) {
+                continue;
+            }
 
-            file.find("violation").map(JOOX::$).forEach(violation -> {
-                final int beginLine = Integer.parseInt(violation.attr("beginline"));
-                final int endLine = Integer.parseInt(violation.attr("endline"));
-                final int beginCol = Integer.parseInt(violation.attr("begincolumn"));
-                final int endCol = Integer.parseInt(violation.attr("endcolumn"));
-                final String rule = violation.attr("rule");
-                final String category = violation.attr("ruleset").toLowerCase();
-                final String method = violation.attr("method");
-                final String infoUrl = violation.attr("externalInfoUrl");
-                final int priority = Integer.parseInt(violation.attr("priority"));
+            if (scanner.depth() == 2 && scanner.isNamed("file")) {
+                fileName = scanner.attribute("name");
+            } else if (scanner.depth() > 2 && fileName != null && scanner.isNamed("violation")) {
+                final int beginLine = scanner.intAttribute("beginline");
+                final int endLine = scanner.intAttribute("endline");
+                final int beginCol = scanner.intAttribute("begincolumn");
+                final int endCol = scanner.intAttribute("endcolumn");
+                final String rule = scanner.attribute("rule");
+                final String category = scanner.attribute("ruleset").toLowerCase();
+                final String method = scanner.attribute("method");
+                final String infoUrl = infoUrls.computeIfAbsent(rule, ignored -> scanner.attribute("externalInfoUrl"));
+                final int priority = scanner.intAttribute("priority");
 
                 final StaticAnalysisMessage message = new StaticAnalysisMessage("pmd", fileName)
                         .lineAndColumnRange(beginLine, endLine, beginCol, endCol)
@@ -186,38 +231,308 @@ public class StaticAnalysisTool {
                         .category(category)
                         .infoUrl(infoUrl);
                 messages.add(message);
+            }
+        }
+    }
+
+    private static void write(final Path outputFile, final Iterable<StaticAnalysisMessage> messages) throws IOException {
+        final Map<String, Object> model = Maps.newHashMap();
+        try (OutputStreamWriter writer = new OutputStreamWriter(CompressedFiles.newOutputStream(outputFile), Charsets.UTF_8)) {
+            HandlebarsUtil.render(OUTPUT_TEMPLATE, ReportValueResolver.INSTANCE, model, messages, writer);
+        }
+    }
+
+    /**
+     * Writes a separate page for each module / tool / file combination, plus a small index page (the output file) that loads them on demand.
+     * <p>
+     * This keeps each page small enough for the browser to sort comfortably, however many violations there are in total. The pages are never compressed
+     * (even if the index is), as they're loaded into a frame straight from the file, which only works for a gzipped page if it's served with a
+     * {@code Content-Encoding} header.
+     */
+    private static void writePages(final AnalysisOptions options, final StaticAnalysisMessageStore messages) throws IOException {
+        final Path root = Paths.get(options.rootDir).toAbsolutePath().normalize();
+        final Path outputFile = Paths.get(options.outputFile).toAbsolutePath();
+        final Path pagesDir = outputFile.resolveSibling(CompressedFiles.baseName(outputFile) + "-pages");
+        Files.createDirectories(pagesDir);
+
+        // Work out the shard for each row, by module, tool then file (sorted so the page names are stable between runs)
+        final Map<String, String> moduleNames = Maps.newHashMap();
+        final Map<String, String> fileNames = Maps.newHashMap();
+        final Map<List<String>, Shard> shards = Maps.newTreeMap(Ordering.<String>natural().nullsFirst().lexicographical());
+        final Shard[] rowShards = new Shard[messages.size()];
+        for (int row = 0; row < messages.size(); row++) {
+            final String module = moduleNames.computeIfAbsent(messages.module(row), name -> {
+                final String relative = name == null ? "" : root.relativize(Paths.get(name)).toString();
+                return relative.isEmpty() ? "." : relative;
             });
-        });
+            final String file = fileNames.computeIfAbsent(messages.fileName(row), name -> relativeName(root, name));
+            rowShards[row] = shards.computeIfAbsent(Arrays.asList(module, messages.tool(row), file), key -> new Shard());
+            rowShards[row].count++;
+        }
+
+        // Then collect the rows for each shard
+        for (Shard shard : shards.values()) {
+            shard.rows = new int[shard.count];
+            shard.count = 0;
+        }
+        for (int row = 0; row < rowShards.length; row++) {
+            final Shard shard = rowShards[row];
+            shard.rows[shard.count++] = row;
+        }
+
+        final List<Map<String, Object>> index = Lists.newArrayListWithCapacity(shards.size());
+        for (Map.Entry<List<String>, Shard> shard : shards.entrySet()) {
+            final String pageName = "page-" + index.size() + ".html";
+            write(pagesDir.resolve(pageName), messages.rows(shard.getValue().rows));
+
+            final Map<String, Object> entry = Maps.newHashMap();
+            entry.put("module", shard.getKey().get(0));
+            entry.put("tool", shard.getKey().get(1));
+            entry.put("file", shard.getKey().get(2));
+            entry.put("count", shard.getValue().count);
+            entry.put("href", pagesDir.getFileName() + "/" + pageName);
+            index.add(entry);
+        }
+
+        final Map<String, Object> model = Maps.newHashMap();
+        model.put("shards", index);
+        model.put("total", messages.size());
+        try (OutputStreamWriter writer = new OutputStreamWriter(CompressedFiles.newOutputStream(outputFile), Charsets.UTF_8)) {
+            HandlebarsUtil.render(INDEX_TEMPLATE, model, writer);
+        }
+    }
+
+    /**
+     * Returns the file name relative to the root directory if it's under it (class names and the like are returned as they are).
+     */
+    private static String relativeName(final Path root, final String name) {
+        if (name == null) {
+            return "";
+        }
+        final Path path = Paths.get(name);
+        return path.isAbsolute() && path.startsWith(root) ? root.relativize(path).toString() : name;
+    }
+
+    /**
+     * The rows making up one page of a paged report.
+     */
+    private static final class Shard {
+        int count;
+        int[] rows;
+    }
+
+    /**
+     * Base of the built-in analyzers, which find the XML reports where Gradle's plugins write them and scan them in place (rather than reading them
+     * into a DOM).
+     */
+    abstract static class XmlAnalyzer implements ReportAnalyzer<StaticAnalysisMessage> {
+
+        private final String name;
+        private final String pathGlob;
+        private final String rootElement;
+
+        XmlAnalyzer(final String name, final String pathGlob, final String rootElement) {
+            this.name = name;
+            this.pathGlob = pathGlob;
+            this.rootElement = rootElement;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public String report() {
+            return ResultExport.STATIC_ANALYSIS;
+        }
+
+        @Override
+        public String reportDirectory() {
+            return "reports";
+        }
+
+        @Override
+        public String pathGlob() {
+            return pathGlob;
+        }
+
+        @Override
+        public boolean acceptsRoot(final String root) {
+            return rootElement.equals(root);
+        }
+
+        @Override
+        public void parse(final Path path, final List<StaticAnalysisMessage> results) throws IOException {
+            final int firstMessage = results.size();
+            try {
+                parse(MappedXmlScanner.open(path), results);
+            } catch (IllegalStateException | NumberFormatException e) {
+                throw malformed(path, e);
+            }
+            setModule(path, results.subList(firstMessage, results.size()));
+        }
+
+        @Override
+        public void parse(final Path path, final ByteBuffer contents, final List<StaticAnalysisMessage> results) {
+            final int firstMessage = results.size();
+            try {
+                parse(new MappedXmlScanner(contents), results);
+            } catch (IllegalStateException | NumberFormatException e) {
+                throw malformed(path, e);
+            }
+            setModule(path, results.subList(firstMessage, results.size()));
+        }
+
+        abstract void parse(MappedXmlScanner scanner, List<StaticAnalysisMessage> messages);
+
+        private static void setModule(final Path path, final List<StaticAnalysisMessage> messages) {
+            final String module = moduleOf(path);
+            for (StaticAnalysisMessage message : messages) {
+                message.module(module);
+            }
+        }
+
+        // The scanner and parsers don't know which file they're reading
+        private static IllegalStateException malformed(final Path path, final RuntimeException e) {
+            return new IllegalStateException("Malformed " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Checkstyle's XML report.
+     */
+    public static final class CheckstyleAnalyzer extends XmlAnalyzer {
+        public CheckstyleAnalyzer() {
+            super("checkstyle", "**/build/reports/checkstyle/*.xml", "checkstyle");
+        }
+
+        @Override
+        void parse(final MappedXmlScanner scanner, final List<StaticAnalysisMessage> messages) {
+            parseCheckstyle(scanner, messages);
+        }
     }
 
-    private static boolean run(final String rootDir, final String outputFile) throws IOException {
-        final List<StaticAnalysisMessage> messages = Lists.newArrayList();
+    /**
+     * Findbugs' XML report (spotbugs writes the same format).
+     */
+    public static final class FindbugsAnalyzer extends XmlAnalyzer {
+        public FindbugsAnalyzer() {
+            super("findbugs", "**/build/reports/{findbugs,spotbugs}/*.xml", "BugCollection");
+        }
+
+        @Override
+        void parse(final MappedXmlScanner scanner, final List<StaticAnalysisMessage> messages) {
+            parseFindbugs(scanner, messages);
+        }
+    }
+
+    /**
+     * PMD's XML report.
+     */
+    public static final class PmdAnalyzer extends XmlAnalyzer {
+        public PmdAnalyzer() {
+            super("pmd", "**/build/reports/pmd/*.xml", "pmd");
+        }
+
+        @Override
+        void parse(final MappedXmlScanner scanner, final List<StaticAnalysisMessage> messages) {
+            parsePMD(scanner, messages);
+        }
+    }
+
+    /**
+     * Runs the analysis described by the options, returning false if it found problems.
+     * <p>
+     * All state is local to the call, so concurrent runs (e.g. from the {@link AnalysisServer}) don't interfere with each other.
+     */
+    static boolean run(final AnalysisOptions options) throws IOException {
+        if (options.pool == null) {
+            return ReportIngester.withPool(options, StaticAnalysisTool::run);
+        }
+
+        if (options.watch) {
+            return ReportWatcher.watch(options, ReportAnalyzers.forReport(ResultExport.STATIC_ANALYSIS), (watchOptions, reports) -> run(watchOptions,
+                    new RunMetrics("static-analysis", watchOptions.slowestFiles), ReportAnalyzers.forReport(reports, ResultExport.STATIC_ANALYSIS)));
+        }
+
+        final RunMetrics metrics = new RunMetrics("static-analysis", options.slowestFiles);
 
         // Find all relevant static analysis output
-        Files.walk(Paths.get(rootDir))
-                .forEach(path -> {
-                    final String fileName = path.getFileName().toString();
-
-                    // Ignore if not a file or not in the expected subdirectory or not the expected name
-                    final String pathAsString = path.toString();
-                    if (Files.isRegularFile(path) && pathAsString.contains("/build/") && pathAsString.contains("/reports/") && ("main.xml".equals(fileName) || "test.xml".equals(fileName))) {
-                        LOG.info("Processing file {}", path);
-                        parse(path, messages);
-                    }
-                });
+        final RunMetrics.Timer discovery = metrics.start("discovery");
+        final Map<Path, ReportAnalyzer<StaticAnalysisMessage>> reports = ReportAnalyzers.discover(options.rootDir,
+                ReportAnalyzers.<StaticAnalysisMessage>forReport(ResultExport.STATIC_ANALYSIS), options.pool);
+        discovery.stop();
+
+        return run(options, metrics, reports);
+    }
+
+    /**
+     * Runs the analysis over report files that have already been found (each with its analyzer), returning false if it found problems.
+     */
+    static boolean run(final AnalysisOptions options, final RunMetrics metrics, final Map<Path, ReportAnalyzer<StaticAnalysisMessage>> reports) throws IOException {
+        // Parse them in parallel (via the cache if there is one)
+        final ParseCache<StaticAnalysisMessage> cache = options.cacheDir == null ? null : new ParseCache<>(Paths.get(options.cacheDir, "static-analysis"), options.cacheMaxBytes, RecordCodecs.STATIC_ANALYSIS_MESSAGE);
+        final BiConsumer<Path, List<StaticAnalysisMessage>> parser = cache == null ? parser(reports) : cache.wrap(parser(reports));
+        final StaticAnalysisMessageStore allMessages = new StaticAnalysisMessageStore();
+        final RunMetrics.Timer parse = metrics.start("parse");
+        ReportIngester.ingest(Lists.newArrayList(reports.keySet()), metrics.timeFiles(path -> reports.get(path).name(), parser), options.pool, allMessages::addAll);
+        if (cache != null) {
+            cache.evict();
+        }
+        parse.stop();
+        if (allMessages.totalOccurrences() > allMessages.size()) {
+            LOG.info("Merged {} static analysis errors into {} distinct errors.", allMessages.totalOccurrences(), allMessages.size());
+        }
+
+        // Order by file and line, so the exports and report are stable from run to run
+        final RunMetrics.Timer sort = metrics.start("sort");
+        allMessages.sort(options.pool);
+        sort.stop();
+
+        // Machine readable exports are written even when there's nothing to report
+        final RunMetrics.Timer write = metrics.start("write");
+        if (options.jsonLinesFile != null) {
+            ResultExport.writeJsonLines(options.jsonLinesFile, allMessages, ResultExport.STATIC_ANALYSIS_JSON);
+        }
+        if (options.binaryFile != null) {
+            ResultExport.writeBinary(options.binaryFile, ResultExport.STATIC_ANALYSIS, options.rootDir, RecordCodecs.STATIC_ANALYSIS_MESSAGE, allMessages.size(), allMessages);
+        }
+
+        write.stop();
+
+        // With a baseline only the violations that weren't there last time count (the exports above are complete, so they can serve as the next baseline)
+        final StaticAnalysisMessageStore messages;
+        if (options.baselineFile != null) {
+            final StaticAnalysisBaseline baseline = StaticAnalysisBaseline.load(options.baselineFile);
+            final RunMetrics.Timer diff = metrics.start("baseline");
+            messages = baseline.newMessages(allMessages, Paths.get(options.rootDir).toAbsolutePath().normalize());
+            diff.stop();
+            LOG.info("{} of {} static analysis errors are not in the baseline of {}.", messages.totalOccurrences(), allMessages.totalOccurrences(), baseline.size());
+        } else {
+            messages = allMessages;
+        }
 
         if (messages.isEmpty()) {
             LOG.info("No static analysis errors found.");
+            if (options.metrics) {
+                metrics.write(options.outputFile);
+            }
             return true;
         } else {
-            LOG.error("Static analysis reported {} errors.", messages.size());
-
-            // Render the output file
-            final Map<String, Object> model = Maps.newHashMap();
-            model.put("messages", messages);
-            try (OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(outputFile), Charsets.UTF_8)) {
-                HandlebarsUtil.render(OUTPUT_TEMPLATE, model, writer);
-                LOG.info("Wrote report to {}", outputFile);
+            LOG.error("Static analysis reported {} errors ({} distinct).", messages.totalOccurrences(), messages.size());
+
+            // Render the output file(s)
+            final RunMetrics.Timer render = metrics.start("render");
+            if (options.paged) {
+                writePages(options, messages);
+            } else {
+                write(Paths.get(options.outputFile), messages);
+            }
+            LOG.info("Wrote report to {}", options.outputFile);
+            render.stop();
+            if (options.metrics) {
+                metrics.write(options.outputFile);
             }
 
             // Not OK
@@ -229,12 +544,13 @@ public class StaticAnalysisTool {
      * Command-line entry point to the static analysis scanner.
      */
     public static void main(String[] args) throws IOException {
-        if (args.length != 2) {
-            System.err.println("USAGE: StaticAnalysisTool <root-dir> <output-file>");
+        final AnalysisOptions options = AnalysisOptions.parse(args);
+        if (options == null) {
+            System.err.println(AnalysisOptions.usage("StaticAnalysisTool"));
             System.exit(1);
         }
 
-        if (!run(args[0], args[1])) {
+        if (!run(options)) {
             System.exit(1);
         }
     }
@@ -0,0 +1,113 @@
+package net.ids.gitlabci.gradle;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Maps strings to dense integer IDs (and back), holding each distinct string once.
+ * <p>
+ * An open addressing hash table of IDs keeps the overhead to a few bytes per distinct string, with no boxing or entry objects. Not thread safe.
+ */
+class StringDictionary {
+
+    /**
+     * The ID used for null.
+     */
+    static final int NULL_ID = -1;
+
+    private static final int EMPTY = -1;
+
+    private String[] values = new String[64];
+    private int[] slots = newSlots(128);
+    private int size;
+
+    /**
+     * Returns the ID for the string, adding it if this is the first time it has been seen.
+     */
+    int intern(final String value) {
+        if (value == null) {
+            return NULL_ID;
+        }
+
+        final int mask = slots.length - 1;
+        int slot = mix(value.hashCode()) & mask;
+        while (slots[slot] != EMPTY) {
+            final int id = slots[slot];
+            if (values[id].equals(value)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // New value, keep the table at most half full
+        final int id = size++;
+        if (id == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[id] = value;
+        slots[slot] = id;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Returns the string with the given ID.
+     */
+    String get(final int id) {
+        return id == NULL_ID ? null : values[id];
+    }
+
+    /**
+     * Returns the number of distinct strings.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the rank of each ID when the strings are in their natural order (so comparing ranks compares the strings), sorting in parallel on the pool
+     * (or on the calling thread if it is null).
+     */
+    int[] ranks(final ForkJoinPool pool) {
+        // The strings themselves are sorted (they're distinct, so need no tie break), and each one's ID found again through the table
+        final String[] sorted = Arrays.copyOf(values, size);
+        if (pool == null) {
+            Arrays.sort(sorted);
+        } else {
+            // The sort forks into the pool it runs in, rather than the common pool
+            pool.submit(() -> Arrays.parallelSort(sorted)).join();
+        }
+
+        final int[] ranks = new int[size];
+        for (int rank = 0; rank < size; rank++) {
+            ranks[intern(sorted[rank])] = rank;
+        }
+        return ranks;
+    }
+
+    private void rehash() {
+        slots = newSlots(slots.length * 2);
+        final int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(values[id].hashCode()) & mask;
+            while (slots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id;
+        }
+    }
+
+    private static int[] newSlots(final int capacity) {
+        final int[] newSlots = new int[capacity];
+        Arrays.fill(newSlots, EMPTY);
+        return newSlots;
+    }
+
+    // Spreads the hash bits, string hashes of similar values cluster badly under linear probing
+    private static int mix(final int hash) {
+        final int spread = hash * 0x9E3779B9;
+        return spread ^ (spread >>> 16);
+    }
+}
@@ -0,0 +1,281 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Local, append-only history of suite and test durations, used to spot tests that are getting slower.
+ * <p>
+ * Each run appends a run marker and then one record per suite and test case to the end of the file. When the log holds more than twice the samples we'd
+ * keep, it is compacted: rewritten with only the last {@link #MAX_SAMPLES} samples of each suite / test. Suites and tests that haven't been seen for
+ * {@link #MAX_IDLE_RUNS} runs are dropped then (so deleted tests drop out), but not merely for being missing from this run, as a sharded build records
+ * each job's share of the tests in the same history. A test has regressed when it took noticeably longer than the 90th percentile of its recorded history.
+ */
+class TestTimingHistory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TestTimingHistory.class);
+
+    private static final int MAGIC = 0x47544831;
+    private static final int VERSION = 2;
+
+    private static final byte SUITE = 1;
+    private static final byte TEST_CASE = 2;
+    private static final byte RUN = 3;
+
+    // Number of samples retained per suite / test on compaction
+    static final int MAX_SAMPLES = 30;
+
+    // Number of runs a suite / test can go unrecorded before it's dropped
+    static final int MAX_IDLE_RUNS = 50;
+
+    // A test needs this much history before it can be judged
+    private static final int MIN_SAMPLES = 5;
+
+    // ... and has regressed if it took this many times its p90, and at least this many seconds longer (so millisecond jitter isn't reported)
+    private static final float REGRESSION_FACTOR = 1.5f;
+    private static final float MIN_REGRESSION_SECONDS = 0.5f;
+
+    private final Path file;
+    private final Map<String, Samples> suites = Maps.newHashMap();
+    private final Map<String, Samples> testCases = Maps.newHashMap();
+    private int recordCount;
+    // The number of the last run recorded
+    private int run;
+    private boolean rewrite;
+
+    private TestTimingHistory(final Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the history from the file, which needn't exist yet.
+     */
+    static TestTimingHistory load(final String file) throws IOException {
+        final TestTimingHistory history = new TestTimingHistory(Paths.get(file));
+        if (Files.exists(history.file)) {
+            history.read();
+        }
+        return history;
+    }
+
+    private void read() throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            final int magic = input.readInt();
+            final int version = input.readInt();
+            if (magic != MAGIC || version != VERSION) {
+                throw new IOException(file + " is not a test timing history (or is from an incompatible version)");
+            }
+
+            while (true) {
+                final int type = input.read();
+                if (type == -1) {
+                    break;
+                }
+                if (type == RUN) {
+                    run = input.readInt();
+                    continue;
+                }
+                final String key = input.readUTF();
+                final float time = input.readFloat();
+                samples(type == SUITE ? suites : testCases, key).add(time, run);
+                recordCount++;
+            }
+        } catch (EOFException e) {
+            // A run was interrupted part way through appending, so rewrite the file rather than appending after the partial record
+            LOG.warn("Test timing history {} ends with a partial record, it will be rewritten", file);
+            rewrite = true;
+        }
+    }
+
+    private static Samples samples(final Map<String, Samples> samples, final String key) {
+        return samples.computeIfAbsent(key, ignored -> new Samples());
+    }
+
+    /**
+     * Returns the recorded durations of the named suite, oldest first (empty if there's no history).
+     */
+    float[] suiteTimes(final String suiteName) {
+        final Samples samples = suites.get(suiteName);
+        return samples == null ? new float[0] : samples.toArray();
+    }
+
+    /**
+     * Marks the test cases that took significantly longer than their history, returning how many there were.
+     */
+    int flagRegressions(final Iterable<Pair<JUnitTestSuite, List<JUnitTestCase>>> results) {
+        int regressions = 0;
+        for (Pair<JUnitTestSuite, List<JUnitTestCase>> result : results) {
+            for (JUnitTestCase testCase : result.getRight()) {
+                final Samples samples = testCases.get(key(testCase));
+                if (samples == null || samples.size < MIN_SAMPLES) {
+                    continue;
+                }
+
+                final float p90 = samples.percentile(90);
+                if (testCase.time > p90 * REGRESSION_FACTOR && testCase.time - p90 >= MIN_REGRESSION_SECONDS) {
+                    testCase.historyP90 = p90;
+                    regressions++;
+                }
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Adds this run's durations to the history (and the file), compacting the file if it has grown too large.
+     */
+    void append(final Iterable<Pair<JUnitTestSuite, List<JUnitTestCase>>> results) throws IOException {
+        run++;
+        for (Pair<JUnitTestSuite, List<JUnitTestCase>> result : results) {
+            samples(suites, result.getLeft().suiteName).add(result.getLeft().time, run);
+            recordCount++;
+            for (JUnitTestCase testCase : result.getRight()) {
+                samples(testCases, key(testCase)).add(testCase.time, run);
+                recordCount++;
+            }
+        }
+
+        final boolean removed = removeIdle(suites) | removeIdle(testCases);
+        if (rewrite || removed || !Files.exists(file) || recordCount > 2 * MAX_SAMPLES * (suites.size() + testCases.size())) {
+            compact();
+        } else {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND)))) {
+                writeRun(output, run);
+                for (Pair<JUnitTestSuite, List<JUnitTestCase>> result : results) {
+                    write(output, SUITE, result.getLeft().suiteName, result.getLeft().time);
+                    for (JUnitTestCase testCase : result.getRight()) {
+                        write(output, TEST_CASE, key(testCase), testCase.time);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the suites / tests that haven't been recorded for too long, returning whether there were any.
+     */
+    private boolean removeIdle(final Map<String, Samples> samples) {
+        return samples.values().removeIf(keySamples -> run - keySamples.lastRun >= MAX_IDLE_RUNS);
+    }
+
+    /**
+     * Rewrites the file with the retained samples only, each suite / test under the marker of the last run that recorded it.
+     */
+    private void compact() throws IOException {
+        final Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+
+        // Write to a temporary file first so an interrupted compaction doesn't lose the history
+        final Path temp = Files.createTempFile(parent, "history", ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            final SortedSet<Integer> runs = Sets.newTreeSet();
+            suites.values().forEach(samples -> runs.add(samples.lastRun));
+            testCases.values().forEach(samples -> runs.add(samples.lastRun));
+            for (int lastRun : runs) {
+                writeRun(output, lastRun);
+                write(output, SUITE, suites, lastRun);
+                write(output, TEST_CASE, testCases, lastRun);
+            }
+            // So the next run is numbered after this one, even if nothing was recorded in it
+            if (runs.isEmpty() || runs.last() != run) {
+                writeRun(output, run);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        recordCount = 0;
+        for (Samples samples : Iterables.concat(suites.values(), testCases.values())) {
+            recordCount += samples.size;
+        }
+        rewrite = false;
+        LOG.info("Compacted test timing history {} to {} suites and {} tests", file, suites.size(), testCases.size());
+    }
+
+    private static void write(final DataOutputStream output, final byte type, final Map<String, Samples> samples, final int lastRun) throws IOException {
+        for (Map.Entry<String, Samples> entry : samples.entrySet()) {
+            if (entry.getValue().lastRun == lastRun) {
+                for (float time : entry.getValue().toArray()) {
+                    write(output, type, entry.getKey(), time);
+                }
+            }
+        }
+    }
+
+    private static void writeRun(final DataOutputStream output, final int run) throws IOException {
+        output.writeByte(RUN);
+        output.writeInt(run);
+    }
+
+    private static void write(final DataOutputStream output, final byte type, final String key, final float time) throws IOException {
+        output.writeByte(type);
+        output.writeUTF(key);
+        output.writeFloat(time);
+    }
+
+    private static String key(final JUnitTestCase testCase) {
+        return testCase.className + '#' + testCase.testName;
+    }
+
+    /**
+     * Ring buffer holding the most recent samples of one suite / test.
+     */
+    private static final class Samples {
+
+        private final float[] times = new float[MAX_SAMPLES];
+        private int next;
+        private int size;
+        // The last run that recorded a sample
+        private int lastRun;
+
+        void add(final float time, final int sampleRun) {
+            lastRun = sampleRun;
+            times[next] = time;
+            next = (next + 1) % MAX_SAMPLES;
+            size = Math.min(size + 1, MAX_SAMPLES);
+        }
+
+        /**
+         * Returns the samples, oldest first.
+         */
+        float[] toArray() {
+            final float[] ordered = new float[size];
+            final int start = (next - size + MAX_SAMPLES) % MAX_SAMPLES;
+            for (int i = 0; i < size; i++) {
+                ordered[i] = times[(start + i) % MAX_SAMPLES];
+            }
+            return ordered;
+        }
+
+        /**
+         * Returns the given percentile of the samples (nearest rank).
+         */
+        float percentile(final int percentile) {
+            final float[] sorted = toArray();
+            Arrays.sort(sorted);
+            final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package net.ids.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Opens files that are gzip compressed when (and only when) their name ends in {@code .gz}, so that reports and exports can be written compressed (and
+ * read back) just by naming them so.
+ */
+public final class CompressedFiles {
+
+    public static final String GZIP_EXTENSION = ".gz";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private CompressedFiles() {
+    }
+
+    /**
+     * Returns whether the file is gzip compressed, going by its name.
+     */
+    public static boolean isGzip(final Path path) {
+        final Path name = path.getFileName();
+        return name != null && name.toString().endsWith(GZIP_EXTENSION);
+    }
+
+    /**
+     * Returns the path without any {@code .gz} extension.
+     */
+    public static Path uncompressedPath(final Path path) {
+        return isGzip(path) ? path.resolveSibling(StringUtils.removeEnd(path.getFileName().toString(), GZIP_EXTENSION)) : path;
+    }
+
+    /**
+     * Returns the base name of the file, without its extension (or extensions, for a compressed file such as {@code report.html.gz}).
+     */
+    public static String baseName(final Path path) {
+        return FilenameUtils.getBaseName(uncompressedPath(path).toString());
+    }
+
+    /**
+     * Opens the file for writing (creating or truncating it), compressing what is written if its name ends in {@code .gz}. The stream is buffered.
+     */
+    public static OutputStream newOutputStream(final Path path) throws IOException {
+        final OutputStream output = Files.newOutputStream(path);
+        return isGzip(path) ? new GZIPOutputStream(output, BUFFER_SIZE) : new BufferedOutputStream(output, BUFFER_SIZE);
+    }
+
+    /**
+     * Opens the file for reading, decompressing it if its name ends in {@code .gz}. The stream is buffered.
+     */
+    public static InputStream newInputStream(final Path path) throws IOException {
+        final InputStream input = Files.newInputStream(path);
+        return isGzip(path) ? new GZIPInputStream(input, BUFFER_SIZE) : new BufferedInputStream(input, BUFFER_SIZE);
+    }
+}
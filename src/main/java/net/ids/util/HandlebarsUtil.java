@@ -1,5 +1,6 @@
 package net.ids.util;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Writer;
@@ -11,6 +12,7 @@ import org.apache.commons.lang.StringUtils;
 import com.github.jknack.handlebars.Context;
 import com.github.jknack.handlebars.Handlebars;
 import com.github.jknack.handlebars.Template;
+import com.github.jknack.handlebars.ValueResolver;
 import com.github.jknack.handlebars.context.FieldValueResolver;
 import com.github.jknack.handlebars.context.JavaBeanValueResolver;
 import com.github.jknack.handlebars.context.MapValueResolver;
@@ -25,6 +27,12 @@ public class HandlebarsUtil {
 
     private static final Handlebars HANDLEBARS = new Handlebars();
 
+    // Markers delimiting the per-row section of a streaming template
+    private static final String ROWS_START = "{{!-- rows --}}";
+    private static final String ROWS_END = "{{!-- /rows --}}";
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
     static {
         HANDLEBARS.registerHelpers(AssignHelper.class);
     }
@@ -52,15 +60,95 @@ public class HandlebarsUtil {
         }
     }
 
+    /**
+     * Loads the template from the provided classpath resource and compiles it for streaming rendering.
+     * <p>
+     * The template must contain a single section delimited by <code>{{!-- rows --}}</code> and <code>{{!-- /rows --}}</code> markers, which is rendered
+     * once per row with the row as its context.
+     */
+    public static StreamingTemplate compileStreaming(final InputStream inputStream) {
+        try {
+            final String template = IOUtils.toString(inputStream, Charsets.UTF_8);
+            final int rowsStart = template.indexOf(ROWS_START);
+            final int rowsEnd = template.indexOf(ROWS_END);
+            if (rowsStart < 0 || rowsEnd < rowsStart) {
+                throw new IllegalStateException("Streaming template does not contain a rows section");
+            }
+
+            return new StreamingTemplate(compile(template.substring(0, rowsStart)), compile(template.substring(rowsStart + ROWS_START.length(), rowsEnd)),
+                    compile(template.substring(rowsEnd + ROWS_END.length())));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Renders the template into the supplied writer.
      */
     public static void render(final Template template, final Map<String, ?> values, final Writer writer) {
         try {
-            final Context context = Context.newBuilder(values).resolver(MapValueResolver.INSTANCE, FieldValueResolver.INSTANCE, JavaBeanValueResolver.INSTANCE, MethodValueResolver.INSTANCE).build();
-            template.apply(context, writer);
+            template.apply(newContext(null, values), writer);
         } catch (IOException e) {
             throw new IllegalStateException(e);
         }
     }
+
+    /**
+     * Renders the streaming template into the supplied writer, one row at a time.
+     * <p>
+     * Only the current row's output is ever held in memory, so the memory needed is independent of the number of rows.
+     */
+    public static void render(final StreamingTemplate template, final Map<String, ?> values, final Iterable<?> rows, final Writer writer) {
+        render(template, null, values, rows, writer);
+    }
+
+    /**
+     * Renders the streaming template into the supplied writer, one row at a time, consulting the supplied resolver before the generic ones.
+     * <p>
+     * The generic resolvers use reflection for every lookup, so a resolver that knows the row types can cut render time considerably.
+     */
+    public static void render(final StreamingTemplate template, final ValueResolver resolver, final Map<String, ?> values, final Iterable<?> rows, final Writer writer) {
+        try {
+            final BufferedWriter bufferedWriter = new BufferedWriter(writer, WRITE_BUFFER_SIZE);
+            final Context context = newContext(resolver, values);
+            try {
+                template.header.apply(context, bufferedWriter);
+                for (Object row : rows) {
+                    final Context rowContext = Context.newBuilder(context, row).build();
+                    template.row.apply(rowContext, bufferedWriter);
+                }
+                template.footer.apply(context, bufferedWriter);
+            } finally {
+                context.destroy();
+            }
+            bufferedWriter.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Context newContext(final ValueResolver resolver, final Map<String, ?> values) {
+        final Context.Builder builder = Context.newBuilder(values);
+        if (resolver == null) {
+            builder.resolver(MapValueResolver.INSTANCE, FieldValueResolver.INSTANCE, JavaBeanValueResolver.INSTANCE, MethodValueResolver.INSTANCE);
+        } else {
+            builder.resolver(resolver, MapValueResolver.INSTANCE, FieldValueResolver.INSTANCE, JavaBeanValueResolver.INSTANCE, MethodValueResolver.INSTANCE);
+        }
+        return builder.build();
+    }
+
+    /**
+     * A template split into header, row and footer sections so that it can be rendered incrementally.
+     */
+    public static final class StreamingTemplate {
+        private final Template header;
+        private final Template row;
+        private final Template footer;
+
+        private StreamingTemplate(final Template header, final Template row, final Template footer) {
+            this.header = header;
+            this.row = row;
+            this.footer = footer;
+        }
+    }
 }
@@ -0,0 +1,146 @@
+package net.ids.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Minimal streaming JSON writer, enough to emit flat records without a JSON library or an intermediate tree.
+ * <p>
+ * Commas are inserted automatically; callers are responsible for balancing begin / end calls.
+ */
+public class JsonWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer writer;
+
+    // Whether the next value / name needs a comma before it
+    private boolean needsComma;
+
+    public JsonWriter(final Writer writer) {
+        this.writer = writer;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        separate();
+        writer.write('{');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        writer.write('}');
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter beginArray(final String name) throws IOException {
+        name(name);
+        writer.write('[');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        writer.write(']');
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Ends the current line (and record), for newline delimited JSON.
+     */
+    public JsonWriter newLine() throws IOException {
+        writer.write('\n');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter value(final String name, final String value) throws IOException {
+        name(name);
+        if (value == null) {
+            writer.write("null");
+        } else {
+            string(value);
+        }
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter value(final String name, final long value) throws IOException {
+        name(name);
+        writer.write(Long.toString(value));
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter value(final String name, final float value) throws IOException {
+        // Written as a float so that e.g. 0.1f comes out as 0.1 rather than its widened double value
+        name(name);
+        writer.write(Float.isNaN(value) || Float.isInfinite(value) ? "null" : Float.toString(value));
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter value(final String name, final double value) throws IOException {
+        name(name);
+        writer.write(Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value));
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter value(final String name, final boolean value) throws IOException {
+        name(name);
+        writer.write(value ? "true" : "false");
+        needsComma = true;
+        return this;
+    }
+
+    private void name(final String name) throws IOException {
+        separate();
+        string(name);
+        writer.write(':');
+    }
+
+    private void separate() throws IOException {
+        if (needsComma) {
+            writer.write(',');
+        }
+    }
+
+    private void string(final String value) throws IOException {
+        writer.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char ch = value.charAt(i);
+            if (ch == '"' || ch == '\\' || ch < 0x20) {
+                // Write the run of plain characters, then the escape
+                writer.write(value, start, i - start);
+                switch (ch) {
+                    case '"':
+                        writer.write("\\\"");
+                        break;
+                    case '\\':
+                        writer.write("\\\\");
+                        break;
+                    case '\n':
+                        writer.write("\\n");
+                        break;
+                    case '\r':
+                        writer.write("\\r");
+                        break;
+                    case '\t':
+                        writer.write("\\t");
+                        break;
+                    default:
+                        writer.write("\\u00");
+                        writer.write(HEX[ch >> 4]);
+                        writer.write(HEX[ch & 0xF]);
+                }
+                start = i + 1;
+            }
+        }
+        writer.write(value, start, value.length() - start);
+        writer.write('"');
+    }
+}
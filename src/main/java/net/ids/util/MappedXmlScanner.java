@@ -0,0 +1,555 @@
+package net.ids.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Minimal pull scanner for UTF-8 XML, reading straight out of a memory-mapped file (or, for small files, a heap buffer).
+ * <p>
+ * Only elements are reported; text, comments, CDATA, processing instructions and the DOCTYPE are skipped over. Attribute values are not decoded (or even
+ * located) until asked for, so attributes that are never read cost nothing but the scan past them. There is no validation or namespace processing, which
+ * suits machine written reports such as checkstyle, findbugs and PMD output. Documents in other encodings (as declared, or UTF-16 with a byte order
+ * mark) are transcoded to UTF-8 up front. A document that ends inside an element, or holds a character reference to an invalid character, is rejected
+ * with an {@link IllegalStateException}. Not thread safe.
+ */
+public class MappedXmlScanner {
+
+    /**
+     * Returned by {@link #next()} on reaching an opening (or self-closing) tag.
+     */
+    public static final int START_ELEMENT = 1;
+
+    /**
+     * Returned by {@link #next()} on reaching a closing tag, or straight after the start of a self-closing one.
+     */
+    public static final int END_ELEMENT = 2;
+
+    /**
+     * Returned by {@link #next()} once there is nothing left.
+     */
+    public static final int END_DOCUMENT = 3;
+
+    // Files smaller than this are read onto the heap rather than mapped, which costs less for small files, doesn't use up the process's map count, and
+    // can't fault if the file is truncated while it's being read
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+
+    private static final int ENCODING_SNIFF_LENGTH = 512;
+
+    private static final Pattern ENCODING = Pattern.compile("encoding\\s*=\\s*[\"']([A-Za-z0-9._:-]+)[\"']");
+
+    private final ByteBuffer buffer;
+    private final int limit;
+
+    // The buffer as (Latin-1) characters, so numbers can be parsed in place
+    private final CharSequence bytes = new BufferChars(0, Integer.MAX_VALUE);
+    private int position;
+
+    // The current element's name, and for a start tag its attribute section
+    private int nameStart;
+    private int nameEnd;
+    private int attributesStart;
+    private int attributesEnd;
+
+    // Number of open elements, and the depth of the current one
+    private boolean pendingEnd;
+    private int depth;
+    private int currentDepth;
+
+    /**
+     * Creates a scanner over the buffer's contents from its position to its limit.
+     *
+     * @throws IllegalStateException if the document declares an encoding that isn't supported
+     */
+    public MappedXmlScanner(final ByteBuffer buffer) {
+        this.buffer = toUtf8(buffer);
+        this.limit = this.buffer.limit();
+        this.position = this.buffer.position();
+    }
+
+    /**
+     * Reads or maps the file into memory and returns a scanner over it (a mapping lasts until the buffer is garbage collected, not the channel).
+     */
+    public static MappedXmlScanner open(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to map (" + size + " bytes)");
+            }
+            if (size >= MAP_THRESHOLD) {
+                return new MappedXmlScanner(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+
+            // Whatever is there, if the file shrinks meanwhile (the scanner then finds the document cut short)
+            final ByteBuffer contents = ByteBuffer.allocate((int) size);
+            while (contents.hasRemaining() && channel.read(contents) >= 0) {
+                continue;
+            }
+            contents.flip();
+            return new MappedXmlScanner(contents);
+        }
+    }
+
+    /**
+     * Returns the buffer if the document is in UTF-8 (or ASCII, which is a subset of it), otherwise its contents transcoded to UTF-8.
+     */
+    private static ByteBuffer toUtf8(final ByteBuffer buffer) {
+        final Charset charset = charset(buffer);
+        if (charset == null) {
+            return buffer;
+        }
+        final CharBuffer chars = charset.decode(buffer.duplicate());
+        // The declaration still names the original encoding, but nothing reads it again
+        return Charsets.UTF_8.encode(chars);
+    }
+
+    /**
+     * Returns the document's encoding if it needs transcoding, going by its byte order mark or XML declaration (null for UTF-8).
+     */
+    private static Charset charset(final ByteBuffer buffer) {
+        final int start = buffer.position();
+        final int available = buffer.remaining();
+        if (available >= 2) {
+            final int first = buffer.get(start) & 0xFF;
+            final int second = buffer.get(start + 1) & 0xFF;
+            if (first == 0xFE && second == 0xFF || first == 0xFF && second == 0xFE) {
+                return Charsets.UTF_16;
+            }
+        }
+
+        // The declaration is ASCII in any encoding that it can be read in as bytes
+        final byte[] head = new byte[Math.min(available, ENCODING_SNIFF_LENGTH)];
+        for (int i = 0; i < head.length; i++) {
+            head[i] = buffer.get(start + i);
+        }
+        final String declaration = new String(head, Charsets.ISO_8859_1);
+        final int declarationStart = declaration.indexOf("<?xml");
+        final int declarationEnd = declaration.indexOf("?>");
+        if (declarationStart < 0 || declarationEnd < declarationStart || !declaration.substring(0, declarationStart).trim().replace("\u00EF\u00BB\u00BF", "").isEmpty()) {
+            return null;
+        }
+        final Matcher encoding = ENCODING.matcher(declaration.substring(declarationStart, declarationEnd));
+        if (!encoding.find()) {
+            return null;
+        }
+
+        final String name = encoding.group(1);
+        if ("UTF-8".equalsIgnoreCase(name) || "UTF8".equalsIgnoreCase(name) || "US-ASCII".equalsIgnoreCase(name) || "ASCII".equalsIgnoreCase(name)) {
+            return null;
+        }
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Unsupported XML encoding " + name, e);
+        }
+    }
+
+    /**
+     * Moves to the next start or end tag, returning which it is (or {@link #END_DOCUMENT}).
+     */
+    public int next() {
+        if (pendingEnd) {
+            pendingEnd = false;
+            currentDepth = depth--;
+            return END_ELEMENT;
+        }
+
+        while (true) {
+            final int tagStart = indexOf('<', position);
+            if (tagStart < 0) {
+                position = limit;
+                if (depth > 0) {
+                    throw new IllegalStateException("Document ends with " + depth + " element(s) still open");
+                }
+                return END_DOCUMENT;
+            }
+
+            position = tagStart + 1;
+            final byte marker = byteAt(position);
+            if (marker == '?') {
+                position = indexOf("?>", position) + 2;
+            } else if (marker == '!') {
+                skipDeclaration();
+            } else if (marker == '/') {
+                nameStart = position + 1;
+                nameEnd = endOfName(nameStart);
+                position = endOfTag(nameEnd) + 1;
+                currentDepth = depth--;
+                return END_ELEMENT;
+            } else {
+                nameStart = position;
+                nameEnd = endOfName(nameStart);
+                attributesStart = nameEnd;
+                attributesEnd = endOfTag(nameEnd);
+                position = attributesEnd + 1;
+                if (byteAt(attributesEnd - 1) == '/') {
+                    attributesEnd--;
+                    pendingEnd = true;
+                }
+                currentDepth = ++depth;
+                return START_ELEMENT;
+            }
+        }
+    }
+
+    /**
+     * Returns the nesting depth of the current element (the root element is at depth 1).
+     */
+    public int depth() {
+        return currentDepth;
+    }
+
+    /**
+     * Returns whether the current element has the given (ASCII) name, without decoding it.
+     */
+    public boolean isNamed(final String name) {
+        return equalsAscii(nameStart, nameEnd, name);
+    }
+
+    /**
+     * Returns the current element's name.
+     */
+    public String name() {
+        return decode(nameStart, nameEnd, false);
+    }
+
+    /**
+     * Returns the decoded value of the named attribute of the current start tag, or null if it doesn't have one.
+     */
+    public String attribute(final String name) {
+        final long range = findAttribute(name);
+        return range < 0 ? null : decode((int) (range >>> 32), (int) range, true);
+    }
+
+    /**
+     * Returns the named attribute of the current start tag parsed as a decimal integer, read straight from the buffer.
+     *
+     * @throws NumberFormatException if the attribute is missing or isn't an integer
+     */
+    public int intAttribute(final String name) {
+        final long range = requireAttribute(name);
+        final int start = (int) (range >>> 32);
+        final int end = (int) range;
+        try {
+            return NumberParser.parseInt(bytes, start, end);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Attribute " + name + " is not an integer: " + decode(start, end, true));
+        }
+    }
+
+    /**
+     * Returns the named attribute of the current start tag parsed as a (possibly locale formatted) decimal number, read straight from the buffer.
+     *
+     * @throws NumberFormatException if the attribute is missing or isn't a number
+     * @see NumberParser
+     */
+    public float floatAttribute(final String name) {
+        final long range = requireAttribute(name);
+        final int start = (int) (range >>> 32);
+        final int end = (int) range;
+        try {
+            return NumberParser.parseFloat(bytes, start, end);
+        } catch (NumberFormatException e) {
+            // Most likely a no-break space (as UTF-8 or a character reference) separating groups, which only the decoded value has
+            try {
+                return NumberParser.parseFloat(decode(start, end, true));
+            } catch (NumberFormatException decodedException) {
+                throw new NumberFormatException("Attribute " + name + " is not a number: " + decode(start, end, true));
+            }
+        }
+    }
+
+    private long requireAttribute(final String name) {
+        final long range = findAttribute(name);
+        if (range < 0) {
+            throw new NumberFormatException("Missing attribute " + name + " on " + name());
+        }
+        return range;
+    }
+
+    /**
+     * Finds the value of the named attribute, returning its start and end packed into a long (or -1 if the current tag doesn't have it).
+     */
+    private long findAttribute(final String name) {
+        int index = attributesStart;
+        while (true) {
+            index = skipWhitespace(index, attributesEnd);
+            if (index >= attributesEnd) {
+                return -1;
+            }
+
+            final int attributeNameStart = index;
+            while (index < attributesEnd && byteAt(index) != '=' && !isWhitespace(byteAt(index))) {
+                index++;
+            }
+            final int attributeNameEnd = index;
+            index = skipWhitespace(index, attributesEnd);
+            if (index >= attributesEnd || byteAt(index) != '=') {
+                return -1;
+            }
+            index = skipWhitespace(index + 1, attributesEnd);
+            if (index >= attributesEnd) {
+                return -1;
+            }
+
+            final byte quote = byteAt(index);
+            final int valueStart = index + 1;
+            final int valueEnd = indexOf(quote, valueStart);
+            if (valueEnd < 0 || valueEnd > attributesEnd) {
+                return -1;
+            }
+            if (equalsAscii(attributeNameStart, attributeNameEnd, name)) {
+                return (long) valueStart << 32 | valueEnd;
+            }
+            index = valueEnd + 1;
+        }
+    }
+
+    private void skipDeclaration() {
+        if (startsWith(position, "!--")) {
+            position = indexOf("-->", position) + 3;
+        } else if (startsWith(position, "![CDATA[")) {
+            position = indexOf("]]>", position) + 3;
+        } else {
+            // DOCTYPE, which may have an internal subset in square brackets
+            final int start = position;
+            int nesting = 0;
+            while (true) {
+                if (position >= limit) {
+                    throw new IllegalStateException("Unterminated declaration at offset " + start);
+                }
+                final byte value = byteAt(position++);
+                if (value == '[') {
+                    nesting++;
+                } else if (value == ']') {
+                    nesting--;
+                } else if (value == '>' && nesting == 0) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the '>' that ends the tag, skipping over any in quoted attribute values.
+     */
+    private int endOfTag(final int from) {
+        byte quote = 0;
+        for (int index = from; index < limit; index++) {
+            final byte value = byteAt(index);
+            if (quote != 0) {
+                if (value == quote) {
+                    quote = 0;
+                }
+            } else if (value == '"' || value == '\'') {
+                quote = value;
+            } else if (value == '>') {
+                return index;
+            }
+        }
+        throw new IllegalStateException("Unterminated tag at offset " + from);
+    }
+
+    private int endOfName(final int from) {
+        int index = from;
+        while (index < limit) {
+            final byte value = byteAt(index);
+            if (value == '>' || value == '/' || isWhitespace(value)) {
+                break;
+            }
+            index++;
+        }
+        return index;
+    }
+
+    private int skipWhitespace(final int from, final int end) {
+        int index = from;
+        while (index < end && isWhitespace(byteAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    private static boolean isWhitespace(final byte value) {
+        return value == ' ' || value == '\n' || value == '\r' || value == '\t';
+    }
+
+    private byte byteAt(final int index) {
+        return index < limit ? buffer.get(index) : 0;
+    }
+
+    private int indexOf(final int value, final int from) {
+        for (int index = from; index < limit; index++) {
+            if (buffer.get(index) == value) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(final String value, final int from) {
+        for (int index = indexOf(value.charAt(0), from); index >= 0; index = indexOf(value.charAt(0), index + 1)) {
+            if (startsWith(index, value)) {
+                return index;
+            }
+        }
+        throw new IllegalStateException("Missing " + value + " after offset " + from);
+    }
+
+    private boolean startsWith(final int from, final String value) {
+        return from + value.length() <= limit && equalsAscii(from, from + value.length(), value);
+    }
+
+    private boolean equalsAscii(final int start, final int end, final String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (buffer.get(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the UTF-8 bytes in the range, replacing entity and character references and normalising line ends (and in attribute values, normalising
+     * whitespace to spaces).
+     */
+    private String decode(final int start, final int end, final boolean attribute) {
+        // Plain ASCII without references is by far the most common case, and needs no decoder
+        boolean plain = true;
+        for (int index = start; index < end && plain; index++) {
+            final byte value = buffer.get(index);
+            plain = value > 0 && value != '&' && value != '\r' && !(attribute && value < ' ');
+        }
+        if (plain) {
+            final char[] chars = new char[end - start];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) buffer.get(start + i);
+            }
+            return new String(chars);
+        }
+
+        final byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        final String text = new String(bytes, Charsets.UTF_8);
+        final StringBuilder decoded = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            final char ch = text.charAt(i);
+            if (ch == '&') {
+                final int semicolon = text.indexOf(';', i);
+                if (semicolon > i) {
+                    final String reference = text.substring(i + 1, semicolon);
+                    final int codePoint = resolveReference(reference);
+                    if (codePoint >= 0) {
+                        decoded.appendCodePoint(codePoint);
+                        i = semicolon;
+                        continue;
+                    }
+                }
+                decoded.append(ch);
+            } else if (ch == '\r') {
+                // A line end of CR LF (or a lone CR) counts as one LF, which becomes a space in an attribute value
+                if (i + 1 < text.length() && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                decoded.append(attribute ? ' ' : '\n');
+            } else if (attribute && (ch == '\n' || ch == '\t')) {
+                decoded.append(' ');
+            } else {
+                decoded.append(ch);
+            }
+        }
+        return decoded.toString();
+    }
+
+    /**
+     * Returns the character a reference stands for, or -1 if it isn't a predefined entity or character reference (it's then left as it is).
+     *
+     * @throws IllegalStateException if it's a character reference to something that isn't a valid XML character
+     */
+    private static int resolveReference(final String reference) {
+        switch (reference) {
+            case "lt":
+                return '<';
+
+            case "gt":
+                return '>';
+
+            case "amp":
+                return '&';
+
+            case "quot":
+                return '"';
+
+            case "apos":
+                return '\'';
+
+            default:
+                if (!reference.startsWith("#")) {
+                    return -1;
+                }
+                final int codePoint;
+                try {
+                    codePoint = reference.startsWith("#x") ? Integer.parseInt(reference.substring(2), 16) : Integer.parseInt(reference.substring(1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalStateException("Invalid character reference &" + reference + ";", e);
+                }
+                if (!isXmlChar(codePoint)) {
+                    throw new IllegalStateException("Character reference &" + reference + "; is not a valid XML character");
+                }
+                return codePoint;
+        }
+    }
+
+    // The Char production of XML 1.0
+    private static boolean isXmlChar(final int codePoint) {
+        return codePoint == 0x9 || codePoint == 0xA || codePoint == 0xD || codePoint >= 0x20 && codePoint <= 0xD7FF || codePoint >= 0xE000 && codePoint <= 0xFFFD
+                || codePoint >= 0x10000 && codePoint <= 0x10FFFF;
+    }
+
+    /**
+     * View of part of the buffer as characters, one per byte (which is right for the ASCII that numbers are written in).
+     */
+    private final class BufferChars implements CharSequence {
+
+        private final int offset;
+        private final int length;
+
+        BufferChars(final int offset, final int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return Math.min(length, limit - offset);
+        }
+
+        @Override
+        public char charAt(final int index) {
+            return (char) (buffer.get(offset + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end) {
+            return new BufferChars(offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return decode(offset, offset + length(), false);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package net.ids.util;
+
+import java.text.NumberFormat;
+import java.text.ParsePosition;
+import java.util.Locale;
+
+/**
+ * Parses numbers straight out of a character sequence (typically a view of part of a buffer), without the intermediate strings and parser state of
+ * {@link Integer#parseInt(String)} and {@link Float#parseFloat(String)}.
+ * <p>
+ * Decimals may be locale formatted, as tools that format durations with the platform's locale write them ("1,234.5", "1.234,5", "1 234,5"). When both
+ * '.' and ',' appear, or one of them appears more than once, the last one is the decimal point and the others separate groups of digits. A lone '.'
+ * or ',' is the decimal point, except that a lone ',' followed by exactly three digits ("1,234") could as well separate thousands, so that is left to
+ * the platform's locale, as the tool that wrote it most likely used the same one. Spaces (including no-break spaces) and apostrophes also separate groups. An exponent ("1.5E-4") is accepted too.
+ */
+public final class NumberParser {
+
+    // Powers of ten that are exact as doubles
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+    };
+
+    // Digits beyond this many are dropped (they're well past float, or even double, precision)
+    private static final long MAX_MANTISSA = (Long.MAX_VALUE - 9) / 10;
+
+    // Largest mantissa a double holds exactly
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private NumberParser() {
+    }
+
+    /**
+     * Parses a decimal integer (with an optional sign).
+     *
+     * @throws NumberFormatException if the text is null or isn't an integer in range
+     */
+    public static int parseInt(final CharSequence text) {
+        if (text == null) {
+            throw new NumberFormatException("null");
+        }
+        return parseInt(text, 0, text.length());
+    }
+
+    /**
+     * Parses the given range of the text as a decimal integer (with an optional sign).
+     *
+     * @throws NumberFormatException if the range isn't an integer in range
+     */
+    public static int parseInt(final CharSequence text, final int start, final int end) {
+        int index = start;
+        final boolean negative = index < end && text.charAt(index) == '-';
+        if (negative || index < end && text.charAt(index) == '+') {
+            index++;
+        }
+        if (index == end) {
+            throw invalid(text, start, end);
+        }
+
+        long value = 0;
+        for (; index < end; index++) {
+            final int digit = text.charAt(index) - '0';
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+                throw invalid(text, start, end);
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw invalid(text, start, end);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses a decimal number, which may be locale formatted.
+     *
+     * @throws NumberFormatException if the text is null or isn't a number
+     */
+    public static float parseFloat(final CharSequence text) {
+        if (text == null) {
+            throw new NumberFormatException("null");
+        }
+        return parseFloat(text, 0, text.length());
+    }
+
+    /**
+     * Parses the given range of the text as a decimal number, which may be locale formatted.
+     *
+     * @throws NumberFormatException if the range isn't a number
+     */
+    public static float parseFloat(final CharSequence text, final int start, final int end) {
+        int first = start;
+        int last = end;
+        while (first < last && Character.isWhitespace(text.charAt(first))) {
+            first++;
+        }
+        while (last > first && Character.isWhitespace(text.charAt(last - 1))) {
+            last--;
+        }
+
+        int index = first;
+        final boolean negative = index < last && text.charAt(index) == '-';
+        if (negative || index < last && text.charAt(index) == '+') {
+            index++;
+        }
+
+        // Find the end of the digits (where any exponent starts) and which separator, if any, is the decimal point
+        int digitsEnd = index;
+        int lastSeparator = -1;
+        int points = 0;
+        int commas = 0;
+        for (; digitsEnd < last; digitsEnd++) {
+            final char ch = text.charAt(digitsEnd);
+            if (ch == 'e' || ch == 'E') {
+                break;
+            } else if (ch == '.' || ch == ',') {
+                lastSeparator = digitsEnd;
+                points += ch == '.' ? 1 : 0;
+                commas += ch == ',' ? 1 : 0;
+            }
+        }
+        if (commas == 1 && points == 0 && digitsEnd == last && isThousands(text, index, lastSeparator, last)) {
+            final float value = parseLocaleFloat(text, index, last, start, end);
+            return negative ? -value : value;
+        }
+        final int decimalPoint = points + commas == 1 || points > 0 && commas > 0 ? lastSeparator : -1;
+
+        long mantissa = 0;
+        int exponent = 0;
+        boolean anyDigits = false;
+        for (; index < digitsEnd; index++) {
+            final char ch = text.charAt(index);
+            final int digit = ch - '0';
+            if (digit >= 0 && digit <= 9) {
+                anyDigits = true;
+                if (mantissa <= MAX_MANTISSA) {
+                    mantissa = mantissa * 10 + digit;
+                    exponent -= decimalPoint >= 0 && index > decimalPoint ? 1 : 0;
+                } else {
+                    exponent += decimalPoint >= 0 && index > decimalPoint ? 0 : 1;
+                }
+            } else if (index != decimalPoint && !isGroupSeparator(ch)) {
+                throw invalid(text, start, end);
+            }
+        }
+        if (!anyDigits) {
+            throw invalid(text, start, end);
+        }
+        if (digitsEnd < last) {
+            exponent += exponent(text, digitsEnd + 1, last, start, end);
+        }
+
+        final double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (mantissa <= MAX_EXACT_MANTISSA && exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[exponent];
+        } else if (mantissa <= MAX_EXACT_MANTISSA && exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            // Rare enough (very long or very large / small numbers) to leave to the JDK
+            value = Double.parseDouble(mantissa + "E" + exponent);
+        }
+        return (float) (negative ? -value : value);
+    }
+
+    private static int exponent(final CharSequence text, final int from, final int to, final int start, final int end) {
+        int index = from;
+        final boolean negative = index < to && text.charAt(index) == '-';
+        if (negative || index < to && text.charAt(index) == '+') {
+            index++;
+        }
+        if (index == to) {
+            throw invalid(text, start, end);
+        }
+
+        int exponent = 0;
+        for (; index < to; index++) {
+            final int digit = text.charAt(index) - '0';
+            if (digit < 0 || digit > 9) {
+                throw invalid(text, start, end);
+            }
+            // Anything this large is out of range whatever the digits, so stop before it overflows
+            exponent = Math.min(exponent * 10 + digit, 100000);
+        }
+        return negative ? -exponent : exponent;
+    }
+
+    /**
+     * Returns whether the separator could be a thousands separator: one to three digits before it and exactly three after.
+     */
+    private static boolean isThousands(final CharSequence text, final int from, final int separator, final int to) {
+        return separator - from >= 1 && separator - from <= 3 && to - separator == 4 && isDigits(text, from, separator) && isDigits(text, separator + 1, to);
+    }
+
+    private static boolean isDigits(final CharSequence text, final int from, final int to) {
+        for (int index = from; index < to; index++) {
+            if (text.charAt(index) < '0' || text.charAt(index) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Rare enough to leave to the JDK (its formats aren't thread safe, so each call gets its own)
+    private static float parseLocaleFloat(final CharSequence text, final int first, final int last, final int start, final int end) {
+        final String number = text.subSequence(first, last).toString();
+        final ParsePosition position = new ParsePosition(0);
+        final Number value = NumberFormat.getInstance(Locale.getDefault(Locale.Category.FORMAT)).parse(number, position);
+        if (value == null || position.getIndex() != number.length()) {
+            throw invalid(text, start, end);
+        }
+        return value.floatValue();
+    }
+
+    private static boolean isGroupSeparator(final char ch) {
+        return ch == '.' || ch == ',' || ch == ' ' || ch == '\'' || ch == '\u00a0' || ch == '\u202f';
+    }
+
+    private static NumberFormatException invalid(final CharSequence text, final int start, final int end) {
+        return new NumberFormatException("Not a number: \"" + text.subSequence(start, end) + "\"");
+    }
+}
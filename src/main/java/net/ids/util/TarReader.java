@@ -0,0 +1,231 @@
+package net.ids.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Minimal streaming reader for tar archives (as written by GNU tar and bsdtar), reading the entries in order.
+ * <p>
+ * Only regular files are returned; directories, links and the like are skipped. Long names are supported in the ustar (prefix), GNU ({@code L}
+ * entries) and pax ({@code path} records) forms, as are GNU base-256 sizes. Compression is up to the caller (wrap the stream in a
+ * {@link java.util.zip.GZIPInputStream} for {@code .tar.gz}). Not thread safe.
+ */
+public class TarReader implements Closeable {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private final InputStream input;
+    private final byte[] header = new byte[BLOCK_SIZE];
+
+    // The current entry's name, and how much of its data (and then padding) is still to be read
+    private String name;
+    private long remaining;
+    private long padding;
+
+    public TarReader(final InputStream input) {
+        this.input = input;
+    }
+
+    /**
+     * Moves to the next regular file, returning its name (null at the end of the archive). The rest of the previous entry is skipped.
+     */
+    public String nextEntry() throws IOException {
+        skip(remaining + padding);
+        remaining = 0;
+        padding = 0;
+
+        String longName = null;
+        while (true) {
+            if (IOUtils.read(input, header) < BLOCK_SIZE || isZeroBlock()) {
+                // End of archive (two zero blocks, though a truncated archive is tolerated too)
+                return null;
+            }
+
+            final long size = size();
+            final long blockPadding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+            final char type = (char) header[156];
+            switch (type) {
+                case 'L':
+                    // GNU long name, for the entry that follows
+                    longName = trimName(readData(size));
+                    skip(blockPadding);
+                    break;
+
+                case 'x':
+                    // pax extended header, for the entry that follows
+                    final String path = paxPath(readData(size));
+                    longName = path == null ? longName : path;
+                    skip(blockPadding);
+                    break;
+
+                case '0':
+                case '\0':
+                case '7':
+                    name = longName != null ? longName : headerName();
+                    remaining = size;
+                    padding = blockPadding;
+                    return name;
+
+                default:
+                    // Directories, links, global pax headers etc.
+                    longName = null;
+                    skip(size + blockPadding);
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the current entry.
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Returns the size of the current entry.
+     */
+    public long size() {
+        if ((header[124] & 0x80) != 0) {
+            // GNU base-256 encoding, for sizes beyond the 8GB of the octal field
+            long size = header[124] & 0x7f;
+            for (int i = 125; i < 136; i++) {
+                size = size << 8 | header[i] & 0xff;
+            }
+            return size;
+        }
+
+        // Octal, possibly space padded and NUL or space terminated
+        int index = 124;
+        while (index < 136 && header[index] == ' ') {
+            index++;
+        }
+        long size = 0;
+        for (; index < 136 && header[index] >= '0' && header[index] <= '7'; index++) {
+            size = size * 8 + header[index] - '0';
+        }
+        return size;
+    }
+
+    /**
+     * Returns a stream over the contents of the current entry, which ends with the entry. It doesn't need closing.
+     */
+    public InputStream entryStream() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                if (remaining == 0) {
+                    return -1;
+                }
+                final int value = input.read();
+                if (value < 0) {
+                    throw new EOFException("Truncated tar entry " + name);
+                }
+                remaining--;
+                return value;
+            }
+
+            @Override
+            public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+                if (remaining == 0) {
+                    return -1;
+                }
+                final int count = input.read(buffer, offset, (int) Math.min(length, remaining));
+                if (count < 0) {
+                    throw new EOFException("Truncated tar entry " + name);
+                }
+                remaining -= count;
+                return count;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private boolean isZeroBlock() {
+        for (byte value : header) {
+            if (value != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String headerName() {
+        final String name = string(0, 100);
+        // ustar splits long names into a prefix and the name
+        final boolean ustar = "ustar".equals(string(257, 5));
+        final String prefix = ustar ? string(345, 155) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private String string(final int offset, final int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, Charsets.UTF_8);
+    }
+
+    private byte[] readData(final long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Tar header entry too large (" + size + " bytes)");
+        }
+        final byte[] data = new byte[(int) size];
+        ByteStreams.readFully(input, data);
+        return data;
+    }
+
+    private static String trimName(final byte[] data) {
+        int end = data.length;
+        while (end > 0 && data[end - 1] == 0) {
+            end--;
+        }
+        return new String(data, 0, end, Charsets.UTF_8);
+    }
+
+    /**
+     * Returns the path from pax records ({@code "<length> <key>=<value>\n"}), or null if there isn't one.
+     */
+    private static String paxPath(final byte[] data) {
+        int start = 0;
+        while (start < data.length) {
+            final int space = indexOf(data, (byte) ' ', start);
+            if (space < 0) {
+                break;
+            }
+            final int length = Integer.parseInt(new String(data, start, space - start, Charsets.UTF_8));
+            if (length <= 0 || start + length > data.length) {
+                break;
+            }
+            final String record = new String(data, space + 1, start + length - space - 2, Charsets.UTF_8);
+            if (record.startsWith("path=")) {
+                return record.substring("path=".length());
+            }
+            start += length;
+        }
+        return null;
+    }
+
+    private static int indexOf(final byte[] data, final byte value, final int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void skip(final long count) throws IOException {
+        ByteStreams.skipFully(input, count);
+    }
+}
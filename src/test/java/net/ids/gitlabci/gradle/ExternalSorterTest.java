@@ -0,0 +1,129 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class ExternalSorterTest {
+
+    // A value to sort by and a sequence number to check the order of equal values
+    private static final RecordCodec<Pair<Integer, Integer>> PAIRS = new RecordCodec<Pair<Integer, Integer>>() {
+        @Override
+        public void write(final DataOutput output, final Pair<Integer, Integer> record) throws IOException {
+            output.writeInt(record.getLeft());
+            output.writeInt(record.getRight());
+        }
+
+        @Override
+        public Pair<Integer, Integer> read(final DataInput input) throws IOException {
+            return Pair.of(input.readInt(), input.readInt());
+        }
+    };
+
+    private static final Comparator<Pair<Integer, Integer>> BY_VALUE = Comparator.comparing(Pair::getLeft);
+
+    @Test
+    public void testInMemory() throws IOException {
+        final List<Pair<Integer, Integer>> records = records(1000, 100);
+        try (ExternalSorter<Pair<Integer, Integer>> sorter = sorter(Long.MAX_VALUE)) {
+            records.forEach(sorter::add);
+            assertSorted(records, sorter);
+        }
+    }
+
+    @Test
+    public void testSpilledRunsAreMerged() throws IOException {
+        final List<Pair<Integer, Integer>> records = records(10000, 500);
+        // Spills every 64 records, leaving some in the buffer at the end, and more runs than are merged at once
+        try (ExternalSorter<Pair<Integer, Integer>> sorter = sorter(63)) {
+            records.forEach(sorter::add);
+            Assert.assertEquals(records.size(), sorter.size());
+            assertSorted(records, sorter);
+            // And again, reading the runs afresh
+            assertSorted(records, sorter);
+        }
+    }
+
+    @Test
+    public void testSortsOnThePool() throws IOException {
+        final List<Pair<Integer, Integer>> records = records(100000, 1000);
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        try (ExternalSorter<Pair<Integer, Integer>> sorter = new ExternalSorter<>(PAIRS, record -> record.getLeft(), BY_VALUE, record -> 1, Long.MAX_VALUE,
+                pool)) {
+            records.forEach(sorter::add);
+            assertSorted(records, sorter);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testKeyOnlyOrdering() throws IOException {
+        // The key decides the order when it differs, the comparator only breaks ties
+        try (ExternalSorter<Pair<Integer, Integer>> sorter = new ExternalSorter<>(PAIRS, record -> -record.getLeft(), BY_VALUE, record -> 1, 2, null)) {
+            for (int i = 0; i < 10; i++) {
+                sorter.add(Pair.of(i, i));
+            }
+            int expected = 9;
+            for (Pair<Integer, Integer> record : sorter) {
+                Assert.assertEquals(expected--, (int) record.getLeft());
+            }
+        }
+    }
+
+    @Test
+    public void testClosingEndsAbandonedIterations() throws IOException {
+        final ExternalSorter<Pair<Integer, Integer>> sorter = sorter(9);
+        records(100, 10).forEach(sorter::add);
+        final Iterator<Pair<Integer, Integer>> iterator = sorter.iterator();
+        iterator.next();
+        sorter.close();
+
+        // The runs were closed, so the merge only has what it had already read and the buffer left
+        int remaining = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            remaining++;
+        }
+        Assert.assertTrue(remaining < 99);
+    }
+
+    @Test
+    public void testSortInPlace() {
+        final List<Pair<Integer, Integer>> records = records(5000, 50);
+        final List<Pair<Integer, Integer>> sorted = Lists.newArrayList(records);
+        ExternalSorter.sort(sorted, record -> record.getLeft(), BY_VALUE);
+        assertSorted(records, sorted);
+    }
+
+    private static ExternalSorter<Pair<Integer, Integer>> sorter(final long maxBufferBytes) {
+        return new ExternalSorter<>(PAIRS, record -> record.getLeft(), BY_VALUE, record -> 1, maxBufferBytes, null);
+    }
+
+    private static List<Pair<Integer, Integer>> records(final int count, final int distinctValues) {
+        final Random random = new Random(42);
+        final List<Pair<Integer, Integer>> records = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            records.add(Pair.of(random.nextInt(distinctValues), i));
+        }
+        return records;
+    }
+
+    private static void assertSorted(final List<Pair<Integer, Integer>> records, final Iterable<Pair<Integer, Integer>> sorted) {
+        // A stable sort of the originals is the expected order
+        final List<Pair<Integer, Integer>> expected = Lists.newArrayList(records);
+        expected.sort(BY_VALUE);
+        Assert.assertEquals(expected, Lists.newArrayList(sorted));
+    }
+}
@@ -0,0 +1,98 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class JUnitResultParserTest {
+
+    private static final JUnitResultParser PARSER = new JUnitResultParser(JUnitResultParser.DEFAULT_MAX_TEXT_LENGTH);
+
+    @Test
+    public void testSingleSuite() throws Exception {
+        final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> suites = parse("<testsuite name='a.ATest' tests='2' failures='1' errors='0' skipped='0' time='1.5'>"
+                + "<testcase name='one' classname='a.ATest' time='0.5'/>"
+                + "<testcase name='two' classname='a.ATest' time='1.0'><failure message='boom' type='java.lang.AssertionError'>trace</failure></testcase>"
+                + "<system-out>out</system-out><system-err>err</system-err>"
+                + "</testsuite>");
+
+        Assert.assertEquals(1, suites.size());
+        final JUnitTestSuite suite = suites.get(0).getLeft();
+        Assert.assertEquals("a.ATest", suite.suiteName);
+        Assert.assertEquals(2, suite.testCount);
+        Assert.assertEquals(1, suite.failureCount);
+        Assert.assertEquals(1.5f, suite.time, 0f);
+        Assert.assertEquals("out", suite.stdout);
+        Assert.assertEquals("err", suite.stderr);
+
+        final List<JUnitTestCase> tests = suites.get(0).getRight();
+        Assert.assertEquals(2, tests.size());
+        Assert.assertFalse(tests.get(0).hasError());
+        Assert.assertEquals("boom", tests.get(1).message);
+        Assert.assertEquals("trace", tests.get(1).error);
+    }
+
+    @Test
+    public void testSuitesKeepTheirOwnAttributesAndTests() throws Exception {
+        final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> suites = parse("<testsuites>"
+                + "<testsuite name='a.ATest' tests='1' failures='0' errors='0' skipped='0' time='1'>"
+                + "<testcase name='one' classname='a.ATest' time='1'/><system-out>a out</system-out>"
+                + "</testsuite>"
+                + "<testsuite name='b.BTest' tests='2' failures='0' errors='0' skipped='1' time='2'>"
+                + "<testcase name='two' classname='b.BTest' time='1'/><testcase name='three' classname='b.BTest' time='1'/>"
+                + "</testsuite>"
+                + "</testsuites>");
+
+        Assert.assertEquals(2, suites.size());
+        Assert.assertEquals("a.ATest", suites.get(0).getLeft().suiteName);
+        Assert.assertEquals(1, suites.get(0).getLeft().testCount);
+        Assert.assertEquals("a out", suites.get(0).getLeft().stdout);
+        Assert.assertEquals(1, suites.get(0).getRight().size());
+
+        Assert.assertEquals("b.BTest", suites.get(1).getLeft().suiteName);
+        Assert.assertEquals(2, suites.get(1).getLeft().testCount);
+        Assert.assertEquals(1, suites.get(1).getLeft().skippedCount);
+        Assert.assertNull(suites.get(1).getLeft().stdout);
+        Assert.assertEquals(2, suites.get(1).getRight().size());
+    }
+
+    @Test
+    public void testNestedSuites() throws Exception {
+        final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> suites = parse("<testsuite name='outer' tests='2' failures='0' errors='0' skipped='0' time='2'>"
+                + "<testsuite name='inner' tests='1' failures='0' errors='0' skipped='0' time='1'><testcase name='one' classname='Inner' time='1'/></testsuite>"
+                + "<testcase name='two' classname='Outer' time='1'/>"
+                + "</testsuite>");
+
+        Assert.assertEquals(2, suites.size());
+        Assert.assertEquals("inner", suites.get(0).getLeft().suiteName);
+        Assert.assertEquals("one", suites.get(0).getRight().get(0).testName);
+        Assert.assertEquals("outer", suites.get(1).getLeft().suiteName);
+        Assert.assertEquals(1, suites.get(1).getRight().size());
+        Assert.assertEquals("two", suites.get(1).getRight().get(0).testName);
+    }
+
+    @Test
+    public void testLongTextIsTruncatedAcrossEvents() throws Exception {
+        final JUnitResultParser parser = new JUnitResultParser(10);
+        final String xml = "<testsuite name='a.ATest' tests='1' failures='1' errors='0' skipped='0' time='1'>"
+                + "<testcase name='one' classname='a.ATest' time='1'><failure message='boom' type='E'>abcd<![CDATA[efgh]]>ijkl&amp;mnop</failure></testcase>"
+                + "<system-out><![CDATA[0123]]>456<![CDATA[789ABCDEF]]></system-out>"
+                + "<system-err>short</system-err>"
+                + "</testsuite>";
+        final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> suites = parser.parse(new ByteArrayInputStream(xml.getBytes(Charsets.UTF_8)));
+
+        final JUnitTestSuite suite = suites.get(0).getLeft();
+        Assert.assertEquals("0123456789\n... [truncated 6 characters]", suite.stdout);
+        Assert.assertEquals("short", suite.stderr);
+        Assert.assertEquals("abcdefghij\n... [truncated 7 characters]", suites.get(0).getRight().get(0).error);
+    }
+
+    private static List<Pair<JUnitTestSuite, List<JUnitTestCase>>> parse(final String xml) throws Exception {
+        return PARSER.parse(new ByteArrayInputStream(xml.getBytes(Charsets.UTF_8)));
+    }
+}
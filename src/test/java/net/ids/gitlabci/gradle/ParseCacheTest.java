@@ -0,0 +1,150 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+public class ParseCacheTest {
+
+    private static final RecordCodec<String> STRINGS = new RecordCodec<String>() {
+        @Override
+        public void write(final DataOutput output, final String record) throws IOException {
+            output.writeUTF(record);
+        }
+
+        @Override
+        public String read(final DataInput input) throws IOException {
+            return input.readUTF();
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger parses = new AtomicInteger();
+    private BiConsumer<Path, List<String>> parser;
+
+    @Before
+    public void createCache() throws IOException {
+        final ParseCache<String> cache = new ParseCache<>(folder.newFolder("cache").toPath(), 1024 * 1024, STRINGS);
+        parser = cache.wrap((path, results) -> {
+            parses.incrementAndGet();
+            results.add(path.getFileName() + ":" + parses.get());
+        });
+    }
+
+    @Test
+    public void testUnchangedFileIsServedFromTheCache() throws IOException {
+        final Path report = report("TEST-a.xml", "<testsuite/>", 1000);
+
+        Assert.assertEquals(Lists.newArrayList("TEST-a.xml:1"), parse(report));
+        Assert.assertEquals(Lists.newArrayList("TEST-a.xml:1"), parse(report));
+        Assert.assertEquals(1, parses.get());
+    }
+
+    @Test
+    public void testRewrittenIdenticalFileIsServedFromTheCache() throws IOException {
+        final Path report = report("TEST-a.xml", "<testsuite/>", 1000);
+        parse(report);
+
+        report("TEST-a.xml", "<testsuite/>", 2000);
+        Assert.assertEquals(Lists.newArrayList("TEST-a.xml:1"), parse(report));
+        // And again, now the entry has the new timestamp
+        Assert.assertEquals(Lists.newArrayList("TEST-a.xml:1"), parse(report));
+        Assert.assertEquals(1, parses.get());
+    }
+
+    @Test
+    public void testChangedFileIsParsedAgain() throws IOException {
+        final Path report = report("TEST-a.xml", "<testsuite/>", 1000);
+        parse(report);
+
+        // Same size and a new timestamp, but different content
+        report("TEST-a.xml", "<testsuitX/>", 2000);
+        Assert.assertEquals(Lists.newArrayList("TEST-a.xml:2"), parse(report));
+
+        // A different size, with the same timestamp
+        report("TEST-a.xml", "<testsuite></testsuite>", 2000);
+        Assert.assertEquals(Lists.newArrayList("TEST-a.xml:3"), parse(report));
+    }
+
+    @Test
+    public void testArchiveEntriesFollowTheirArchive() throws IOException {
+        final Path archive = report("results.zip", "archive contents", 1000);
+        final Path first = archive.resolveSibling("results.zip!").resolve("TEST-a.xml");
+        final Path second = archive.resolveSibling("results.zip!").resolve("TEST-b.xml");
+        parse(first);
+        parse(second);
+
+        // Rewritten without changes, so both entries still hold
+        report("results.zip", "archive contents", 2000);
+        Assert.assertEquals(Lists.newArrayList("TEST-a.xml:1"), parse(first));
+        Assert.assertEquals(Lists.newArrayList("TEST-b.xml:2"), parse(second));
+
+        // Changed, so both are parsed again
+        report("results.zip", "archive Contents", 3000);
+        Assert.assertEquals(Lists.newArrayList("TEST-a.xml:3"), parse(first));
+        Assert.assertEquals(Lists.newArrayList("TEST-b.xml:4"), parse(second));
+    }
+
+    @Test
+    public void testEvictionKeepsTheCacheWithinItsLimit() throws IOException {
+        final Path directory = folder.newFolder("small").toPath();
+        final ParseCache<String> cache = new ParseCache<>(directory, 1, STRINGS);
+        cache.wrap((path, results) -> results.add("x")).accept(report("TEST-a.xml", "<testsuite/>", 1000), Lists.newArrayList());
+        Assert.assertEquals(1, directory.toFile().list().length);
+
+        cache.evict();
+        Assert.assertEquals(0, directory.toFile().list().length);
+    }
+
+    @Test
+    public void testFailedWritesStillReturnTheResults() throws IOException {
+        final Path directory = folder.newFolder("failing").toPath();
+        final ParseCache<String> cache = new ParseCache<>(directory, 1024 * 1024, new RecordCodec<String>() {
+            @Override
+            public void write(final DataOutput output, final String record) throws IOException {
+                throw new IOException("No space left on device");
+            }
+
+            @Override
+            public String read(final DataInput input) throws IOException {
+                return input.readUTF();
+            }
+        });
+        final List<String> results = Lists.newArrayList();
+        cache.wrap((path, parsed) -> parsed.add("x")).accept(report("TEST-a.xml", "<testsuite/>", 1000), results);
+
+        Assert.assertEquals(Lists.newArrayList("x"), results);
+        // Nor is the partial entry left behind
+        Assert.assertEquals(0, directory.toFile().list().length);
+    }
+
+    private Path report(final String name, final String contents, final long modified) throws IOException {
+        final Path path = folder.getRoot().toPath().resolve(name);
+        Files.write(path, contents.getBytes(Charsets.UTF_8));
+        Files.setLastModifiedTime(path, FileTime.fromMillis(modified));
+        return path;
+    }
+
+    private List<String> parse(final Path path) {
+        final List<String> results = Lists.newArrayList();
+        parser.accept(path, results);
+        return results;
+    }
+}
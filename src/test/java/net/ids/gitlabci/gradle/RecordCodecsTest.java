@@ -0,0 +1,77 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class RecordCodecsTest {
+
+    @Test
+    public void testJUnitResultRoundTrip() throws IOException {
+        final Pair<JUnitTestSuite, List<JUnitTestCase>> result = roundTrip(RecordCodecs.JUNIT_RESULT, result());
+
+        final JUnitTestSuite suite = result.getLeft();
+        Assert.assertEquals("a.ATest", suite.suiteName);
+        Assert.assertEquals(2, suite.testCount);
+        Assert.assertEquals(1.5f, suite.time, 0f);
+        Assert.assertEquals("out", suite.stdout);
+        Assert.assertNull(suite.stderr);
+        Assert.assertEquals(2, result.getRight().size());
+        Assert.assertFalse(result.getRight().get(0).hasError());
+        Assert.assertEquals("boom", result.getRight().get(1).message);
+        Assert.assertNull(result.getRight().get(1).error);
+    }
+
+    @Test
+    public void testExportKeepsTheSideFiles() throws IOException {
+        final Pair<JUnitTestSuite, List<JUnitTestCase>> original = result();
+        original.getLeft().stderrBlob = "junit-blobs/abc.txt";
+        original.getRight().get(1).errorBlob = "junit-blobs/def.txt";
+
+        final Pair<JUnitTestSuite, List<JUnitTestCase>> result = roundTrip(RecordCodecs.JUNIT_EXPORT, original);
+        Assert.assertEquals("out", result.getLeft().stdout);
+        Assert.assertNull(result.getLeft().stdoutBlob);
+        Assert.assertEquals("junit-blobs/abc.txt", result.getLeft().stderrBlob);
+        Assert.assertNull(result.getRight().get(0).errorBlob);
+        Assert.assertEquals("junit-blobs/def.txt", result.getRight().get(1).errorBlob);
+    }
+
+    @Test
+    public void testLongStrings() throws IOException {
+        final StringBuilder output = new StringBuilder();
+        while (output.length() < 100000) {
+            output.append("line \u00e9\u4e2d\n");
+        }
+        final Pair<JUnitTestSuite, List<JUnitTestCase>> original = Pair.of(new JUnitTestSuite("s", 0, 0, 0, 0, 0f, output.toString(), null),
+                Lists.newArrayList());
+
+        Assert.assertEquals(output.toString(), roundTrip(RecordCodecs.JUNIT_RESULT, original).getLeft().stdout);
+    }
+
+    private static Pair<JUnitTestSuite, List<JUnitTestCase>> result() {
+        final JUnitTestCase passed = new JUnitTestCase("one", "a.ATest", 0.5f);
+        final JUnitTestCase failed = new JUnitTestCase("two", "a.ATest", 1f);
+        failed.failure("boom", "java.lang.AssertionError", null);
+        return Pair.of(new JUnitTestSuite("a.ATest", 2, 0, 1, 0, 1.5f, "out", null), Lists.newArrayList(passed, failed));
+    }
+
+    private static <T> T roundTrip(final RecordCodec<T> codec, final T record) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            codec.write(output, record);
+        }
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        final T read = codec.read(input);
+        Assert.assertEquals("Bytes left over", 0, input.available());
+        return read;
+    }
+}
@@ -0,0 +1,39 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+public class ReportBlobsTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLongTextIsMovedToPlainTextFiles() throws IOException {
+        final Path output = folder.getRoot().toPath().resolve("junit.html");
+        final String stdout = StringUtils.repeat("output\n", 1000);
+        final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> results = Lists.newArrayList();
+        new ReportBlobs(output.toString()).wrap((path, parsed) -> parsed.add(Pair.of(new JUnitTestSuite("a.ATest", 0, 0, 0, 0, 1f, stdout, "short"),
+                Lists.<JUnitTestCase>newArrayList()))).accept(output, results);
+
+        final JUnitTestSuite suite = results.get(0).getLeft();
+        Assert.assertNull(suite.stdout);
+        Assert.assertTrue(suite.stdoutBlob, suite.stdoutBlob.startsWith("junit-blobs/") && suite.stdoutBlob.endsWith(".txt"));
+        Assert.assertEquals(stdout, new String(Files.readAllBytes(output.resolveSibling(suite.stdoutBlob)), Charsets.UTF_8));
+        // Short text stays inline
+        Assert.assertEquals("short", suite.stderr);
+        Assert.assertNull(suite.stderrBlob);
+    }
+}
@@ -0,0 +1,69 @@
+package net.ids.gitlabci.gradle;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class ReportIngesterTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(2);
+
+    @After
+    public void shutDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testResultsArriveInPathOrder() {
+        final List<Path> paths = Lists.newArrayList();
+        for (int i = 99; i >= 0; i--) {
+            paths.add(Paths.get(String.format("file-%03d", i)));
+        }
+
+        final List<String> results = ReportIngester.ingest(paths, (path, buffer) -> buffer.add(path.toString()), pool);
+
+        Assert.assertEquals(100, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            Assert.assertEquals(String.format("file-%03d", i), results.get(i));
+        }
+    }
+
+    @Test
+    public void testParsingStaysWithinTheWindow() {
+        final List<Path> paths = Lists.newArrayList();
+        for (int i = 0; i < 50; i++) {
+            paths.add(Paths.get(String.format("file-%03d", i)));
+        }
+
+        // Files parsed but not yet handed to the sink
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicInteger maxPending = new AtomicInteger();
+        ReportIngester.<String>ingest(paths, (path, buffer) -> {
+            maxPending.accumulateAndGet(pending.incrementAndGet(), Math::max);
+            buffer.add(path.toString());
+        }, pool, parsed -> pending.decrementAndGet());
+
+        Assert.assertEquals(0, pending.get());
+        Assert.assertTrue("At most " + maxPending.get() + " files pending", maxPending.get() <= pool.getParallelism() * 2);
+    }
+
+    @Test
+    public void testParseFailureIsRethrown() {
+        try {
+            ReportIngester.ingest(Lists.newArrayList(Paths.get("a"), Paths.get("b")), (path, buffer) -> {
+                throw new IllegalStateException("Bad file " + path);
+            }, pool);
+            Assert.fail("Expected the parse failure");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Bad file a"));
+        }
+    }
+}
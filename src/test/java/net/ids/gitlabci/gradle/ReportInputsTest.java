@@ -0,0 +1,127 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class ReportInputsTest {
+
+    private static final String SUITE = "<testsuite name='%s' tests='1' failures='0' errors='0' skipped='0' time='1'>"
+            + "<testcase name='one' classname='%1$s' time='1'/></testsuite>";
+
+    private static final String CHECKSTYLE = "<?xml version='1.0'?><checkstyle version='6.17'><file name='/src/A.java'>"
+            + "<error line='3' severity='warning' message='m' source='com.puppycrawl.tools.checkstyle.checks.FooCheck'/></file></checkstyle>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+
+    @Before
+    public void createRoot() throws IOException {
+        root = folder.newFolder("root").toPath().toRealPath();
+    }
+
+    @Test
+    public void testGzippedReportsAreParsedAsTheyAreDecompressed() throws IOException {
+        final Path file = Files.createDirectories(root.resolve("core/build/test-results")).resolve("TEST-a.ATest.xml.gz");
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(file))) {
+            output.write(String.format(SUITE, "a.ATest").getBytes(Charsets.UTF_8));
+        }
+
+        final Map<Path, ReportAnalyzer<?>> found = classify(file);
+
+        Assert.assertEquals(ImmutableSet.of(file), found.keySet());
+        final List<?> results = parse(found.get(file), file);
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals("a.ATest", ((JUnitTestSuite) ((Pair<?, ?>) results.get(0)).getLeft()).suiteName);
+    }
+
+    @Test
+    public void testArchivesAreParsedInOnePassPerReport() throws IOException {
+        final Path archive = root.resolve("results.zip");
+        zip(archive, "core/build/test-results/TEST-b.BTest.xml", String.format(SUITE, "b.BTest"),
+                "core/build/reports/checkstyle/main.xml", CHECKSTYLE,
+                "core/build/test-results/README.txt", "not a report",
+                "core/build/test-results/TEST-d.DTest.xml", "<notjunit/>",
+                "web/build/test-results/TEST-e.ETest.xml", String.format(SUITE, "e.ETest"),
+                "../core/build/test-results/TEST-c.CTest.xml", String.format(SUITE, "c.CTest"));
+
+        final Map<Path, ReportAnalyzer<?>> found = classify(archive);
+
+        final Path suites = ReportInputs.reports(archive, ResultExport.JUNIT);
+        final Path messages = ReportInputs.reports(archive, ResultExport.STATIC_ANALYSIS);
+        Assert.assertEquals(ImmutableSet.of(suites, messages), found.keySet());
+        Assert.assertEquals(archive, ReportInputs.file(suites));
+
+        final List<String> suiteNames = Lists.newArrayList();
+        for (Object result : parse(found.get(suites), suites)) {
+            suiteNames.add(((JUnitTestSuite) ((Pair<?, ?>) result).getLeft()).suiteName);
+        }
+        Assert.assertEquals(Lists.newArrayList("b.BTest", "e.ETest"), suiteNames);
+
+        // Checkstyle's analyzer scans from memory, so gets the entry read in, and the messages are in the entry's module
+        final List<?> checkstyle = parse(found.get(messages), messages);
+        Assert.assertEquals(1, checkstyle.size());
+        Assert.assertEquals(3, ((StaticAnalysisMessage) checkstyle.get(0)).startLine);
+        Assert.assertEquals(root.resolve("results.zip" + ReportInputs.ARCHIVE_SEPARATOR).resolve("core").toString(),
+                ((StaticAnalysisMessage) checkstyle.get(0)).module);
+    }
+
+    @Test
+    public void testReadEntries() throws IOException {
+        final Path archive = root.resolve("results.zip");
+        zip(archive, "a.xml", "<a/>", "dir/b.xml", "<b/>", "../c.xml", "<c/>");
+        final Path entries = root.resolve("results.zip" + ReportInputs.ARCHIVE_SEPARATOR);
+
+        final Map<Path, String> contents = Maps.newLinkedHashMap();
+        ReportInputs.readEntries(archive, (path, input) -> contents.put(path, IOUtils.toString(input, Charsets.UTF_8)));
+        Assert.assertEquals(Lists.newArrayList(entries.resolve("a.xml"), entries.resolve("dir/b.xml")), Lists.newArrayList(contents.keySet()));
+        Assert.assertEquals(Lists.newArrayList("<a/>", "<b/>"), Lists.newArrayList(contents.values()));
+    }
+
+    private Map<Path, ReportAnalyzer<?>> classify(final Path file) {
+        final List<ReportAnalyzer<?>> analyzers = Lists.newArrayList();
+        analyzers.add(new JUnitAnalysisTool.JUnitAnalyzer());
+        analyzers.add(new StaticAnalysisTool.CheckstyleAnalyzer());
+        final Map<Path, ReportAnalyzer<?>> found = Maps.newHashMap();
+        ReportAnalyzers.classifier(analyzers).accept(file, found);
+        return found;
+    }
+
+    private static <T> List<T> parse(final ReportAnalyzer<T> analyzer, final Path path) throws IOException {
+        final List<T> results = Lists.newArrayList();
+        analyzer.parse(path, results);
+        return results;
+    }
+
+    // Names and contents, alternately
+    private static void zip(final Path archive, final String... entries) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+            for (int i = 0; i < entries.length; i += 2) {
+                zip.putNextEntry(new ZipEntry(entries[i]));
+                zip.write(entries[i + 1].getBytes(Charsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+public class RunMetricsTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testArchivesAreCountedAtTheirSize() throws IOException {
+        final Path archive = folder.getRoot().toPath().resolve("results.zip");
+        Files.write(archive, new byte[1234]);
+        final Path reports = ReportInputs.reports(archive, ResultExport.JUNIT);
+
+        final RunMetrics metrics = new RunMetrics("junit", 0);
+        metrics.<String>timeFiles(path -> "archive", (path, results) -> results.add("result")).accept(reports, Lists.newArrayList());
+        final Path output = folder.getRoot().toPath().resolve("junit.html");
+        metrics.write(output.toString());
+
+        final List<String> prometheus = Files.readAllLines(output.resolveSibling("junit-metrics.prom"), Charsets.UTF_8);
+        Assert.assertTrue(prometheus.toString(), prometheus.contains("report_file_bytes{tool=\"junit\",type=\"archive\"} 1234"));
+        Assert.assertTrue(prometheus.toString(), prometheus.contains("report_records{tool=\"junit\",type=\"archive\"} 1"));
+    }
+}
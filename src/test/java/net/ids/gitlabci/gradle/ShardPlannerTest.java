@@ -0,0 +1,92 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+public class ShardPlannerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLongestSuitesAreSpreadFirst() {
+        final Map<String, Float> durations = ImmutableMap.<String, Float>builder()
+                .put("A", 7f).put("B", 5f).put("C", 4f).put("D", 3f).put("E", 3f).put("F", 2f)
+                .build();
+
+        final List<List<String>> shards = ShardPlanner.plan(durations, 2);
+        // A then B go to the empty shards, then each suite goes to the least loaded shard: C (9 vs 7), D (10 vs 9), E (12 vs 10), F (12 vs 12)
+        Assert.assertEquals(Lists.newArrayList("A", "D", "F"), shards.get(0));
+        Assert.assertEquals(Lists.newArrayList("B", "C", "E"), shards.get(1));
+    }
+
+    @Test
+    public void testEqualDurationsAreOrderedByName() {
+        final Map<String, Float> durations = ImmutableMap.of("C", 1f, "A", 1f, "B", 1f);
+
+        final List<List<String>> shards = ShardPlanner.plan(durations, 3);
+        Assert.assertEquals(Lists.newArrayList("A"), shards.get(0));
+        Assert.assertEquals(Lists.newArrayList("B"), shards.get(1));
+        Assert.assertEquals(Lists.newArrayList("C"), shards.get(2));
+    }
+
+    @Test
+    public void testMoreShardsThanSuites() {
+        final List<List<String>> shards = ShardPlanner.plan(ImmutableMap.of("A", 1f), 3);
+        Assert.assertEquals(3, shards.size());
+        Assert.assertEquals(Lists.newArrayList("A"), shards.get(0));
+        Assert.assertTrue(shards.get(1).isEmpty());
+        Assert.assertTrue(shards.get(2).isEmpty());
+    }
+
+    @Test
+    public void testShardFiles() throws IOException {
+        final List<List<String>> shards = Lists.newArrayList();
+        shards.add(Lists.newArrayList("b.B", "a.A"));
+        shards.add(Lists.newArrayList());
+        ShardPlanner.write(folder.getRoot().getPath(), shards);
+
+        Assert.assertEquals(Lists.newArrayList("a.A", "b.B"), Files.readAllLines(folder.getRoot().toPath().resolve("shard-1.txt")));
+        Assert.assertTrue(Files.readAllLines(folder.getRoot().toPath().resolve("shard-2.txt")).isEmpty());
+    }
+
+    @Test
+    public void testRepeatedSuitesAreAddedUp() throws IOException {
+        final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> results = Lists.newArrayList();
+        results.add(suite("a.A", 2f));
+        results.add(suite("a.A", 3f));
+        results.add(suite("b.B", 4f));
+
+        // Without history, each appearance counts with its time in this run
+        Assert.assertEquals(ImmutableMap.of("a.A", 5f, "b.B", 4f), JUnitAnalysisTool.suiteDurations(results, null));
+
+        // With history, each appearance counts with the suite's median
+        final String file = folder.getRoot().toPath().resolve("history.bin").toString();
+        final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> previous = Lists.newArrayList();
+        previous.add(suite("a.A", 10f));
+        TestTimingHistory.load(file).append(previous);
+        Assert.assertEquals(ImmutableMap.of("a.A", 20f, "b.B", 4f), JUnitAnalysisTool.suiteDurations(results, TestTimingHistory.load(file)));
+    }
+
+    @Test
+    public void testShardsNeedADirectory() {
+        Assert.assertNull(AnalysisOptions.parse(new String[] {"--shards", "4", "root", "out.html"}));
+        Assert.assertEquals(4, AnalysisOptions.parse(new String[] {"--shards", "4", "--shard-dir", "shards", "root", "out.html"}).shards);
+        Assert.assertNotNull(AnalysisOptions.parse(new String[] {"root", "out.html"}));
+    }
+
+    private static Pair<JUnitTestSuite, List<JUnitTestCase>> suite(final String name, final float time) {
+        return Pair.of(new JUnitTestSuite(name, 0, 0, 0, 0, time, null, null), Lists.newArrayList());
+    }
+}
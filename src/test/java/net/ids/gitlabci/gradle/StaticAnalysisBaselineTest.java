@@ -0,0 +1,124 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+public class StaticAnalysisBaselineTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Path BUILDS = Paths.get("/builds/1");
+
+    private static final Path HOME = Paths.get("/home/me/project");
+
+    @Test
+    public void testFingerprintIgnoresLinesCheckoutAndNumbers() {
+        final long fingerprint = fingerprint(message("/builds/1/core", 10, "Line is longer than 120 characters (found 131)."));
+
+        Assert.assertEquals(fingerprint, fingerprint(message("/builds/1/core", 14, "Line is longer than 120 characters (found 131).")));
+        Assert.assertEquals(fingerprint, StaticAnalysisBaseline.fingerprint(message("/home/me/project/core", 10, "Line is longer than 120 characters (found 131)."), HOME));
+        Assert.assertEquals(fingerprint, fingerprint(message("/builds/1/core", 10, "Line is longer than 120 characters  (found 140).")));
+    }
+
+    @Test
+    public void testFingerprintKeepsTheModule() {
+        final long fingerprint = fingerprint(message("/builds/1/core", 10, "Unused import."));
+
+        Assert.assertNotEquals(fingerprint, fingerprint(message("/builds/1/web", 10, "Unused import.")));
+        Assert.assertNotEquals(fingerprint, StaticAnalysisBaseline.fingerprint(message("/home/me/project/web", 10, "Unused import."), HOME));
+    }
+
+    @Test
+    public void testFingerprintDistinguishesViolations() {
+        final StaticAnalysisMessage message = message("/builds/1/core", 10, "Missing a Javadoc comment.");
+        final long fingerprint = fingerprint(message);
+
+        Assert.assertNotEquals(fingerprint, fingerprint(message("/builds/1/core", 10, "Missing a Javadoc comment!")));
+        Assert.assertNotEquals(fingerprint, fingerprint(message.rule("OtherRule")));
+        Assert.assertNotEquals(fingerprint, fingerprint(new StaticAnalysisMessage("checkstyle", "/builds/1/core/src/B.java")
+                .module("/builds/1/core").line(10).message("Missing a Javadoc comment.").rule("Rule")));
+        // Null and empty fields are told apart
+        Assert.assertNotEquals(fingerprint(message("/m", 1, null)), fingerprint(message("/m", 1, "")));
+    }
+
+    @Test
+    public void testNormalise() {
+        Assert.assertEquals("Found # issues in # files", StaticAnalysisBaseline.normalise("Found 12 issues in  3\tfiles"));
+        Assert.assertEquals("Value #.#", StaticAnalysisBaseline.normalise(" Value 1.25 "));
+        Assert.assertNull(StaticAnalysisBaseline.normalise(null));
+    }
+
+    @Test
+    public void testOnlyNewViolationsAreReported() throws IOException {
+        final StaticAnalysisMessageStore previous = new StaticAnalysisMessageStore();
+        previous.add(message("/old/core", 10, "Unused import."));
+        previous.add(message("/old/core", 20, "Magic number 42."));
+        final String file = folder.newFile("baseline.bin").getPath();
+        ResultExport.writeBinary(file, ResultExport.STATIC_ANALYSIS, "/old", RecordCodecs.STATIC_ANALYSIS_MESSAGE, previous.size(), previous);
+
+        final StaticAnalysisBaseline baseline = StaticAnalysisBaseline.load(file);
+        Assert.assertEquals(2, baseline.size());
+
+        final StaticAnalysisMessageStore current = new StaticAnalysisMessageStore();
+        // Moved, and in a different checkout
+        current.add(message("/new/core", 15, "Unused import."));
+        current.add(message("/new/core", 25, "Magic number 42."));
+        // A second copy of an existing violation, and a new one
+        current.add(message("/new/core", 30, "Magic number 43."));
+        current.add(message("/new/core", 40, "Trailing whitespace."));
+
+        final List<String> newMessages = Lists.newArrayList();
+        baseline.newMessages(current, Paths.get("/new")).forEach(message -> newMessages.add(message.startLine + ": " + message.message));
+        Assert.assertEquals(Lists.newArrayList("30: Magic number 43.", "40: Trailing whitespace."), newMessages);
+    }
+
+    @Test
+    public void testMergedOccurrencesAreMatchedOneByOne() throws IOException {
+        final StaticAnalysisMessageStore previous = new StaticAnalysisMessageStore();
+        previous.add(message("/core", 10, "Duplicate").occurrences(2));
+        final String file = folder.newFile("baseline.bin").getPath();
+        ResultExport.writeBinary(file, ResultExport.STATIC_ANALYSIS, "/", RecordCodecs.STATIC_ANALYSIS_MESSAGE, previous.size(), previous);
+
+        final StaticAnalysisMessageStore current = new StaticAnalysisMessageStore();
+        current.add(message("/core", 10, "Duplicate").occurrences(3));
+
+        final StaticAnalysisMessageStore newMessages = StaticAnalysisBaseline.load(file).newMessages(current, Paths.get("/"));
+        Assert.assertEquals(1, newMessages.size());
+        Assert.assertEquals(1, newMessages.get(0).occurrences);
+    }
+
+    @Test
+    public void testModulesSharingAPathAreToldApart() throws IOException {
+        final StaticAnalysisMessageStore previous = new StaticAnalysisMessageStore();
+        previous.add(message("/old/a", 10, "Unused import."));
+        final String file = folder.newFile("baseline.bin").getPath();
+        ResultExport.writeBinary(file, ResultExport.STATIC_ANALYSIS, "/old", RecordCodecs.STATIC_ANALYSIS_MESSAGE, previous.size(), previous);
+
+        final StaticAnalysisMessageStore current = new StaticAnalysisMessageStore();
+        // Both are src/A.java, in their own module
+        current.add(message("/new/a", 10, "Unused import."));
+        current.add(message("/new/b", 10, "Unused import."));
+
+        final StaticAnalysisMessageStore newMessages = StaticAnalysisBaseline.load(file).newMessages(current, Paths.get("/new"));
+        Assert.assertEquals(1, newMessages.size());
+        Assert.assertEquals("/new/b", newMessages.get(0).module);
+    }
+
+    private static long fingerprint(final StaticAnalysisMessage message) {
+        return StaticAnalysisBaseline.fingerprint(message, BUILDS);
+    }
+
+    private static StaticAnalysisMessage message(final String module, final int line, final String text) {
+        return new StaticAnalysisMessage("checkstyle", module + "/src/A.java").module(module).line(line).message(text).rule("Rule");
+    }
+}
@@ -0,0 +1,171 @@
+package net.ids.gitlabci.gradle;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class StaticAnalysisMessageStoreTest {
+
+    @Test
+    public void testMessagesRoundTrip() {
+        final StaticAnalysisMessageStore store = new StaticAnalysisMessageStore();
+        store.add(new StaticAnalysisMessage("pmd", "/src/A.java")
+                .module("/core")
+                .lineAndColumnRange(10, 12, 5, 9)
+                .method("run")
+                .message("Avoid this")
+                .priority(2)
+                .rule("SomeRule")
+                .category("design")
+                .infoUrl("http://example.com/SomeRule"));
+
+        Assert.assertEquals(1, store.size());
+        final StaticAnalysisMessage message = store.get(0);
+        Assert.assertEquals("pmd", message.tool);
+        Assert.assertEquals("/src/A.java", message.fileName);
+        Assert.assertEquals("/core", message.module);
+        Assert.assertEquals(10, message.startLine);
+        Assert.assertEquals(12, message.endLine);
+        Assert.assertEquals(5, message.startCol);
+        Assert.assertEquals(9, message.endCol);
+        Assert.assertEquals("run", message.method);
+        Assert.assertEquals("Avoid this", message.message);
+        Assert.assertEquals(2, message.priority);
+        Assert.assertEquals("SomeRule", message.rule);
+        Assert.assertEquals("design", message.category);
+        Assert.assertEquals("http://example.com/SomeRule", message.infoUrl);
+        Assert.assertEquals(1, message.occurrences);
+    }
+
+    @Test
+    public void testRepeatedViolationsAreMerged() {
+        final StaticAnalysisMessageStore store = new StaticAnalysisMessageStore();
+        store.add(violation("findbugs", "a.A", 10, "NP_NULL"));
+        store.add(violation("findbugs", "a.A", 10, "NP_NULL"));
+        store.add(violation("findbugs", "a.A", 11, "NP_NULL"));
+        store.add(violation("findbugs", "a.A", 10, "DM_EXIT"));
+
+        Assert.assertEquals(3, store.size());
+        Assert.assertEquals(4, store.totalOccurrences());
+        Assert.assertEquals(2, store.get(0).occurrences);
+    }
+
+    @Test
+    public void testViolationsInOtherColumnsOrWithOtherMessagesAreKept() {
+        final StaticAnalysisMessageStore store = new StaticAnalysisMessageStore();
+        store.add(violation("checkstyle", "/src/A.java", 10, "LineLength").lineAndColumnRange(10, 10, 5, 5).message("First"));
+        store.add(violation("checkstyle", "/src/A.java", 10, "LineLength").lineAndColumnRange(10, 10, 20, 20).message("First"));
+        store.add(violation("checkstyle", "/src/A.java", 10, "LineLength").lineAndColumnRange(10, 10, 5, 5).message("Second"));
+        store.add(violation("checkstyle", "/src/A.java", 10, "LineLength").lineAndColumnRange(10, 10, 5, 5).message("First"));
+
+        Assert.assertEquals(3, store.size());
+        Assert.assertEquals(4, store.totalOccurrences());
+        Assert.assertEquals(2, store.get(0).occurrences);
+        Assert.assertEquals(20, store.get(1).startCol);
+        Assert.assertEquals("Second", store.get(2).message);
+    }
+
+    @Test
+    public void testManyRows() {
+        final StaticAnalysisMessageStore store = new StaticAnalysisMessageStore();
+        for (int i = 0; i < 5000; i++) {
+            store.add(violation("checkstyle", "/src/F" + i % 50 + ".java", i, "Rule" + i % 7));
+        }
+        // Added again after the store has grown, so each lands on the existing row
+        for (int i = 0; i < 5000; i++) {
+            store.add(violation("checkstyle", "/src/F" + i % 50 + ".java", i, "Rule" + i % 7));
+        }
+
+        Assert.assertEquals(5000, store.size());
+        Assert.assertEquals(10000, store.totalOccurrences());
+        for (int row = 0; row < store.size(); row++) {
+            Assert.assertEquals(row, store.get(row).startLine);
+            Assert.assertEquals(2, store.get(row).occurrences);
+        }
+    }
+
+    @Test
+    public void testMessagesInOtherModulesAreNotMerged() {
+        final StaticAnalysisMessageStore store = new StaticAnalysisMessageStore();
+        store.add(violation("pmd", "src/A.java", 3, "Rule").module("/core"));
+        store.add(violation("pmd", "src/A.java", 3, "Rule").module("/web"));
+        store.add(violation("pmd", "src/A.java", 3, "Rule").module("/web"));
+
+        Assert.assertEquals(2, store.size());
+        Assert.assertEquals("/core", store.get(0).module);
+        Assert.assertEquals(1, store.get(0).occurrences);
+        Assert.assertEquals("/web", store.get(1).module);
+        Assert.assertEquals(2, store.get(1).occurrences);
+    }
+
+    @Test
+    public void testSortOrdersByFileLineToolAndRule() {
+        final StaticAnalysisMessageStore store = new StaticAnalysisMessageStore();
+        store.add(violation("pmd", "/src/B.java", 1, "Rule"));
+        store.add(violation("pmd", "/src/A.java", 20, "Rule"));
+        store.add(violation("pmd", "/src/A.java", 3, "Rule"));
+        store.add(violation("checkstyle", "/src/A.java", 3, "Rule"));
+        store.add(violation("checkstyle", "/src/A.java", 3, "Another"));
+        store.sort(null);
+
+        final List<String> order = Lists.newArrayList();
+        for (StaticAnalysisMessage message : store) {
+            order.add(message.fileName + ":" + message.startLine + ":" + message.tool + ":" + message.rule);
+        }
+        Assert.assertEquals(Lists.newArrayList("/src/A.java:3:checkstyle:Another", "/src/A.java:3:checkstyle:Rule", "/src/A.java:3:pmd:Rule",
+                "/src/A.java:20:pmd:Rule", "/src/B.java:1:pmd:Rule"), order);
+
+        // Duplicates still merge after the sort has moved the rows around
+        store.add(violation("pmd", "/src/B.java", 1, "Rule"));
+        Assert.assertEquals(5, store.size());
+        Assert.assertEquals(2, store.get(4).occurrences);
+    }
+
+    @Test
+    public void testSortOnAPoolIsStable() {
+        final Random random = new Random(42);
+        final List<StaticAnalysisMessage> messages = Lists.newArrayList();
+        for (int i = 0; i < 20000; i++) {
+            final String rule = random.nextInt(5) == 0 ? null : "Rule" + random.nextInt(3);
+            // Distinct messages, so nothing is merged
+            messages.add(violation("tool" + random.nextInt(3), "/src/" + random.nextInt(50) + ".java", random.nextInt(200) - 100, rule).message("m" + i));
+        }
+        final StaticAnalysisMessageStore store = new StaticAnalysisMessageStore();
+        messages.forEach(store::add);
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            store.sort(pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        final List<StaticAnalysisMessage> expected = Lists.newArrayList(messages);
+        expected.sort(Comparator.comparing((StaticAnalysisMessage message) -> message.fileName).thenComparingInt(message -> message.startLine)
+                .thenComparing(message -> message.tool).thenComparing(message -> message.rule, Comparator.nullsFirst(Comparator.naturalOrder())));
+        final List<String> order = Lists.newArrayList();
+        store.forEach(message -> order.add(message.message));
+        Assert.assertEquals(Lists.transform(expected, message -> message.message), order);
+    }
+
+    @Test
+    public void testRowsView() {
+        final StaticAnalysisMessageStore store = new StaticAnalysisMessageStore();
+        store.add(violation("pmd", "/src/A.java", 1, "Rule"));
+        store.add(violation("pmd", "/src/B.java", 1, "Rule"));
+        store.add(violation("pmd", "/src/C.java", 1, "Rule"));
+
+        final List<String> files = Lists.newArrayList();
+        store.rows(new int[] {2, 0}).forEach(message -> files.add(message.fileName));
+        Assert.assertEquals(Lists.newArrayList("/src/C.java", "/src/A.java"), files);
+    }
+
+    static StaticAnalysisMessage violation(final String tool, final String fileName, final int line, final String rule) {
+        return new StaticAnalysisMessage(tool, fileName).line(line).rule(rule).priority(1);
+    }
+}
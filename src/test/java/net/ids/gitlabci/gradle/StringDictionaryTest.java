@@ -0,0 +1,72 @@
+package net.ids.gitlabci.gradle;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StringDictionaryTest {
+
+    @Test
+    public void testEqualStringsShareAnId() {
+        final StringDictionary dictionary = new StringDictionary();
+        final int id = dictionary.intern("checkstyle");
+
+        Assert.assertEquals(id, dictionary.intern(new String("checkstyle")));
+        Assert.assertNotEquals(id, dictionary.intern("pmd"));
+        Assert.assertEquals("checkstyle", dictionary.get(id));
+        Assert.assertEquals(2, dictionary.size());
+    }
+
+    @Test
+    public void testNull() {
+        final StringDictionary dictionary = new StringDictionary();
+
+        Assert.assertEquals(StringDictionary.NULL_ID, dictionary.intern(null));
+        Assert.assertNull(dictionary.get(StringDictionary.NULL_ID));
+        Assert.assertEquals(0, dictionary.size());
+    }
+
+    @Test
+    public void testIdsSurviveGrowth() {
+        final StringDictionary dictionary = new StringDictionary();
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals(i, dictionary.intern("value-" + i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals(i, dictionary.intern("value-" + i));
+            Assert.assertEquals("value-" + i, dictionary.get(i));
+        }
+    }
+
+    @Test
+    public void testRanksFollowTheNaturalOrder() {
+        final StringDictionary dictionary = new StringDictionary();
+        final int c = dictionary.intern("c");
+        final int a = dictionary.intern("a");
+        final int b = dictionary.intern("b");
+
+        final int[] ranks = dictionary.ranks(null);
+        Assert.assertEquals(0, ranks[a]);
+        Assert.assertEquals(1, ranks[b]);
+        Assert.assertEquals(2, ranks[c]);
+        Assert.assertEquals(3, dictionary.size());
+    }
+
+    @Test
+    public void testRanksOnAPool() {
+        final StringDictionary dictionary = new StringDictionary();
+        for (int i = 9999; i >= 0; i--) {
+            dictionary.intern(String.format("%05d", i));
+        }
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            final int[] ranks = dictionary.ranks(pool);
+            for (int id = 0; id < dictionary.size(); id++) {
+                Assert.assertEquals(Integer.parseInt(dictionary.get(id)), ranks[id]);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package net.ids.gitlabci.gradle;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+public class TestTimingHistoryTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDurationsAreRecorded() throws IOException {
+        final String file = folder.getRoot().toPath().resolve("history.bin").toString();
+        TestTimingHistory.load(file).append(run("a.ATest", 1f));
+        TestTimingHistory.load(file).append(run("a.ATest", 2f));
+
+        Assert.assertArrayEquals(new float[] {1f, 2f}, TestTimingHistory.load(file).suiteTimes("a.ATest"), 0f);
+        Assert.assertEquals(0, TestTimingHistory.load(file).suiteTimes("b.BTest").length);
+    }
+
+    @Test
+    public void testOnlyTheLatestSamplesAreKept() throws IOException {
+        final String file = folder.getRoot().toPath().resolve("history.bin").toString();
+        for (int i = 0; i < TestTimingHistory.MAX_SAMPLES * 3; i++) {
+            TestTimingHistory.load(file).append(run("a.ATest", i));
+        }
+
+        final float[] times = TestTimingHistory.load(file).suiteTimes("a.ATest");
+        Assert.assertEquals(TestTimingHistory.MAX_SAMPLES, times.length);
+        Assert.assertEquals(TestTimingHistory.MAX_SAMPLES * 3 - 1, times[times.length - 1], 0f);
+    }
+
+    @Test
+    public void testSuitesMissingFromARunAreKept() throws IOException {
+        final String file = folder.getRoot().toPath().resolve("history.bin").toString();
+        // Two shards recording into the same history, one far more often than the other (so the file is compacted along the way)
+        TestTimingHistory.load(file).append(run("b.BTest", 5f));
+        for (int i = 0; i < TestTimingHistory.MAX_IDLE_RUNS - 1; i++) {
+            TestTimingHistory.load(file).append(run("a.ATest", 1f));
+        }
+        Assert.assertArrayEquals(new float[] {5f}, TestTimingHistory.load(file).suiteTimes("b.BTest"), 0f);
+
+        // Until they've gone unrecorded for too long
+        TestTimingHistory.load(file).append(run("a.ATest", 1f));
+        Assert.assertEquals(0, TestTimingHistory.load(file).suiteTimes("b.BTest").length);
+        Assert.assertEquals(TestTimingHistory.MAX_SAMPLES, TestTimingHistory.load(file).suiteTimes("a.ATest").length);
+    }
+
+    @Test
+    public void testRegressionsAreFlagged() throws IOException {
+        final String file = folder.getRoot().toPath().resolve("history.bin").toString();
+        for (int i = 0; i < 10; i++) {
+            TestTimingHistory.load(file).append(run("a.ATest", 1f));
+        }
+
+        final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> slow = run("a.ATest", 3f);
+        final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> usual = run("a.ATest", 1.2f);
+        final TestTimingHistory history = TestTimingHistory.load(file);
+        Assert.assertEquals(1, history.flagRegressions(slow));
+        Assert.assertEquals(1f, slow.get(0).getRight().get(0).historyP90, 0f);
+        Assert.assertEquals(0, history.flagRegressions(usual));
+    }
+
+    @Test
+    public void testPartialRecordIsDropped() throws IOException {
+        final String file = folder.getRoot().toPath().resolve("history.bin").toString();
+        TestTimingHistory.load(file).append(run("a.ATest", 1f));
+        TestTimingHistory.load(file).append(run("a.ATest", 2f));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+
+        TestTimingHistory.load(file).append(run("a.ATest", 3f));
+        Assert.assertArrayEquals(new float[] {1f, 2f, 3f}, TestTimingHistory.load(file).suiteTimes("a.ATest"), 0f);
+    }
+
+    private static List<Pair<JUnitTestSuite, List<JUnitTestCase>>> run(final String suiteName, final float time) {
+        final List<JUnitTestCase> tests = Lists.newArrayList(new JUnitTestCase("test", suiteName, time));
+        final List<Pair<JUnitTestSuite, List<JUnitTestCase>>> results = Lists.newArrayList();
+        results.add(Pair.of(new JUnitTestSuite(suiteName, 1, 0, 0, 0, time, null, null), tests));
+        return results;
+    }
+}
@@ -0,0 +1,141 @@
+package net.ids.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+
+public class MappedXmlScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reportsElementsAndSkipsEverythingElse() {
+        final MappedXmlScanner scanner = scanner("<?xml version=\"1.0\"?>\n<!DOCTYPE a [<!ENTITY x \"y\">]>\n<!-- <b/> -->"
+                + "<a><![CDATA[<c/>]]>text<?pi <d/>?><e/></a>");
+
+        Assert.assertEquals(MappedXmlScanner.START_ELEMENT, scanner.next());
+        Assert.assertEquals("a", scanner.name());
+        Assert.assertEquals(1, scanner.depth());
+        Assert.assertEquals(MappedXmlScanner.START_ELEMENT, scanner.next());
+        Assert.assertEquals("e", scanner.name());
+        Assert.assertEquals(MappedXmlScanner.END_ELEMENT, scanner.next());
+        Assert.assertEquals(MappedXmlScanner.END_ELEMENT, scanner.next());
+        Assert.assertEquals("a", scanner.name());
+        Assert.assertEquals(MappedXmlScanner.END_DOCUMENT, scanner.next());
+    }
+
+    @Test
+    public void decodesReferencesInAttributes() {
+        final MappedXmlScanner scanner = scanner("<a v=\"&lt;&amp;&gt;&quot;&apos; &#65;&#x42; &#x1F600; &unknown;\"/>");
+        scanner.next();
+
+        Assert.assertEquals("<&>\"' AB \uD83D\uDE00 &unknown;", scanner.attribute("v"));
+        Assert.assertNull(scanner.attribute("w"));
+    }
+
+    @Test
+    public void normalisesLineEndsInAttributes() {
+        final MappedXmlScanner scanner = scanner("<a v=\"1\r\n2\r3\n4\t5\" w=\"6&#13;&#10;7\"/>");
+        scanner.next();
+
+        Assert.assertEquals("1 2 3 4 5", scanner.attribute("v"));
+        // Character references are kept as they are, as in XML
+        Assert.assertEquals("6\r\n7", scanner.attribute("w"));
+    }
+
+    @Test
+    public void rejectsInvalidCharacterReferences() {
+        for (String reference : new String[] { "&#0;", "&#xD800;", "&#x110000;", "&#99999999999;", "&#xZZ;", "&#;" }) {
+            final MappedXmlScanner scanner = scanner("<a v=\"" + reference + "\"/>");
+            scanner.next();
+            try {
+                scanner.attribute("v");
+                Assert.fail("Accepted " + reference);
+            } catch (IllegalStateException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("reference"));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedDocuments() {
+        for (String document : new String[] { "<a><b/>", "<a></a", "<a><b", "<a><!-- b" }) {
+            final MappedXmlScanner scanner = scanner(document);
+            try {
+                while (scanner.next() != MappedXmlScanner.END_DOCUMENT) {
+                    continue;
+                }
+                Assert.fail("Accepted " + document);
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void startsFromTheBufferPosition() {
+        final ByteBuffer buffer = ByteBuffer.wrap("<skipped/><a v=\"1\"/>".getBytes(Charsets.UTF_8));
+        buffer.position("<skipped/>".length());
+        final MappedXmlScanner scanner = new MappedXmlScanner(buffer);
+
+        Assert.assertEquals(MappedXmlScanner.START_ELEMENT, scanner.next());
+        Assert.assertEquals("a", scanner.name());
+        Assert.assertEquals(1, scanner.intAttribute("v"));
+    }
+
+    @Test
+    public void transcodesDeclaredEncodings() {
+        final String document = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><a v=\"caf\u00E9\"/>";
+        final MappedXmlScanner scanner = new MappedXmlScanner(ByteBuffer.wrap(document.getBytes(Charsets.ISO_8859_1)));
+        scanner.next();
+
+        Assert.assertEquals("caf\u00E9", scanner.attribute("v"));
+    }
+
+    @Test
+    public void transcodesUtf16WithByteOrderMark() {
+        for (Charset charset : new Charset[] { Charsets.UTF_16BE, Charsets.UTF_16LE }) {
+            final String document = "\uFEFF<?xml version=\"1.0\" encoding=\"UTF-16\"?><a v=\"\u00FCber\"/>";
+            final MappedXmlScanner scanner = new MappedXmlScanner(ByteBuffer.wrap(document.getBytes(charset)));
+
+            Assert.assertEquals(MappedXmlScanner.START_ELEMENT, scanner.next());
+            Assert.assertEquals("a", scanner.name());
+            Assert.assertEquals("\u00FCber", scanner.attribute("v"));
+            Assert.assertEquals(MappedXmlScanner.END_ELEMENT, scanner.next());
+            Assert.assertEquals(MappedXmlScanner.END_DOCUMENT, scanner.next());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsUnsupportedEncodings() {
+        scanner("<?xml version=\"1.0\" encoding=\"no-such-charset\"?><a/>");
+    }
+
+    @Test
+    public void opensFiles() throws IOException {
+        final Path file = folder.newFile("report.xml").toPath();
+        Files.write(file, "<a v=\"\u00E9\"><b/></a>".getBytes(Charsets.UTF_8));
+        final MappedXmlScanner scanner = MappedXmlScanner.open(file);
+
+        Assert.assertEquals(MappedXmlScanner.START_ELEMENT, scanner.next());
+        Assert.assertEquals("\u00E9", scanner.attribute("v"));
+        Assert.assertEquals(MappedXmlScanner.START_ELEMENT, scanner.next());
+        Assert.assertEquals(MappedXmlScanner.END_ELEMENT, scanner.next());
+        Assert.assertEquals(MappedXmlScanner.END_ELEMENT, scanner.next());
+        Assert.assertEquals(MappedXmlScanner.END_DOCUMENT, scanner.next());
+    }
+
+    private static MappedXmlScanner scanner(final String document) {
+        return new MappedXmlScanner(ByteBuffer.wrap(document.getBytes(Charsets.UTF_8)));
+    }
+}
@@ -0,0 +1,84 @@
+package net.ids.util;
+
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NumberParserTest {
+
+    private final Locale defaultLocale = Locale.getDefault(Locale.Category.FORMAT);
+
+    @After
+    public void restoreLocale() {
+        Locale.setDefault(Locale.Category.FORMAT, defaultLocale);
+    }
+
+    @Test
+    public void testParseInt() {
+        Assert.assertEquals(42, NumberParser.parseInt("42"));
+        Assert.assertEquals(-7, NumberParser.parseInt("-7"));
+        Assert.assertEquals(Integer.MAX_VALUE, NumberParser.parseInt("2147483647"));
+        Assert.assertEquals(Integer.MIN_VALUE, NumberParser.parseInt("-2147483648"));
+        Assert.assertEquals(12, NumberParser.parseInt("x123", 1, 3));
+    }
+
+    @Test
+    public void testParseIntRejectsInvalidText() {
+        for (String text : new String[] { "", "-", "1.5", "2147483648", "12a" }) {
+            try {
+                NumberParser.parseInt(text);
+                Assert.fail("Accepted " + text);
+            } catch (NumberFormatException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testParseFloat() {
+        Assert.assertEquals(1.5f, NumberParser.parseFloat("1.5"), 0);
+        Assert.assertEquals(-0.25f, NumberParser.parseFloat(" -0.25 "), 0);
+        Assert.assertEquals(1.5e-4f, NumberParser.parseFloat("1.5E-4"), 0);
+        Assert.assertEquals(3f, NumberParser.parseFloat("3"), 0);
+    }
+
+    @Test
+    public void testParseFloatWithLocaleFormatting() {
+        Assert.assertEquals(1234.5f, NumberParser.parseFloat("1,234.5"), 0);
+        Assert.assertEquals(1234.5f, NumberParser.parseFloat("1.234,5"), 0);
+        Assert.assertEquals(1234.5f, NumberParser.parseFloat("1 234,5"), 0);
+        Assert.assertEquals(1234567f, NumberParser.parseFloat("1,234,567"), 0);
+        Assert.assertEquals(0.5f, NumberParser.parseFloat("0,5"), 0);
+        Assert.assertEquals(12.25f, NumberParser.parseFloat("12,25"), 0);
+        // A lone '.' is always the decimal point
+        Assert.assertEquals(1.234f, NumberParser.parseFloat("1.234"), 0);
+    }
+
+    @Test
+    public void testAmbiguousCommaFollowsTheLocale() {
+        Locale.setDefault(Locale.Category.FORMAT, Locale.US);
+        Assert.assertEquals(1234f, NumberParser.parseFloat("1,234"), 0);
+        Assert.assertEquals(-1234f, NumberParser.parseFloat("-1,234"), 0);
+
+        Locale.setDefault(Locale.Category.FORMAT, Locale.GERMANY);
+        Assert.assertEquals(1.234f, NumberParser.parseFloat("1,234"), 0);
+        Assert.assertEquals(-1.234f, NumberParser.parseFloat("-1,234"), 0);
+
+        // Not ambiguous whatever the locale
+        Assert.assertEquals(1234.567f, NumberParser.parseFloat("1234,567"), 0);
+    }
+
+    @Test
+    public void testParseFloatRejectsInvalidText() {
+        for (String text : new String[] { "", "-", ".", "1.5x", "1E", "abc" }) {
+            try {
+                NumberParser.parseFloat(text);
+                Assert.fail("Accepted " + text);
+            } catch (NumberFormatException e) {
+                // Expected
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package net.ids.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class TarReaderTest {
+
+    private static final int BLOCK_SIZE = 512;
+
+    @Test
+    public void testReadsRegularFilesInOrder() throws IOException {
+        final TarBuilder tar = new TarBuilder()
+                .entry("build/", '5', "")
+                .entry("build/a.xml", '0', "<a/>")
+                .entry("build/link", '2', "")
+                .entry("build/b.xml", '\0', "<b>" + repeat('x', 1000) + "</b>");
+        final TarReader reader = new TarReader(tar.input());
+
+        Assert.assertEquals("build/a.xml", reader.nextEntry());
+        Assert.assertEquals("build/a.xml", reader.name());
+        Assert.assertEquals(4, reader.size());
+        Assert.assertEquals("<a/>", IOUtils.toString(reader.entryStream(), Charsets.UTF_8));
+        Assert.assertEquals("build/b.xml", reader.nextEntry());
+        Assert.assertEquals(1007, IOUtils.toString(reader.entryStream(), Charsets.UTF_8).length());
+        Assert.assertNull(reader.nextEntry());
+    }
+
+    @Test
+    public void testSkipsTheRestOfAnEntry() throws IOException {
+        final TarBuilder tar = new TarBuilder()
+                .entry("a.xml", '0', repeat('a', 2000))
+                .entry("b.xml", '0', "<b/>");
+        final TarReader reader = new TarReader(tar.input());
+
+        Assert.assertEquals("a.xml", reader.nextEntry());
+        Assert.assertEquals('a', reader.entryStream().read());
+        Assert.assertEquals("b.xml", reader.nextEntry());
+        Assert.assertEquals("<b/>", IOUtils.toString(reader.entryStream(), Charsets.UTF_8));
+    }
+
+    @Test
+    public void testLongNames() throws IOException {
+        final String gnuName = "gnu/" + repeat('g', 150) + ".xml";
+        final String paxName = "pax/" + repeat('p', 150) + ".xml";
+        final String pathRecord = " path=" + paxName + "\n";
+        final TarBuilder tar = new TarBuilder()
+                .entry("././@LongLink", 'L', gnuName + "\0")
+                .entry("truncated-gnu", '0', "gnu")
+                .entry("PaxHeaders/x", 'x', recordLength(pathRecord) + pathRecord)
+                .entry("truncated-pax", '0', "pax")
+                .ustarEntry("prefix/" + repeat('u', 90), repeat('n', 20) + ".xml", "ustar");
+        final TarReader reader = new TarReader(tar.input());
+
+        Assert.assertEquals(gnuName, reader.nextEntry());
+        Assert.assertEquals(paxName, reader.nextEntry());
+        Assert.assertEquals("prefix/" + repeat('u', 90) + "/" + repeat('n', 20) + ".xml", reader.nextEntry());
+        Assert.assertNull(reader.nextEntry());
+    }
+
+    @Test
+    public void testBase256Size() throws IOException {
+        final byte[] header = new TarBuilder().header("big.xml", '0', 5);
+        Arrays.fill(header, 124, 136, (byte) 0);
+        header[124] = (byte) 0x80;
+        header[135] = 5;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(header);
+        bytes.write(Arrays.copyOf("<a/>\n".getBytes(Charsets.UTF_8), BLOCK_SIZE));
+        final TarReader reader = new TarReader(new ByteArrayInputStream(bytes.toByteArray()));
+
+        Assert.assertEquals("big.xml", reader.nextEntry());
+        Assert.assertEquals(5, reader.size());
+        Assert.assertEquals("<a/>\n", IOUtils.toString(reader.entryStream(), Charsets.UTF_8));
+        Assert.assertNull(reader.nextEntry());
+    }
+
+    @Test
+    public void testTruncatedArchive() throws IOException {
+        final byte[] archive = new TarBuilder().entry("a.xml", '0', repeat('a', 1000)).bytes();
+        final TarReader reader = new TarReader(new ByteArrayInputStream(Arrays.copyOf(archive, BLOCK_SIZE + 100)));
+
+        Assert.assertEquals("a.xml", reader.nextEntry());
+        try {
+            IOUtils.toByteArray(reader.entryStream());
+            Assert.fail("Read a truncated entry");
+        } catch (EOFException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("a.xml"));
+        }
+    }
+
+    @Test
+    public void testEmptyArchive() throws IOException {
+        Assert.assertNull(new TarReader(new ByteArrayInputStream(new byte[0])).nextEntry());
+        Assert.assertNull(new TarReader(new TarBuilder().input()).nextEntry());
+    }
+
+    private static String repeat(final char ch, final int count) {
+        final char[] chars = new char[count];
+        Arrays.fill(chars, ch);
+        return new String(chars);
+    }
+
+    // A pax record's length includes the digits of the length itself
+    private static int recordLength(final String record) {
+        int length = record.length() + 1;
+        while (length != record.length() + Integer.toString(length).length()) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Writes a tar archive in memory, with just the header fields that the reader looks at.
+     */
+    static final class TarBuilder {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        TarBuilder entry(final String name, final char type, final String contents) throws IOException {
+            return add(header(name, type, contents.getBytes(Charsets.UTF_8).length), contents);
+        }
+
+        TarBuilder ustarEntry(final String prefix, final String name, final String contents) throws IOException {
+            final byte[] header = header(name, '0', contents.getBytes(Charsets.UTF_8).length);
+            put(header, 257, "ustar\u000000");
+            put(header, 345, prefix);
+            return add(header, contents);
+        }
+
+        byte[] header(final String name, final char type, final long size) {
+            final byte[] header = new byte[BLOCK_SIZE];
+            put(header, 0, name);
+            put(header, 100, "0000644");
+            put(header, 124, String.format("%011o", size));
+            header[156] = (byte) type;
+            return header;
+        }
+
+        // Ends the archive with its two zero blocks
+        byte[] bytes() throws IOException {
+            bytes.write(new byte[BLOCK_SIZE * 2]);
+            return bytes.toByteArray();
+        }
+
+        ByteArrayInputStream input() throws IOException {
+            return new ByteArrayInputStream(bytes());
+        }
+
+        private TarBuilder add(final byte[] header, final String contents) throws IOException {
+            final byte[] data = contents.getBytes(Charsets.UTF_8);
+            bytes.write(header);
+            bytes.write(Arrays.copyOf(data, (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE));
+            return this;
+        }
+
+        private static void put(final byte[] header, final int offset, final String value) {
+            final byte[] bytes = value.getBytes(Charsets.UTF_8);
+            System.arraycopy(bytes, 0, header, offset, bytes.length);
+        }
+    }
+}